@@ -17,6 +17,7 @@
 package net.fabricmc.stitch;
 
 import net.fabricmc.stitch.commands.*;
+import net.fabricmc.stitch.commands.tinyv2.CommandBuildLoomTinyV2;
 import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2;
 import net.fabricmc.stitch.commands.tinyv2.CommandProposeV2FieldNames;
 import net.fabricmc.stitch.commands.tinyv2.CommandReorderTinyV2;
@@ -46,6 +47,7 @@ public class Main {
         addCommand(new CommandReorderTinyV2());
         addCommand(new CommandMergeTinyV2());
         addCommand(new CommandProposeV2FieldNames());
+        addCommand(new CommandBuildLoomTinyV2());
         addCommand(new CommandValidateRecords());
     }
 
@@ -17,10 +17,11 @@
 package net.fabricmc.stitch.commands;
 
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.ZipReader;
 
 import java.io.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.nio.file.Paths;
 
 public class CommandGeneratePrefixRemapper extends Command {
 	public CommandGeneratePrefixRemapper() {
@@ -39,16 +40,14 @@ public class CommandGeneratePrefixRemapper extends Command {
 
 	@Override
 	public void run(String[] args) throws Exception {
-		try (FileInputStream fis = new FileInputStream(new File(args[0]));
-		     FileOutputStream fos = new FileOutputStream(new File(args[2]));
+		// only the names are needed, which the central directory has without touching the entry data
+		try (ZipReader zip = new ZipReader(Paths.get(args[0]));
+		     OutputStream fos = CompressedFiles.newOutputStream(Paths.get(args[2]));
 		     OutputStreamWriter osw = new OutputStreamWriter(fos);
 		     BufferedWriter writer = new BufferedWriter(osw)) {
 			writer.write("v1\t" + (args.length >= 5 ? args[3] : "input")  + "\t" + (args.length >= 5 ? args[4] : "output") + "\n");
 
-			JarInputStream jis = new JarInputStream(fis);
-			JarEntry entry;
-
-			while ((entry = jis.getNextJarEntry()) != null) {
+			for (ZipReader.Entry entry : zip.getEntries()) {
 				if (entry.getName().endsWith(".class") && entry.getName().indexOf('/') < 0) {
 					String cn = entry.getName().substring(0, entry.getName().length() - 6);
 					writer.write("CLASS\t" + cn + "\t" + args[1] + cn + "\n");
@@ -16,12 +16,14 @@
 
 package net.fabricmc.stitch.commands;
 
+import net.fabricmc.mappings.EntryTriple;
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.ExternalSort;
 import net.fabricmc.stitch.util.MatcherUtil;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Paths;
 
 public class CommandMatcherToTiny extends Command {
 	public CommandMatcherToTiny() {
@@ -30,56 +32,97 @@ public class CommandMatcherToTiny extends Command {
 
 	@Override
 	public String getHelpString() {
-		return "<in> <out> <src-name> <dst-name>";
+		return "<in> <out> <src-name> <dst-name> [--sort] [--maxMemory <MiB>]";
 	}
 
 	@Override
 	public boolean isArgumentCountValid(int count) {
-		return count == 4;
+		return count >= 4;
+	}
+
+	private interface LineSink {
+		void accept(char type, String line) throws IOException;
 	}
 
 	@Override
 	public void run(String[] args) throws Exception {
-		Map<String, String> classNames = new HashMap<>();
-		Map<String, String> fieldNames = new HashMap<>();
-		Map<String, String> methodNames = new HashMap<>();
-
-		System.out.println("Loading...");
-		try (
-				FileInputStream fis = new FileInputStream(new File(args[0]));
-				InputStreamReader isr = new InputStreamReader(fis);
-				BufferedReader reader = new BufferedReader(isr)
-				) {
+		boolean sort = false;
+		// a quarter of the heap leaves room for the matcher names and the sort arrays
+		long maxMemory = Runtime.getRuntime().maxMemory() / 4;
 
-			MatcherUtil.read(reader, false,
-					classNames::put,
-					(src, dst) -> fieldNames.put(src.getOwner() + "\t" + src.getDesc() + "\t" + src.getName(), dst.getName()),
-					(src, dst) -> methodNames.put(src.getOwner() + "\t" + src.getDesc() + "\t" + src.getName(), dst.getName())
-			);
+		for (int i = 4; i < args.length; i++) {
+			if (args[i].equals("--sort")) {
+				sort = true;
+			} else if (args[i].equals("--maxMemory") && i + 1 < args.length) {
+				maxMemory = Long.parseLong(args[++i]) * 1024 * 1024;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
 		}
 
-		System.out.println("Saving...");
+		System.out.println("Converting...");
 		try (
-				FileOutputStream fos = new FileOutputStream(new File(args[1]));
+				OutputStream fos = CompressedFiles.newOutputStream(Paths.get(args[1]));
 				OutputStreamWriter osw = new OutputStreamWriter(fos);
-				BufferedWriter writer = new BufferedWriter(osw)
+				BufferedWriter writer = new BufferedWriter(osw);
+				ExternalSort sorter = sort ? new ExternalSort(maxMemory, null) : null
 				) {
 
 			writer.write("v1\t" + args[2] + "\t" + args[3] + "\n");
 
-			for (String s : classNames.keySet()) {
-				writer.write("CLASS\t" + s + "\t" + classNames.get(s) + "\n");
-			}
+			if (sorter != null) {
+				// classes, then fields, then methods, each sorted by their line
+				read(new File(args[0]), (type, line) -> sorter.add(type + line));
 
-			for (String s : fieldNames.keySet()) {
-				writer.write("FIELD\t" + s + "\t" + fieldNames.get(s) + "\n");
+				sorter.forEachSorted(record -> {
+					writer.write(record, 1, record.length() - 1);
+					writer.write('\n');
+				});
+			} else {
+				read(new File(args[0]), (type, line) -> {
+					writer.write(line);
+					writer.write('\n');
+				});
 			}
+		}
 
-			for (String s : methodNames.keySet()) {
-				writer.write("METHOD\t" + s + "\t" + methodNames.get(s) + "\n");
+		System.out.println("Done!");
+	}
+
+	/**
+	 * Turns every matcher entry into a Tiny line as soon as it is read.
+	 */
+	private static void read(File file, LineSink sink) throws IOException {
+		try (
+				InputStream fis = CompressedFiles.newInputStream(file.toPath());
+				InputStreamReader isr = new InputStreamReader(fis);
+				BufferedReader reader = new BufferedReader(isr)
+				) {
+			StringBuilder line = new StringBuilder();
+
+			try {
+				MatcherUtil.read(reader, false,
+						(src, dst) -> emit(sink, '0', line.append("CLASS\t").append(src).append('\t').append(dst)),
+						(src, dst) -> emit(sink, '1', appendMember(line.append("FIELD\t"), src, dst)),
+						(src, dst) -> emit(sink, '2', appendMember(line.append("METHOD\t"), src, dst))
+				);
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
 			}
 		}
+	}
 
-		System.out.println("Done!");
+	private static StringBuilder appendMember(StringBuilder line, EntryTriple src, EntryTriple dst) {
+		return line.append(src.getOwner()).append('\t').append(src.getDesc()).append('\t').append(src.getName()).append('\t').append(dst.getName());
+	}
+
+	private static void emit(LineSink sink, char type, StringBuilder line) {
+		try {
+			sink.accept(type, line.toString());
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			line.setLength(0);
+		}
 	}
 }
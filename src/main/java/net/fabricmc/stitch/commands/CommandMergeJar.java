@@ -18,12 +18,20 @@ package net.fabricmc.stitch.commands;
 
 import net.fabricmc.stitch.Command;
 import net.fabricmc.stitch.merge.JarMerger;
+import net.fabricmc.stitch.merge.MergeCache;
+import net.fabricmc.stitch.merge.MergePipeline;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 
 public class CommandMergeJar extends Command {
@@ -33,7 +41,7 @@ public class CommandMergeJar extends Command {
 
     @Override
     public String getHelpString() {
-        return "<client-jar> <server-jar> <output> [--removeSnowman] [--syntheticparams]";
+        return "<client-jar> <server-jar> <output> [--removeSnowman] [--syntheticparams] [--readThreads <n>] [--mergeThreads <n>] [--queueSize <n>] [--cache <dir>] [--input <side> <jar>]...";
     }
 
     @Override
@@ -47,6 +55,10 @@ public class CommandMergeJar extends Command {
         File in2f = new File(args[1]);
         File outf = new File(args[2]);
         boolean removeSnowman = false, syntheticParams = false;
+        int readThreads = -1, mergeThreads = -1, queueSize = -1;
+        File cacheDir = null;
+        List<String> sides = new ArrayList<>(Arrays.asList("CLIENT", "SERVER"));
+        List<File> inputs = new ArrayList<>(Arrays.asList(in1f, in2f));
 
         for (int i = 3; i < args.length; i++) {
             if (args[i].startsWith("--")) {
@@ -57,6 +69,22 @@ public class CommandMergeJar extends Command {
                     case "syntheticparams":
                         syntheticParams = true;
                         break;
+                    case "readthreads":
+                        readThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "mergethreads":
+                        mergeThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "queuesize":
+                        queueSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "cache":
+                        cacheDir = new File(args[++i]);
+                        break;
+                    case "input":
+                        sides.add(args[++i]);
+                        inputs.add(new File(args[++i]));
+                        break;
                 }
             }
         }
@@ -69,7 +97,28 @@ public class CommandMergeJar extends Command {
             throw new FileNotFoundException("Server JAR could not be found!");
         }
 
-        try (JarMerger merger = new JarMerger(in1f, in2f, outf)) {
+        for (int i = 2; i < inputs.size(); i++) {
+            if (!inputs.get(i).exists() || !inputs.get(i).isFile()) {
+                throw new FileNotFoundException(sides.get(i) + " JAR " + inputs.get(i).getName() + " could not be found!");
+            }
+        }
+
+        MergeCache cache = null;
+        String jarKey = null;
+
+        if (cacheDir != null) {
+            cache = new MergeCache(cacheDir.toPath());
+            jarKey = cache.getJarKey(JarMerger.getFlags(sides, removeSnowman, syntheticParams), inputs.toArray(new File[0]));
+            Path cached = cache.getJar(jarKey);
+
+            if (cached != null) {
+                Files.copy(cached, outf.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("Merged jar found in cache!");
+                return;
+            }
+        }
+
+        try (JarMerger merger = new JarMerger(sides, inputs, outf)) {
             if (removeSnowman) {
                 merger.enableSnowmanRemoval();
             }
@@ -78,13 +127,43 @@ public class CommandMergeJar extends Command {
                 merger.enableSyntheticParamsOffset();
             }
 
+            if (readThreads > 0) {
+                merger.setReadThreads(readThreads);
+            }
+
+            if (mergeThreads > 0) {
+                merger.setMergeThreads(mergeThreads);
+            }
+
+            if (queueSize > 0) {
+                merger.setQueueCapacity(queueSize);
+            }
+
+            if (cache != null) {
+                merger.setCache(cache);
+            }
+
             System.out.println("Merging...");
 
             merger.merge();
 
             System.out.println("Merge completed!");
+
+            for (MergePipeline.StageStats stats : merger.getStageStats()) {
+                System.out.println("  " + stats);
+            }
+
+            if (cache != null) {
+                System.out.println("  class cache: " + cache.getClassHits() + " hits, " + cache.getClassMisses() + " misses");
+            }
         } catch (IOException e) {
             e.printStackTrace();
+            return;
+        }
+
+        if (cache != null) {
+            // the output jar is only complete once the merger is closed
+            cache.putJar(jarKey, outf);
         }
     }
 }
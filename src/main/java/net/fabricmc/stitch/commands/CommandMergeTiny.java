@@ -17,13 +17,15 @@
 package net.fabricmc.stitch.commands;
 
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.LineTokenizer;
+import net.fabricmc.stitch.util.NamePool;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.util.*;
 
 // TODO: Remap descriptors on fields and methods.
@@ -104,83 +106,154 @@ public class CommandMergeTiny extends Command {
 		public final String[] indexList;
 		public final TinyEntry root = new TinyEntry(TinyEntryType.ROOT, "");
 		public final int typeCount;
+		private final NamePool names = new NamePool();
+		private LineTokenizer lineTokenizer;
 
 		public TinyFile(File f) throws IOException {
-			try (BufferedReader reader = Files.newBufferedReader(f.toPath(), Charset.forName("UTF-8"))) {
-				String[] header = reader.readLine().trim().split("\t");
-				if (header.length < 3 || !header[0].trim().equals("v1")) {
-					throw new RuntimeException("Invalid header!");
+			try (LineTokenizer tokenizer = new LineTokenizer(CompressedFiles.newBufferedReader(f.toPath(), Charset.forName("UTF-8")), true)) {
+				indexList = readHeader(tokenizer);
+				typeCount = indexList.length;
+
+				while (tokenizer.nextLine()) {
+					addLine(tokenizer);
 				}
+			}
+		}
+
+		/**
+		 * Creates an empty file, to be filled with {@link #addLine(String)}.
+		 */
+		public TinyFile(String[] indexList) {
+			this.indexList = indexList;
+			this.typeCount = indexList.length;
+		}
+
+		/**
+		 * Reads the namespaces from the header, the first line of the given trimming tokenizer.
+		 */
+		public static String[] readHeader(LineTokenizer tokenizer) throws IOException {
+			if (!tokenizer.nextLine() || tokenizer.getFieldCount() < 3 || !tokenizer.fieldEquals(0, "v1")) {
+				throw new RuntimeException("Invalid header!");
+			}
+
+			String[] indexList = new String[tokenizer.getFieldCount() - 1];
+			for (int i = 0; i < indexList.length; i++) {
+				indexList[i] = tokenizer.getField(i + 1);
+			}
+
+			return indexList;
+		}
 
-				typeCount = header.length - 1;
-				indexList = new String[typeCount];
-				for (int i = 0; i < typeCount; i++) {
-					indexList[i] = header[i + 1].trim();
+		public void addLine(String line) {
+			if (lineTokenizer == null) {
+				lineTokenizer = new LineTokenizer(true);
+			}
+
+			lineTokenizer.setLine(line);
+			addLine(lineTokenizer);
+		}
+
+		/**
+		 * Adds the current line of the given trimming tokenizer.
+		 */
+		public void addLine(LineTokenizer line) {
+			if (line.getLineLength() == 0 || line.getBuffer()[line.getLineStart()] == '#') {
+				return;
+			}
+
+			int partCount = line.getFieldCount();
+			String prefix;
+			if (partCount - typeCount <= 1) {
+				prefix = line.getField(0, names);
+			} else {
+				StringBuilder builder = new StringBuilder();
+				builder.append(line.getBuffer(), line.getStart(0), line.getLength(0));
+				for (int i = 1; i < partCount - typeCount; i++) {
+					builder.append('\t');
+					builder.append(line.getBuffer(), line.getStart(i), line.getLength(i));
 				}
+				prefix = builder.toString();
+			}
 
-				String line;
-				while ((line = reader.readLine()) != null) {
-					line = line.trim();
-					if (line.length() == 0 || line.charAt(0) == '#') {
-						continue;
-					}
+			TinyEntryType type = TinyEntryType.byName(line.getField(0, names));
+			String[] path = splitPath(line, 1);
+			TinyEntry parent = root;
 
-					String[] parts = line.split("\t");
-					for (int i = 0; i < parts.length; i++) {
-						parts[i] = parts[i].trim();
-					}
+			for (int i = 0; i < (type == TinyEntryType.CLASS ? path.length - 1 : path.length); i++) {
+				TinyEntry nextParent = parent.getChild(indexList[0], path[i]);
+				if (nextParent == null) {
+					nextParent = new TinyEntry(TinyEntryType.CLASS, "CLASS");
+					nextParent.names.put(indexList[0], path[i]);
+					parent.addChild(nextParent, "");
+				}
+				parent = nextParent;
+			}
 
-					StringBuilder prefix = new StringBuilder();
-					prefix.append(parts[0]);
-					for (int i = 1; i < parts.length - typeCount; i++) {
-						prefix.append('\t');
-						prefix.append(parts[i]);
-					}
+			TinyEntry entry;
+			if (type == TinyEntryType.CLASS && parent.containsChild(indexList[0], path[path.length - 1])) {
+				entry = parent.getChild(indexList[0], path[path.length - 1]);
+			} else {
+				entry = new TinyEntry(type, prefix);
+			}
 
-					TinyEntryType type = TinyEntryType.byName(parts[0]);
-					String[] path = parts[1].split("\\$");
-					TinyEntry parent = root;
-
-					for (int i = 0; i < (type == TinyEntryType.CLASS ? path.length - 1 : path.length); i++) {
-						TinyEntry nextParent = parent.getChild(indexList[0], path[i]);
-						if (nextParent == null) {
-							nextParent = new TinyEntry(TinyEntryType.CLASS, "CLASS");
-							nextParent.names.put(indexList[0], path[i]);
-							parent.addChild(nextParent, "");
-						}
-						parent = nextParent;
-					}
+			for (int i = 0; i < typeCount; i++) {
+				int field = partCount - typeCount + i;
+				if (type == TinyEntryType.CLASS) {
+					// add classes by their final inner class name
+					String[] splitly = splitPath(line, field);
+					entry.names.put(indexList[i], splitly[splitly.length - 1]);
+				} else {
+					entry.names.put(indexList[i], line.getField(field, names));
+				}
+			}
 
-					TinyEntry entry;
-					if (type == TinyEntryType.CLASS && parent.containsChild(indexList[0], path[path.length - 1])) {
-						entry = parent.getChild(indexList[0], path[path.length - 1]);
-					} else {
-						entry = new TinyEntry(type, prefix.toString());
-					}
+			switch (type) {
+				case CLASS:
+					parent.addChild(entry, "");
+					break;
+				case FIELD:
+				case METHOD:
+					parent.addChild(entry, line.getField(2, names));
+					break;
+			}
+		}
 
-					String[] names = new String[typeCount];
-					for (int i = 0; i < typeCount; i++) {
-						names[i] = parts[parts.length - typeCount + i];
-						if (type == TinyEntryType.CLASS) {
-							// add classes by their final inner class name
-							String[] splitly = names[i].split("\\$");
-							entry.names.put(indexList[i], splitly[splitly.length - 1]);
-						} else {
-							entry.names.put(indexList[i], names[i]);
-						}
-					}
+		/**
+		 * Splits a field at '$' like {@code String.split("\\$")}.
+		 */
+		private String[] splitPath(LineTokenizer line, int field) {
+			char[] buffer = line.getBuffer();
+			int start = line.getStart(field);
+			int end = start + line.getLength(field);
 
-					switch (type) {
-						case CLASS:
-							parent.addChild(entry, "");
-							break;
-						case FIELD:
-						case METHOD:
-							parent.addChild(entry, parts[2]);
-							break;
-					}
+			if (start == end) {
+				return new String[] { "" };
+			}
+
+			// trailing empty parts are dropped
+			while (end > start && buffer[end - 1] == '$') {
+				end--;
+			}
+
+			int count = start < end ? 1 : 0;
+			for (int i = start; i < end; i++) {
+				if (buffer[i] == '$') {
+					count++;
+				}
+			}
+
+			String[] parts = new String[count];
+			int part = 0;
+			int partStart = start;
+
+			for (int i = start; i <= end && part < count; i++) {
+				if (i == end || buffer[i] == '$') {
+					parts[part++] = names.get(buffer, partStart, i - partStart);
+					partStart = i + 1;
 				}
 			}
+
+			return parts;
 		}
 /*
 		public String match(String[] entries, String key) {
@@ -193,6 +266,123 @@ public class CommandMergeTiny extends Command {
 */
 	}
 
+	/**
+	 * Reads a file sorted by its first namespace one top-level class at a time. Each entry type is read by its
+	 * own cursor, so the classes, fields and methods of a class do not have to be next to each other, as long
+	 * as every type on its own is sorted by the outermost class name.
+	 */
+	public static class SortedTinyReader implements AutoCloseable {
+		private static final String[] TYPES = { "CLASS", "FIELD", "METHOD" };
+
+		private final String name;
+		public final String[] indexList;
+		private final LineTokenizer[] tokenizers = new LineTokenizer[TYPES.length];
+		private final String[] lines = new String[TYPES.length];
+		private final String[] groups = new String[TYPES.length];
+
+		public SortedTinyReader(File f) throws IOException {
+			this.name = f.getName();
+
+			try {
+				for (int i = 0; i < TYPES.length; i++) {
+					tokenizers[i] = new LineTokenizer(CompressedFiles.newBufferedReader(f.toPath(), Charset.forName("UTF-8")), true);
+				}
+
+				indexList = TinyFile.readHeader(tokenizers[0]);
+
+				for (int i = 0; i < TYPES.length; i++) {
+					if (i > 0) {
+						tokenizers[i].nextLine();
+					}
+
+					advance(i);
+				}
+			} catch (IOException | RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+
+		private void advance(int type) throws IOException {
+			LineTokenizer tokenizer = tokenizers[type];
+
+			while (tokenizer.nextLine()) {
+				if (tokenizer.getFieldCount() < 2 || !tokenizer.fieldEquals(0, TYPES[type])) {
+					continue;
+				}
+
+				int inner = tokenizer.indexOf(1, '$');
+				int groupLength = inner >= 0 ? inner - tokenizer.getStart(1) : tokenizer.getLength(1);
+				String group = groups[type];
+
+				if (group == null || group.length() != groupLength || !group.contentEquals(CharBuffer.wrap(tokenizer.getBuffer(), tokenizer.getStart(1), groupLength))) {
+					group = new String(tokenizer.getBuffer(), tokenizer.getStart(1), groupLength);
+
+					if (groups[type] != null && group.compareTo(groups[type]) < 0) {
+						throw new RuntimeException(name + " is not sorted by " + indexList[0] + ": " + group + " after " + groups[type] + "!");
+					}
+				}
+
+				lines[type] = tokenizer.getLine();
+				groups[type] = group;
+				return;
+			}
+
+			lines[type] = null;
+			groups[type] = null;
+		}
+
+		/**
+		 * Returns the next top-level class name, or null at the end of the file.
+		 */
+		public String peekGroup() {
+			String min = null;
+
+			for (int i = 0; i < TYPES.length; i++) {
+				if (lines[i] != null && (min == null || groups[i].compareTo(min) < 0)) {
+					min = groups[i];
+				}
+			}
+
+			return min;
+		}
+
+		/**
+		 * Reads every entry of the given top-level class, or of none if the next class is another one.
+		 */
+		public TinyFile readGroup(String group) throws IOException {
+			TinyFile file = new TinyFile(indexList);
+
+			for (int i = 0; i < TYPES.length; i++) {
+				while (lines[i] != null && groups[i].equals(group)) {
+					file.addLine(lines[i]);
+					advance(i);
+				}
+			}
+
+			return file;
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException exception = null;
+
+			for (LineTokenizer tokenizer : tokenizers) {
+				if (tokenizer != null) {
+					try {
+						tokenizer.close();
+					} catch (IOException e) {
+						exception = e;
+					}
+				}
+			}
+
+			if (exception != null) {
+				throw exception;
+			}
+		}
+	}
+
 	private List<String> mappingBlankFillOrder = new ArrayList<>();
 	private String sharedIndexName;
 
@@ -202,7 +392,7 @@ public class CommandMergeTiny extends Command {
 
 	@Override
 	public String getHelpString() {
-		return "<input-a> <input-b> <output> [mappingBlankFillOrder...]";
+		return "<input-a> <input-b> <output> [mappingBlankFillOrder...] [--sorted]";
 	}
 
 	@Override
@@ -212,61 +402,108 @@ public class CommandMergeTiny extends Command {
 
 	private TinyFile inputA, inputB;
 
-	private String fixMatch(TinyEntry a, TinyEntry b, String matchA, String index) {
-		if (a == null || matchA == null) {
-			return matchA;
+	/**
+	 * A class found at the same path in both inputs, with its full names resolved so far.
+	 */
+	private final class ResolvedClass {
+		private final ResolvedClass parent;
+		private final TinyEntry a, b;
+		// Map<index, full name>
+		private final Map<String, String> names = new HashMap<>();
+
+		private ResolvedClass(ResolvedClass parent, TinyEntry a, TinyEntry b) {
+			this.parent = parent;
+			this.a = a;
+			this.b = b;
 		}
 
-		if (a.type == TinyEntryType.CLASS && a.getParent() != null && a.getParent().type == TinyEntryType.CLASS) {
-			// First, map to the shared index name (sharedIndexName)
-			String officialPath = a.names.get(sharedIndexName);
-			TinyEntry officialEntry = a.getParent();
-			while (officialEntry.type == TinyEntryType.CLASS) {
-				officialPath = officialEntry.names.get(sharedIndexName) + "$" + officialPath;
-				officialEntry = officialEntry.getParent();
+		private String getName(String index) {
+			String name = names.get(index);
+			if (name != null) {
+				return name;
 			}
 
-			// Now, traverse it from the ROOT and get the names
+			String prefix = parent != null ? parent.getName(index) + "$" : "";
+
+			for (String mName : getMatchingOrder(index)) {
+				String nameA = a != null ? a.names.get(mName) : null;
+				String nameB = b != null ? b.names.get(mName) : null;
+
+				if (nameA != null) {
+					name = prefix + nameA;
+					break;
+				} else if (nameB != null) {
+					name = prefix + nameB;
+					break;
+				}
+			}
+
+			if (name == null) {
+				throw new RuntimeException("Could not find mapping for " + getOfficialPath() + "!");
+			}
+
+			names.put(index, name);
+			return name;
+		}
+
+		private String getOfficialPath() {
+			TinyEntry entry = a != null ? a : b;
+			String name = entry.names.get(sharedIndexName);
+			return parent != null ? parent.getOfficialPath() + "$" + name : name;
+		}
+	}
+
+	// Map<entry of either input, class>, only valid for the current inputs
+	private final Map<TinyEntry, ResolvedClass> resolvedClasses = new HashMap<>();
+	// Map<index, [index, mappingBlankFillOrder...]>
+	private final Map<String, List<String>> matchingOrders = new HashMap<>();
+
+	private List<String> getMatchingOrder(String index) {
+		return matchingOrders.computeIfAbsent(index, (k) -> {
 			Set<String> matchingOrder = new LinkedHashSet<>();
-			matchingOrder.add(index);
+			matchingOrder.add(k);
 			matchingOrder.addAll(mappingBlankFillOrder);
+			return new ArrayList<>(matchingOrder);
+		});
+	}
 
-			String[] path = officialPath.split("\\$");
-			a = inputA.root;
-			b = inputB.root;
+	private ResolvedClass resolveClass(TinyEntry entry) {
+		ResolvedClass resolved = resolvedClasses.get(entry);
+		if (resolved != null) {
+			return resolved;
+		}
 
-			StringBuilder targetName = new StringBuilder();
+		String name = entry.names.get(sharedIndexName);
 
-			for (int i = 0; i < path.length; i++) {
-				if (i > 0) {
-					targetName.append('$');
-				}
+		if (entry.getParent().type == TinyEntryType.CLASS) {
+			ResolvedClass parent = resolveClass(entry.getParent());
+			resolved = new ResolvedClass(parent,
+					parent.a != null ? parent.a.getChild(sharedIndexName, name) : null,
+					parent.b != null ? parent.b.getChild(sharedIndexName, name) : null);
+		} else {
+			resolved = new ResolvedClass(null, inputA.root.getChild(sharedIndexName, name), inputB.root.getChild(sharedIndexName, name));
+		}
 
-				a = a != null ? a.getChild(sharedIndexName, path[i]) : null;
-				b = b != null ? b.getChild(sharedIndexName, path[i]) : null;
-				boolean appended = false;
+		// the same class in the other input resolves to the same names
+		if (resolved.a != null) {
+			resolvedClasses.put(resolved.a, resolved);
+		}
 
-				for (String mName : matchingOrder) {
-					String nameA = a != null ? a.names.get(mName) : null;
-					String nameB = b != null ? b.names.get(mName) : null;
+		if (resolved.b != null) {
+			resolvedClasses.put(resolved.b, resolved);
+		}
 
-					if (nameA != null) {
-						targetName.append(nameA);
-						appended = true;
-						break;
-					} else if (nameB != null) {
-						targetName.append(nameB);
-						appended = true;
-						break;
-					}
-				}
+		return resolved;
+	}
 
-				if (!appended) {
-					throw new RuntimeException("Could not find mapping for " + officialPath + "!");
-				}
-			}
+	private String fixMatch(TinyEntry a, TinyEntry b, String matchA, String index) {
+		if (a == null || matchA == null) {
+			return matchA;
+		}
 
-			return targetName.toString();
+		if (a.type == TinyEntryType.CLASS && a.getParent() != null && a.getParent().type == TinyEntryType.CLASS) {
+			// Build the full name from the shared index path, taking each part from whichever input has it
+			return resolveClass(a).getName(index);
 		}
 
 		return matchA;
@@ -351,11 +588,8 @@ public class CommandMergeTiny extends Command {
 	}
 
 	public void run(File inputAf, File inputBf, File outputf, String... mappingBlankFillOrderValues) throws IOException {
-		for (String s : mappingBlankFillOrderValues) {
-			if (!this.mappingBlankFillOrder.contains(s)) {
-				this.mappingBlankFillOrder.add(s);
-			}
-		}
+		setMappingBlankFillOrder(mappingBlankFillOrderValues);
+		resolvedClasses.clear();
 
 		System.out.println("Reading " + inputAf.getName());
 		inputA = new TinyFile(inputAf);
@@ -364,31 +598,8 @@ public class CommandMergeTiny extends Command {
 		inputB = new TinyFile(inputBf);
 
 		System.out.println("Processing...");
-		try (BufferedWriter writer = Files.newBufferedWriter(outputf.toPath(), Charset.forName("UTF-8"))) {
-			if (!inputA.indexList[0].equals(inputB.indexList[0])) {
-				throw new RuntimeException("TODO");
-			}
-
-			sharedIndexName = inputA.indexList[0];
-
-			// Set<String> matchedIndexes = Sets.intersection(inputA.indexMap.keySet(), inputB.indexMap.keySet());
-			Set<String> matchedIndexes = Collections.singleton(inputA.indexList[0]);
-			List<String> totalIndexList = new ArrayList<>(Arrays.asList(inputA.indexList));
-			for (String s : inputB.indexList) {
-				if (!totalIndexList.contains(s)) {
-					totalIndexList.add(s);
-				}
-			}
-			int totalIndexCount = totalIndexList.size();
-
-			// emit header
-			StringBuilder header = new StringBuilder();
-			header.append("v1");
-			for (String s : totalIndexList) {
-				header.append('\t');
-				header.append(s);
-			}
-			writer.write(header.append('\n').toString());
+		try (BufferedWriter writer = CompressedFiles.newBufferedWriter(outputf.toPath(), Charset.forName("UTF-8"))) {
+			List<String> totalIndexList = writeHeader(inputA.indexList, inputB.indexList, writer);
 
 			// collect classes
 			String index = inputA.indexList[0];
@@ -404,17 +615,97 @@ public class CommandMergeTiny extends Command {
 		System.out.println("Done!");
 	}
 
+	/**
+	 * Merges two files which are sorted by their shared first namespace, reading one top-level class of each
+	 * at a time instead of loading the whole files. Produces the same output as
+	 * {@link #run(File, File, File, String...)}.
+	 */
+	public void runSorted(File inputAf, File inputBf, File outputf, String... mappingBlankFillOrderValues) throws IOException {
+		setMappingBlankFillOrder(mappingBlankFillOrderValues);
+
+		System.out.println("Processing " + inputAf.getName() + " and " + inputBf.getName() + "...");
+		try (SortedTinyReader readerA = new SortedTinyReader(inputAf);
+			 SortedTinyReader readerB = new SortedTinyReader(inputBf);
+			 BufferedWriter writer = CompressedFiles.newBufferedWriter(outputf.toPath(), Charset.forName("UTF-8"))) {
+			List<String> totalIndexList = writeHeader(readerA.indexList, readerB.indexList, writer);
+			String index = readerA.indexList[0];
+
+			while (true) {
+				String groupA = readerA.peekGroup();
+				String groupB = readerB.peekGroup();
+				if (groupA == null && groupB == null) {
+					break;
+				}
+
+				String c = groupA == null || (groupB != null && groupB.compareTo(groupA) < 0) ? groupB : groupA;
+
+				inputA = readerA.readGroup(c);
+				inputB = readerB.readGroup(c);
+				write(inputA.root, inputB.root, index, c, writer, totalIndexList, 0);
+				resolvedClasses.clear();
+			}
+		} finally {
+			inputA = inputB = null;
+			resolvedClasses.clear();
+		}
+		System.out.println("Done!");
+	}
+
+	private void setMappingBlankFillOrder(String... mappingBlankFillOrderValues) {
+		for (String s : mappingBlankFillOrderValues) {
+			if (!this.mappingBlankFillOrder.contains(s)) {
+				this.mappingBlankFillOrder.add(s);
+			}
+		}
+
+		matchingOrders.clear();
+	}
+
+	private List<String> writeHeader(String[] indexListA, String[] indexListB, BufferedWriter writer) throws IOException {
+		if (!indexListA[0].equals(indexListB[0])) {
+			throw new RuntimeException("TODO");
+		}
+
+		sharedIndexName = indexListA[0];
+
+		List<String> totalIndexList = new ArrayList<>(Arrays.asList(indexListA));
+		for (String s : indexListB) {
+			if (!totalIndexList.contains(s)) {
+				totalIndexList.add(s);
+			}
+		}
+
+		// emit header
+		StringBuilder header = new StringBuilder();
+		header.append("v1");
+		for (String s : totalIndexList) {
+			header.append('\t');
+			header.append(s);
+		}
+		writer.write(header.append('\n').toString());
+		return totalIndexList;
+	}
+
 	@Override
 	public void run(String[] args) throws Exception {
 		File inputAf = new File(args[0]);
 		File inputBf = new File(args[1]);
 		File outputf = new File(args[2]);
+		boolean sorted = false;
 
-		String[] mbforder = new String[args.length - 3];
+		List<String> mbforder = new ArrayList<>();
 		for (int i = 3; i < args.length; i++) {
-			mbforder[i - 3] = args[i];
+			if (args[i].equals("--sorted")) {
+				sorted = true;
+			} else {
+				mbforder.add(args[i]);
+			}
 		}
 
-		run(inputAf, inputBf, outputf, mbforder);
+		if (sorted) {
+			runSorted(inputAf, inputBf, outputf, mbforder.toArray(new String[0]));
+		} else {
+			run(inputAf, inputBf, outputf, mbforder.toArray(new String[0]));
+		}
 	}
 }
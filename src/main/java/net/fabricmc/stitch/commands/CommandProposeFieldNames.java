@@ -17,14 +17,16 @@
 package net.fabricmc.stitch.commands;
 
 import net.fabricmc.mappings.EntryTriple;
-import net.fabricmc.mappings.FieldEntry;
-import net.fabricmc.mappings.Mappings;
-import net.fabricmc.mappings.MappingsProvider;
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.DescriptorRemapper;
 import net.fabricmc.stitch.util.FieldNameFinder;
+import net.fabricmc.stitch.util.LineTokenizer;
+import net.fabricmc.stitch.util.NamePool;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class CommandProposeFieldNames extends Command {
     public CommandProposeFieldNames() {
@@ -43,39 +45,128 @@ public class CommandProposeFieldNames extends Command {
 
     @Override
     public void run(String[] args) throws Exception {
-        Map<EntryTriple, String> fieldNamesO = new FieldNameFinder().findNames(new File(args[0]));
+        // the jar is analysed while the mappings are read, its names are first needed by the first field to rewrite
+        CompletableFuture<Map<EntryTriple, String>> fieldNamesO = CompletableFuture.supplyAsync(() -> {
+            Map<EntryTriple, String> names = new FieldNameFinder().findNames(new File(args[0]));
+            System.err.println("Found " + names.size() + " interesting names.");
+            return names;
+        });
 
-        System.err.println("Found " + fieldNamesO.size() + " interesting names.");
+        File input = new File(args[1]);
+        File output = new File(args[2]);
+        Map<String, String> classNames = new HashMap<>();
 
-        // i didn't fuss too much on this... this needs a rewrite once we get a mapping writer library
-        Map<EntryTriple, String> fieldNames = new HashMap<>();
+        if (!rewrite(input, output, fieldNamesO, classNames, false)) {
+            // a class appeared after fields which were translated without it, go again with the complete class table
+            rewrite(input, output, fieldNamesO, classNames, true);
+        }
+
+        fieldNamesO.join();
+    }
+
+    /**
+     * Looks up the official owner and descriptor of the fields of a file whose first namespace is not official,
+     * through the class names read so far. Classes which have not been read keep their names, which are remembered
+     * in case the classes turn up later on, after fields which needed them. Classes which never turn up, such as
+     * JDK classes in descriptors, cost nothing.
+     */
+    private static final class Translator {
+        private final CompletableFuture<Map<EntryTriple, String>> fieldNamesO;
+        private final Map<String, String> classNames;
+        private final boolean classNamesComplete;
+        private final DescriptorRemapper remapper;
+        private final Set<String> ownersAndNames = new HashSet<>();
+        private final Set<String> missed = new HashSet<>();
+        private Map<EntryTriple, String> fieldNames;
+        private boolean incomplete;
+
+        private Translator(CompletableFuture<Map<EntryTriple, String>> fieldNamesO, Map<String, String> classNames, boolean classNamesComplete) {
+            this.fieldNamesO = fieldNamesO;
+            this.classNames = classNames;
+            this.classNamesComplete = classNamesComplete;
+            this.remapper = new DescriptorRemapper(classNames);
+        }
+
+        private void addClass(String name, String officialName) {
+            if (!classNamesComplete) {
+                classNames.put(name, officialName);
+                incomplete |= missed.contains(name);
+            }
+        }
+
+        /**
+         * Returns the proposed name of the field, or null if there is none.
+         */
+        private String getName(String owner, String officialName, String desc) {
+            if (fieldNames == null) {
+                fieldNames = fieldNamesO.join();
+
+                // a field without a proposal for its owner and name does not need its type looked up
+                for (EntryTriple triple : fieldNames.keySet()) {
+                    ownersAndNames.add(triple.getOwner() + '\0' + triple.getName());
+                }
+            }
+
+            String officialOwner = getOfficialName(owner);
+
+            if (!ownersAndNames.contains(officialOwner + '\0' + officialName)) {
+                return null;
+            }
+
+            String typeName = getClassName(desc);
+            if (typeName != null) {
+                getOfficialName(typeName);
+            }
 
-        Mappings mappings;
-        try (FileInputStream fileIn = new FileInputStream(new File(args[1]))) {
-            mappings = MappingsProvider.readTinyMappings(fileIn, false);
+            return fieldNames.get(new EntryTriple(officialOwner, officialName, remapper.remapFieldDescriptor(desc)));
         }
 
-        try (FileInputStream fileIn = new FileInputStream(new File(args[1]));
-             FileOutputStream fileOut = new FileOutputStream(new File(args[2]));
+        private String getOfficialName(String name) {
+            String officialName = classNames.get(name);
+
+            if (officialName == null) {
+                missed.add(name);
+                return name;
+            }
+
+            return officialName;
+        }
+    }
+
+    /**
+     * Copies the mappings while renaming the fields FieldNameFinder proposes names for. The proposals use official
+     * names, so unless the first namespace is official, the official owner and descriptor of a field are looked up
+     * in the class names.
+     *
+     * @param classNamesComplete whether the class names have all been read by a previous call
+     * @return false if a class was read after fields which needed it, in which case the output is incomplete
+     */
+    private boolean rewrite(File input, File output, CompletableFuture<Map<EntryTriple, String>> fieldNamesO,
+                            Map<String, String> classNames, boolean classNamesComplete) throws IOException {
+        NamePool names = new NamePool();
+        Map<EntryTriple, String> fieldNames = null;
+        Translator translator = new Translator(fieldNamesO, classNames, classNamesComplete);
+
+        try (InputStream fileIn = CompressedFiles.newInputStream(input.toPath());
+             OutputStream fileOut = CompressedFiles.newOutputStream(output.toPath());
              InputStreamReader fileInReader = new InputStreamReader(fileIn);
              OutputStreamWriter fileOutWriter = new OutputStreamWriter(fileOut);
-             BufferedReader reader = new BufferedReader(fileInReader);
+             LineTokenizer reader = new LineTokenizer(fileInReader, false);
              BufferedWriter writer = new BufferedWriter(fileOutWriter)) {
 
             int headerPos = -1;
+            int officialPos = -1;
+            boolean firstOfficial = false;
 
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] tabSplit = line.split("\t");
-
+            while (reader.nextLine()) {
                 if (headerPos < 0) {
                     // first line
-                    if (tabSplit.length < 3) {
+                    if (reader.getFieldCount() < 3) {
                         throw new RuntimeException("Invalid mapping file!");
                     }
 
-                    for (int i = 2; i < tabSplit.length; i++) {
-                        if (tabSplit[i].equals("named")) {
+                    for (int i = 2; i < reader.getFieldCount(); i++) {
+                        if (reader.fieldEquals(i, "named")) {
                             headerPos = i;
                             break;
                         }
@@ -85,43 +176,83 @@ public class CommandProposeFieldNames extends Command {
                         throw new RuntimeException("Could not find 'named' mapping position!");
                     }
 
-                    if (!tabSplit[1].equals("official")) {
-                        for (FieldEntry e : mappings.getFieldEntries()) {
-                            EntryTriple officialFieldMapping = e.get("official");
-                            String name = fieldNamesO.get(officialFieldMapping);
-                            if (name != null) {
-                                fieldNames.put(e.get(tabSplit[1]), name);
-                            }
+                    for (int i = 1; i < reader.getFieldCount(); i++) {
+                        if (reader.fieldEquals(i, "official")) {
+                            officialPos = i;
+                            break;
                         }
-                    } else {
-                        fieldNames = fieldNamesO;
                     }
 
-                    mappings = null; // save memory
+                    firstOfficial = officialPos == 1;
+                } else if (firstOfficial || officialPos < 0) {
+                    // second+ line, nothing to translate
+                    if (officialPos > 0 && isCandidate(reader, headerPos)) {
+                        if (fieldNames == null) {
+                            fieldNames = fieldNamesO.join();
+                        }
+
+                        String name = fieldNames.get(new EntryTriple(reader.getField(1), reader.getField(3), reader.getField(2)));
+                        if (name != null) {
+                            writeRenamed(reader, writer, headerPos + 2, name);
+                            continue;
+                        }
+                    }
                 } else {
-                    // second+ line
-                    if (tabSplit[0].equals("FIELD")) {
-                        EntryTriple key = new EntryTriple(tabSplit[1], tabSplit[3], tabSplit[2]);
-                        String value = tabSplit[headerPos + 2];
-                        if (value.startsWith("field_") && fieldNames.containsKey(key)) {
-                            tabSplit[headerPos + 2] = fieldNames.get(key);
-
-                            StringBuilder builder = new StringBuilder(tabSplit[0]);
-                            for (int i = 1; i < tabSplit.length; i++) {
-                                builder.append('\t');
-                                builder.append(tabSplit[i]);
-                            }
-                            line = builder.toString();
+                    // second+ line, translated to official through the classes
+                    int officialNamePos = officialPos + 2;
+
+                    if (reader.fieldEquals(0, "CLASS")) {
+                        if (reader.getFieldCount() > officialPos) {
+                            translator.addClass(reader.getField(1, names), reader.getField(officialPos, names));
+                        }
+                    } else if (isCandidate(reader, headerPos) && reader.getFieldCount() > officialNamePos) {
+                        String name = translator.getName(reader.getField(1, names), reader.getField(officialNamePos), reader.getField(2));
+
+                        if (name != null) {
+                            writeRenamed(reader, writer, headerPos + 2, name);
+                            continue;
                         }
                     }
                 }
 
-                if (!line.endsWith("\n")) {
-                    line = line + "\n";
-                }
+                reader.writeLine(writer);
+                writer.write('\n');
+            }
+        }
+
+        return !translator.incomplete;
+    }
+
+    /**
+     * Returns the class name in a field descriptor, or null for primitive types.
+     */
+    private static String getClassName(String desc) {
+        int start = 0;
+        while (start < desc.length() && desc.charAt(start) == '[') {
+            start++;
+        }
+
+        return start < desc.length() - 2 && desc.charAt(start) == 'L' ? desc.substring(start + 1, desc.length() - 1) : null;
+    }
+
+    private static boolean isCandidate(LineTokenizer reader, int headerPos) {
+        int namePos = headerPos + 2;
+        return reader.fieldEquals(0, "FIELD") && reader.getFieldCount() > namePos && reader.fieldStartsWith(namePos, "field_");
+    }
 
-                writer.write(line);
+    private static void writeRenamed(LineTokenizer reader, Writer writer, int namePos, String name) throws IOException {
+        for (int i = 0; i < reader.getFieldCount(); i++) {
+            if (i > 0) {
+                writer.write('\t');
+            }
+
+            if (i == namePos) {
+                writer.write(name);
+            } else {
+                reader.writeField(writer, i);
             }
         }
+
+        writer.write('\n');
     }
-}
\ No newline at end of file
+}
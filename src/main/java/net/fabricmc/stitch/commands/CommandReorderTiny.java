@@ -16,19 +16,30 @@
 
 package net.fabricmc.stitch.commands;
 
+import net.fabricmc.mappings.ClassEntry;
 import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.mappings.FieldEntry;
 import net.fabricmc.mappings.Mappings;
 import net.fabricmc.mappings.MappingsProvider;
+import net.fabricmc.mappings.MethodEntry;
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.DescriptorRemapper;
+import net.fabricmc.stitch.util.ExternalSort;
 
+import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.util.Comparator;
-import java.util.Locale;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class CommandReorderTiny extends Command {
     public CommandReorderTiny() {
@@ -37,7 +48,7 @@ public class CommandReorderTiny extends Command {
 
     @Override
     public String getHelpString() {
-        return "<old-mapping-file> <new-mapping-file> [name order...]";
+        return "<old-mapping-file> <new-mapping-file> [name order...] [--maxMemory <MiB>]";
     }
 
     @Override
@@ -45,82 +56,175 @@ public class CommandReorderTiny extends Command {
         return count >= 4;
     }
 
-    private int compareTriples(EntryTriple a, EntryTriple b) {
-        int c = a.getOwner().compareTo(b.getOwner());
-        if (c == 0) {
-            c = a.getDesc().compareTo(b.getDesc());
-            if (c == 0) {
-                c = a.getName().compareTo(b.getName());
-            }
-        }
-        return c;
+    // Sort records are the entry type, the sort key parts and the output line, separated by '\0'. As '\0'
+    // sorts before any name character, sorting the records as strings sorts them by their keys. They are built
+    // in a reused buffer, the sort copies them into its own.
+
+    private static CharSequence classRecord(StringBuilder record, String name, CharSequence line) {
+        record.setLength(0);
+        return record.append('0').append(name).append('\0').append(line);
+    }
+
+    private static CharSequence memberRecord(StringBuilder record, char type, EntryTriple triple, CharSequence line) {
+        record.setLength(0);
+        return record.append(type).append(triple.getOwner()).append('\0').append(triple.getDesc()).append('\0')
+                .append(triple.getName()).append('\0').append(line);
     }
 
     @Override
     public void run(String[] args) throws Exception {
         File fileOld = new File(args[0]);
         File fileNew = new File(args[1]);
-        String[] names = new String[args.length - 2];
-        System.arraycopy(args, 2, names, 0, names.length);
+        List<String> nameList = new ArrayList<>();
+        long maxMemory = -1;
+
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].equals("--maxMemory")) {
+                maxMemory = Long.parseLong(args[++i]) * 1024 * 1024;
+            } else {
+                nameList.add(args[i]);
+            }
+        }
+
+        String[] names = nameList.toArray(new String[0]);
+
+        try (ExternalSort sort = new ExternalSort(maxMemory > 0 ? maxMemory : Long.MAX_VALUE, null)) {
+            if (maxMemory > 0) {
+                System.err.println("Sorting mapping file...");
+                readStreaming(fileOld, names, sort);
+                System.err.println("Sorted in " + Math.max(sort.getRunCount(), 1) + " run(s)");
+            } else {
+                System.err.println("Loading mapping file...");
+                read(fileOld, names, sort);
+            }
+
+            System.err.println("Rewriting mappings...");
 
-        System.err.println("Loading mapping file...");
+            try (OutputStream stream = CompressedFiles.newOutputStream(fileNew.toPath());
+                 OutputStreamWriter osw = new OutputStreamWriter(stream);
+                 BufferedWriter writer = new BufferedWriter(osw)) {
 
+                StringBuilder firstLineBuilder = new StringBuilder("v1");
+                for (String name : names) {
+                    firstLineBuilder.append('\t').append(name);
+                }
+                writer.write(firstLineBuilder.append('\n').toString());
+
+                sort.forEachSorted((record) -> {
+                    writer.write(record, record.lastIndexOf('\0') + 1, record.length() - record.lastIndexOf('\0') - 1);
+                    writer.write('\n');
+                });
+            }
+        }
+
+        System.err.println("Done!");
+    }
+
+    private void read(File file, String[] names, ExternalSort sort) throws IOException {
         Mappings input;
-        try (FileInputStream stream = new FileInputStream(fileOld)) {
+        try (InputStream stream = CompressedFiles.newInputStream(file.toPath())) {
             input = MappingsProvider.readTinyMappings(stream, false);
         }
 
-        System.err.println("Rewriting mappings...");
+        StringBuilder s = new StringBuilder();
+        StringBuilder record = new StringBuilder();
 
-        try (FileOutputStream stream = new FileOutputStream(fileNew);
-             OutputStreamWriter osw = new OutputStreamWriter(stream);
-             BufferedWriter writer = new BufferedWriter(osw)) {
+        for (ClassEntry entry : input.getClassEntries()) {
+            s.setLength(0);
+            s.append("CLASS");
+            for (String name : names) {
+                s.append('\t').append(entry.get(name));
+            }
+            sort.add(classRecord(record, entry.get(names[0]), s));
+        }
 
-            StringBuilder firstLineBuilder = new StringBuilder("v1");
+        for (FieldEntry entry : input.getFieldEntries()) {
+            EntryTriple first = entry.get(names[0]);
+            s.setLength(0);
+            s.append("FIELD\t").append(first.getOwner()).append('\t').append(first.getDesc());
             for (String name : names) {
-                firstLineBuilder.append('\t').append(name);
+                s.append('\t').append(entry.get(name).getName());
             }
-            writer.write(firstLineBuilder.append('\n').toString());
-            input.getClassEntries().stream().sorted(Comparator.comparing((a) -> a.get(names[0]))).forEach((entry) -> {
-                try {
-                    StringBuilder s = new StringBuilder("CLASS");
-                    for (String name : names) {
-                        s.append('\t').append(entry.get(name));
-                    }
-                    writer.write(s.append('\n').toString());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+            sort.add(memberRecord(record, '1', first, s));
+        }
+
+        for (MethodEntry entry : input.getMethodEntries()) {
+            EntryTriple first = entry.get(names[0]);
+            s.setLength(0);
+            s.append("METHOD\t").append(first.getOwner()).append('\t').append(first.getDesc());
+            for (String name : names) {
+                s.append('\t').append(entry.get(name).getName());
+            }
+            sort.add(memberRecord(record, '2', first, s));
+        }
+    }
+
+    /**
+     * Reads the file line by line instead of loading it, so that only the class names are kept in memory. Field
+     * and method owners and descriptors are remapped to the first output namespace through them.
+     */
+    private void readStreaming(File file, String[] names, ExternalSort sort) throws IOException {
+        String[] namespaces;
+        Map<String, String> classNames = new HashMap<>();
+        int[] columns = new int[names.length];
+
+        try (BufferedReader reader = CompressedFiles.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String header = reader.readLine();
+            String[] headerParts = header != null ? header.split("\t") : new String[0];
+            if (headerParts.length < 2 || !headerParts[0].equals("v1")) {
+                throw new IOException("Invalid header in " + file.getName() + "!");
+            }
+
+            namespaces = Arrays.copyOfRange(headerParts, 1, headerParts.length);
+            for (int i = 0; i < names.length; i++) {
+                columns[i] = Arrays.asList(namespaces).indexOf(names[i]);
+                if (columns[i] < 0) {
+                    throw new IOException("Namespace " + names[i] + " not found in " + file.getName() + "!");
                 }
-            });
-            input.getFieldEntries().stream().sorted((a, b) -> compareTriples(a.get(names[0]), b.get(names[0]))).forEach((entry) -> {
-                try {
-                    StringBuilder s = new StringBuilder("FIELD");
-                    EntryTriple first = entry.get(names[0]);
-                    s.append('\t').append(first.getOwner()).append('\t').append(first.getDesc());
-                    for (String name : names) {
-                        s.append('\t').append(entry.get(name).getName());
+            }
+
+            if (columns[0] != 0) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("CLASS\t")) {
+                        String[] parts = line.split("\t");
+                        classNames.put(parts[1], parts[1 + columns[0]]);
                     }
-                    writer.write(s.append('\n').toString());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
                 }
-            });
-            input.getMethodEntries().stream().sorted((a, b) -> compareTriples(a.get(names[0]), b.get(names[0]))).forEach((entry) -> {
-                try {
-                    StringBuilder s = new StringBuilder("METHOD");
-                    EntryTriple first = entry.get(names[0]);
-                    s.append('\t').append(first.getOwner()).append('\t').append(first.getDesc());
-                    for (String name : names) {
-                        s.append('\t').append(entry.get(name).getName());
+            }
+        }
+
+        DescriptorRemapper remapper = new DescriptorRemapper(classNames);
+
+        try (BufferedReader reader = CompressedFiles.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            reader.readLine();
+            StringBuilder s = new StringBuilder();
+            StringBuilder record = new StringBuilder();
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+
+                if (parts[0].equals("CLASS")) {
+                    s.setLength(0);
+                    s.append("CLASS");
+                    for (int column : columns) {
+                        s.append('\t').append(parts[1 + column]);
                     }
-                    writer.write(s.append('\n').toString());
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
+                    sort.add(classRecord(record, parts[1 + columns[0]], s));
+                } else if (parts[0].equals("FIELD") || parts[0].equals("METHOD")) {
+                    EntryTriple first = new EntryTriple(
+                            classNames.getOrDefault(parts[1], parts[1]),
+                            parts[3 + columns[0]],
+                            parts[0].equals("FIELD") ? remapper.remapFieldDescriptor(parts[2]) : remapper.remapMethodDescriptor(parts[2]));
+                    s.setLength(0);
+                    s.append(parts[0]).append('\t').append(first.getOwner()).append('\t').append(first.getDesc());
+                    for (int column : columns) {
+                        s.append('\t').append(parts[3 + column]);
+                    }
+                    sort.add(memberRecord(record, parts[0].equals("FIELD") ? '1' : '2', first, s));
                 }
-            });
+            }
         }
-
-        System.err.println("Done!");
     }
-
 }
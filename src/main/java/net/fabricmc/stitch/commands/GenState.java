@@ -19,6 +19,7 @@ package net.fabricmc.stitch.commands;
 import net.fabricmc.mappings.EntryTriple;
 import net.fabricmc.mappings.MappingsProvider;
 import net.fabricmc.stitch.representation.*;
+import net.fabricmc.stitch.util.CompressedFiles;
 import net.fabricmc.stitch.util.MatcherUtil;
 import net.fabricmc.stitch.util.Pair;
 import net.fabricmc.stitch.util.StitchUtil;
@@ -94,7 +95,7 @@ class GenState {
         if (file.exists()) {
             System.err.println("Target file exists - loading...");
             newToIntermediary = new GenMap();
-            try (FileInputStream inputStream = new FileInputStream(file)) {
+            try (InputStream inputStream = CompressedFiles.newInputStream(file.toPath())) {
                 newToIntermediary.load(
                         MappingsProvider.readTinyMappings(inputStream),
                         "official",
@@ -103,7 +104,7 @@ class GenState {
             }
         }
 
-        try (FileWriter fileWriter = new FileWriter(file)) {
+        try (Writer fileWriter = new OutputStreamWriter(CompressedFiles.newOutputStream(file.toPath()))) {
             try (BufferedWriter writer = new BufferedWriter(fileWriter)) {
                 writer.write("v1\tofficial\tintermediary\n");
 
@@ -444,7 +445,7 @@ class GenState {
         // TODO: only read once
         readCounters(oldMappings);
 
-        try (FileInputStream inputStream = new FileInputStream(oldMappings)) {
+        try (InputStream inputStream = CompressedFiles.newInputStream(oldMappings.toPath())) {
             oldToIntermediary.load(
                     MappingsProvider.readTinyMappings(inputStream),
                     "official",
@@ -460,7 +461,7 @@ class GenState {
         // TODO: only read once
         readCounters(oldMappings);
 
-        try (FileInputStream inputStream = new FileInputStream(oldMappings)) {
+        try (InputStream inputStream = CompressedFiles.newInputStream(oldMappings.toPath())) {
             oldToIntermediary.load(
                     MappingsProvider.readTinyMappings(inputStream),
                     "official",
@@ -482,7 +483,7 @@ class GenState {
             counterFile = counterPath.toFile();
         }
 
-        try (FileReader fileReader = new FileReader(counterFile)) {
+        try (Reader fileReader = new InputStreamReader(CompressedFiles.newInputStream(counterFile.toPath()))) {
             try (BufferedReader reader = new BufferedReader(fileReader)) {
                 String line;
                 while ((line = reader.readLine()) != null) {
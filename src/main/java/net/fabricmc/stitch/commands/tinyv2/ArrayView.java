@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list over an array and a size which its owner keeps in fields, so an owner with an empty list only keeps a
+ * null. The getters of the AST return a new view on every call, which reads and updates the fields of the owner.
+ */
+abstract class ArrayView<T> extends AbstractList<T> implements RandomAccess {
+	/**
+	 * Returns the array of the owner, which is null while the list is empty.
+	 */
+	abstract Object[] array();
+
+	abstract void store(Object[] array, int size);
+
+	/**
+	 * Called before an element is added to the list or replaces another one.
+	 */
+	void adding(T element) {
+	}
+
+	/**
+	 * Called after the list was changed.
+	 */
+	void changed() {
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		return (T) array()[index];
+	}
+
+	@Override
+	public T set(int index, T element) {
+		T old = get(index);
+		adding(element);
+		array()[index] = element;
+		changed();
+		return old;
+	}
+
+	@Override
+	public void add(int index, T element) {
+		int size = size();
+		if (index < 0 || index > size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		adding(element);
+
+		Object[] array = array();
+		if (array == null) array = new Object[1];
+		else if (array.length == size) array = Arrays.copyOf(array, size + (size >> 1) + 1);
+
+		System.arraycopy(array, index, array, index + 1, size - index);
+		array[index] = element;
+		store(array, size + 1);
+		modCount++;
+		changed();
+	}
+
+	@Override
+	public T remove(int index) {
+		T old = get(index);
+		int size = size() - 1;
+		Object[] array = array();
+		System.arraycopy(array, index + 1, array, index, size - index);
+		array[size] = null;
+		store(size > 0 ? array : null, size);
+		modCount++;
+		changed();
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		if (size() > 0) {
+			store(null, 0);
+			modCount++;
+			changed();
+		}
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.Nullable;
+
+import net.fabricmc.mappings.EntryTriple;
+import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.util.FieldNameFinder;
+
+/**
+ * Runs the steps Loom takes to build its official-intermediary-named mappings on one in-memory file, and writes
+ * the result once:
+ * <ol>
+ * <li>The official-intermediary mappings are reordered to intermediary-official with {@link CommandReorderTinyV2}.</li>
+ * <li>They are merged with the intermediary-named mappings with {@link CommandMergeTinyV2}.</li>
+ * <li>The result is reordered to official-intermediary-named.</li>
+ * <li>If a jar is given, the names found by FieldNameFinder are added with {@link CommandProposeV2FieldNames}.</li>
+ * </ol>
+ * The output is the same as running the commands one after another, without writing and parsing the file in
+ * between.
+ */
+public class CommandBuildLoomTinyV2 extends Command {
+	public CommandBuildLoomTinyV2() {
+		super("buildLoomTinyV2");
+	}
+
+	/**
+	 * <intermediary mappings> are official->intermediary mappings, <yarn mappings> are intermediary->named mappings.
+	 * <input jar> and <should replace> are the same as in {@link CommandProposeV2FieldNames}, and can be left out to
+	 * skip proposing field names.
+	 */
+	@Override
+	public String getHelpString() {
+		return "<intermediary mappings> <yarn mappings> <output mappings> [<input jar> <should replace>]";
+	}
+
+	@Override
+	public boolean isArgumentCountValid(int count) {
+		return count == 3 || count == 5;
+	}
+
+	@Override
+	public void run(String[] args) throws Exception {
+		Path intermediaryMappings = Paths.get(args[0]);
+		Path yarnMappings = Paths.get(args[1]);
+		Path outputMappings = Paths.get(args[2]);
+		CompletableFuture<Map<EntryTriple, String>> generatedFieldNames = null;
+		boolean shouldReplace = false;
+
+		if (args.length == 5) {
+			File inputJar = new File(args[3]);
+			if (!inputJar.exists()) throw new IllegalArgumentException("Cannot find input jar at " + inputJar);
+			if (!args[4].equalsIgnoreCase("true") && !args[4].equalsIgnoreCase("false")) {
+				throw new IllegalArgumentException("<should replace> must be 'true' or 'false'");
+			}
+
+			shouldReplace = Boolean.parseBoolean(args[4]);
+			// the jar is analysed while the mappings are read and merged
+			generatedFieldNames = CompletableFuture.supplyAsync(() -> new FieldNameFinder().findNames(inputJar));
+		}
+
+		System.out.println("Reading " + intermediaryMappings);
+		TinyFile intermediary = TinyV2Reader.read(intermediaryMappings, Runtime.getRuntime().availableProcessors());
+		System.out.println("Reading " + yarnMappings);
+		TinyFile yarn = TinyV2Reader.read(yarnMappings, Runtime.getRuntime().availableProcessors());
+
+		TinyFile mappings = build(intermediary, yarn, generatedFieldNames != null ? generatedFieldNames.join() : null, shouldReplace);
+
+		TinyV2Writer.write(mappings, outputMappings, Runtime.getRuntime().availableProcessors());
+		System.out.println("Mappings written to " + outputMappings);
+	}
+
+	/**
+	 * Builds the mappings from the parsed files, see the class description. The intermediary file is changed in
+	 * place.
+	 *
+	 * @param intermediary mappings from any namespace to the first namespace of yarn, usually official->intermediary
+	 * @param yarn mappings from the shared namespace to any others, usually intermediary->named
+	 * @param generatedFieldNames the names found by FieldNameFinder, or null to not propose any
+	 */
+	public TinyFile build(TinyFile intermediary, TinyFile yarn, @Nullable Map<EntryTriple, String> generatedFieldNames, boolean shouldReplace) {
+		List<String> intermediaryNamespaces = intermediary.getHeader().getNamespaces();
+		List<String> yarnNamespaces = yarn.getHeader().getNamespaces();
+		String shared = yarnNamespaces.get(0);
+
+		if (!intermediaryNamespaces.contains(shared)) {
+			throw new IllegalArgumentException("The intermediary mappings do not have the namespace " + shared + " of the yarn mappings.");
+		}
+
+		List<String> outputOrder = new ArrayList<>(intermediaryNamespaces);
+		outputOrder.addAll(yarnNamespaces.subList(1, yarnNamespaces.size()));
+
+		List<String> sharedFirst = new ArrayList<>(intermediaryNamespaces);
+		sharedFirst.remove(shared);
+		sharedFirst.add(0, shared);
+
+		System.out.println("Reordering intermediary mappings to " + String.join(", ", sharedFirst));
+		CommandReorderTinyV2 reorder = new CommandReorderTinyV2();
+		reorder.reorder(intermediary, sharedFirst);
+
+		System.out.println("Merging");
+		TinyFile merged = new CommandMergeTinyV2().merge(Arrays.asList(intermediary, yarn));
+
+		System.out.println("Reordering merged mappings to " + String.join(", ", outputOrder));
+		reorder.reorder(merged, outputOrder);
+
+		if (generatedFieldNames != null) {
+			System.err.println("Found " + generatedFieldNames.size() + " interesting names.");
+			int replaceCount = new CommandProposeV2FieldNames().proposeFieldNames(merged, generatedFieldNames, shouldReplace);
+			System.err.println("Replaced " + replaceCount + " names in the mappings.");
+		}
+
+		return merged;
+	}
+}
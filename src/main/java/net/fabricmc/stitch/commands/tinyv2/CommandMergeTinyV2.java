@@ -23,27 +23,23 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 import net.fabricmc.stitch.Command;
-import net.fabricmc.stitch.util.Pair;
 
 /**
- * Merges a tiny file with 2 columns (namespaces) of mappings, with another tiny file that has
- * the same namespace as the first column and a different namespace as the second column.
+ * Merges tiny files which share the namespace of their first column. Every input may have any number of other
+ * namespaces.
  * The first column of the output will contain the shared namespace,
- * the second column of the output would be the second namespace of input a,
- * and the third column of the output would be the second namespace of input b
+ * followed by the other namespaces of the first input, then those of the second input and so on.
  * <p>
  * Descriptors will remain as-is (using the namespace of the first column)
  * <p>
@@ -66,6 +62,13 @@ import net.fabricmc.stitch.util.Pair;
  * c    net/minecraft/class_123      net/minecraft/somePackage/someClass    a
  * m   (Lnet/minecraft/class_124;)V  method_1234 someMethod    a
  * <p>
+ * Classes, methods and fields an input has no name for are given the shared name, except for inner classes,
+ * which are named after their enclosing class in that input if it has a name there. Parameters and local variables
+ * are matched by their local variable index and have empty names where an input has none.
+ * <p>
+ * An input which has the same class, method or field more than once is rejected. A parameter or local variable
+ * an input has more than once is kept once for each time, and only the first is matched with the other inputs.
+ * <p>
  * <p>
  * After intermediary-named mappings are obtained,
  * and official-intermediary mappings are obtained and swapped using CommandReorderTinyV2, Loom merges them using this command,
@@ -78,95 +81,146 @@ public class CommandMergeTinyV2 extends Command {
 	}
 
 	/**
-	 * <input-a> and <input-b> are the tiny files to be merged. The result will be written to <output>.
+	 * <input-a> <input-b> [input-c...] are the tiny files to be merged. The result will be written to <output>.
 	 */
 	@Override
 	public String getHelpString() {
-		return "<input-a> <input-b> <output>";
+		return "<input-a> <input-b> [input-c...] <output>";
 	}
 
 	@Override
 	public boolean isArgumentCountValid(int count) {
-		return count == 3;
+		return count >= 3;
 	}
 
 	@Override
 	public void run(String[] args) throws IOException {
-		Path inputA = Paths.get(args[0]);
-		Path inputB = Paths.get(args[1]);
-		System.out.println("Reading " + inputA);
-		TinyFile tinyFileA = TinyV2Reader.read(inputA);
-		System.out.println("Reading " + inputB);
-		TinyFile tinyFileB = TinyV2Reader.read(inputB);
-		TinyHeader headerA = tinyFileA.getHeader();
-		TinyHeader headerB = tinyFileB.getHeader();
-		if (headerA.getNamespaces().size() != 2) {
-			throw new IllegalArgumentException(inputA + " must have exactly 2 namespaces.");
-		}
-		if (headerB.getNamespaces().size() != 2) {
-			throw new IllegalArgumentException(inputB + " must have exactly 2 namespaces.");
-		}
+		List<TinyFile> inputs = new ArrayList<>();
 
-		if (!headerA.getNamespaces().get(0).equals(headerB.getNamespaces().get(0))) {
-			throw new IllegalArgumentException(
-							String.format("The input tiny files must have the same namespaces as the first column. " +
-															"(%s has %s while %s has %s)",
-											inputA, headerA.getNamespaces().get(0), inputB, headerB.getNamespaces().get(0))
-			);
-		}
-		System.out.println("Merging " + inputA + " with " + inputB);
-		TinyFile mergedFile = merge(tinyFileA, tinyFileB);
+		for (int i = 0; i < args.length - 1; i++) {
+			Path input = Paths.get(args[i]);
+			System.out.println("Reading " + input);
+			TinyFile tinyFile = TinyV2Reader.read(input, Runtime.getRuntime().availableProcessors());
+			List<String> namespaces = tinyFile.getHeader().getNamespaces();
 
-		TinyV2Writer.write(mergedFile, Paths.get(args[2]));
-		System.out.println("Merged mappings written to " + Paths.get(args[2]));
-	}
+			if (namespaces.size() < 2) {
+				throw new IllegalArgumentException(input + " must have at least 2 namespaces.");
+			}
 
+			if (!inputs.isEmpty() && !namespaces.get(0).equals(inputs.get(0).getHeader().getNamespaces().get(0))) {
+				throw new IllegalArgumentException(
+								String.format("The input tiny files must have the same namespaces as the first column. " +
+																"(%s has %s while %s has %s)",
+												args[0], inputs.get(0).getHeader().getNamespaces().get(0), input, namespaces.get(0))
+				);
+			}
 
-	private TinyFile merge(TinyFile inputA, TinyFile inputB) {
-		//TODO: how to merge properties?
+			inputs.add(tinyFile);
+		}
 
-		TinyHeader mergedHeader = mergeHeaders(inputA.getHeader(), inputB.getHeader());
+		System.out.println("Merging " + String.join(", ", Arrays.asList(args).subList(0, args.length - 1)));
+		TinyFile mergedFile = merge(inputs);
 
-		List<String> keyUnion = keyUnion(inputA.getClassEntries(), inputB.getClassEntries());
+		Path output = Paths.get(args[args.length - 1]);
+		TinyV2Writer.write(mergedFile, output, Runtime.getRuntime().availableProcessors());
+		System.out.println("Merged mappings written to " + output);
+	}
+
+	/**
+	 * Merges the inputs in one pass, see the class description. The inputs must share their first namespace and
+	 * have distinct other namespaces.
+	 */
+	public TinyFile merge(List<TinyFile> inputs) {
+		//TODO: how to merge properties?
 
-		Map<String, TinyClass> inputAClasses = inputA.mapClassesByFirstNamespace();
-		Map<String, TinyClass> inputBClasses = inputB.mapClassesByFirstNamespace();
-		List<TinyClass> mergedClasses = map(keyUnion, key -> {
-			TinyClass classA = inputAClasses.get(key);
-			TinyClass classB = inputBClasses.get(key);
+		TinyHeader mergedHeader = mergeHeaders(inputs);
 
-			classA = matchEnclosingClassIfNeeded(key, classA, inputAClasses);
-			classB = matchEnclosingClassIfNeeded(key, classB, inputBClasses);
-			return mergeClasses(key, classA, classB);
+		List<TinyClass> mergedClasses = new ArrayList<>();
+		join(map(inputs, TinyFile::getClassEntries), TinyClass[]::new, Comparator.naturalOrder(), true, classes -> {
+			String key = first(classes).getClassNames().get(0);
+			mergedClasses.add(mergeClasses(key, classes, inputs));
 		});
 
 		return new TinyFile(mergedHeader, mergedClasses);
 	}
 
-	private TinyClass matchEnclosingClassIfNeeded(String key, TinyClass tinyClass, Map<String, TinyClass> mappings) {
-		if (tinyClass == null) {
-			String partlyMatchedClassName = matchEnclosingClass(key, mappings);
-			return new TinyClass(Arrays.asList(key, partlyMatchedClassName));
-		} else {
-			return tinyClass;
+	/**
+	 * Sorts every collection and then walks them side by side, for classes, methods and fields in the order of the
+	 * writer. The merger gets every key once, together with the entry of every input at the same position, or null
+	 * where an input does not have the key. The results therefore come out in the order they are written in.
+	 *
+	 * @param unique whether an input having the same key more than once is an error. Otherwise, the merger gets the
+	 *               key again for every further entry with it, with null for the inputs which have no more of them.
+	 * @throws IllegalStateException if the keys are unique and an input has one of them more than once
+	 */
+	private static <T extends Mapping> void join(List<Collection<T>> inputs, IntFunction<T[]> arrayFactory, Comparator<? super T> order,
+					boolean unique, Consumer<T[]> merger) {
+		List<T[]> sorted = new ArrayList<>(inputs.size());
+		for (Collection<T> entries : inputs) {
+			T[] array = entries.toArray(arrayFactory.apply(entries.size()));
+			Arrays.sort(array, order);
+			sorted.add(array);
 		}
+
+		int[] positions = new int[inputs.size()];
+
+		while (true) {
+			T min = null;
+
+			for (int i = 0; i < positions.length; i++) {
+				T[] array = sorted.get(i);
+
+				if (positions[i] < array.length && (min == null || order.compare(array[positions[i]], min) < 0)) {
+					min = array[positions[i]];
+				}
+			}
+
+			if (min == null) break;
+
+			T[] entries = arrayFactory.apply(positions.length);
+
+			for (int i = 0; i < positions.length; i++) {
+				T[] array = sorted.get(i);
+				int position = positions[i];
+
+				if (position < array.length && order.compare(array[position], min) == 0) {
+					entries[i] = array[position++];
+
+					if (unique && position < array.length && order.compare(array[position], min) == 0) {
+						throw new IllegalStateException("Duplicate key " + array[position].getMapping() + " in input " + (i + 1));
+					}
+
+					positions[i] = position;
+				}
+			}
+
+			merger.accept(entries);
+		}
+	}
+
+	private static <T> T first(T[] entries) {
+		for (T entry : entries) {
+			if (entry != null) return entry;
+		}
+
+		throw new IllegalStateException("nothing to merge");
 	}
 
 	/**
 	 * Takes something like net/minecraft/class_123$class_124 that doesn't have a mapping, tries to find net/minecraft/class_123
-	 * , say the mapping of net/minecraft/class_123 is path/to/someclass and then returns a class of the form
+	 * , say the mapping of net/minecraft/class_123 in the namespace is path/to/someclass and then returns a name of the form
 	 * path/to/someclass$class124
 	 */
 	@Nonnull
-	private String matchEnclosingClass(String sharedName, Map<String, TinyClass> inputBClassBySharedNamespace) {
+	private String matchEnclosingClass(String sharedName, TinyFile input, int namespace) {
 		String[] path = sharedName.split(escape("$"));
 		int parts = path.length;
 		for (int i = parts - 2; i >= 0; i--) {
 			String currentPath = String.join("$", Arrays.copyOfRange(path, 0, i + 1));
-			TinyClass match = inputBClassBySharedNamespace.get(currentPath);
+			TinyClass match = input.findClass(currentPath);
 
-			if (match != null && !match.getClassNames().get(1).isEmpty()) {
-				return match.getClassNames().get(1)
+			if (match != null && !match.getClassNames().get(namespace).isEmpty()) {
+				return match.getClassNames().get(namespace)
 								+ "$" + String.join("$", Arrays.copyOfRange(path, i + 1, path.length));
 
 			}
@@ -176,132 +230,167 @@ public class CommandMergeTinyV2 extends Command {
 	}
 
 
-	private TinyClass mergeClasses(String sharedClassName, @Nonnull TinyClass classA, @Nonnull TinyClass classB) {
-		List<String> mergedNames = mergeNames(sharedClassName, classA, classB);
-		List<String> mergedComments = mergeComments(classA.getComments(), classB.getComments());
+	private TinyClass mergeClasses(String sharedClassName, TinyClass[] classes, List<TinyFile> inputs) {
+		List<String> mergedNames = new ArrayList<>();
+		mergedNames.add(sharedClassName);
 
-		List<Pair<String, String>> methodKeyUnion = union(mapToFirstNamespaceAndDescriptor(classA), mapToFirstNamespaceAndDescriptor(classB));
-		Map<Pair<String, String>, TinyMethod> methodsA = classA.mapMethodsByFirstNamespaceAndDescriptor();
-		Map<Pair<String, String>, TinyMethod> methodsB = classB.mapMethodsByFirstNamespaceAndDescriptor();
-		List<TinyMethod> mergedMethods = map(methodKeyUnion,
-						(Pair<String, String> k) -> mergeMethods(k.getLeft(), methodsA.get(k), methodsB.get(k)));
+		for (int i = 0; i < classes.length; i++) {
+			int namespaces = inputs.get(i).getHeader().getNamespaces().size();
 
-		List<String> fieldKeyUnion = keyUnion(classA.getFields(), classB.getFields());
-		Map<String, TinyField> fieldsA = classA.mapFieldsByFirstNamespace();
-		Map<String, TinyField> fieldsB = classB.mapFieldsByFirstNamespace();
-		List<TinyField> mergedFields = map(fieldKeyUnion, k -> mergeFields(k, fieldsA.get(k), fieldsB.get(k)));
+			for (int namespace = 1; namespace < namespaces; namespace++) {
+				if (classes[i] == null) {
+					mergedNames.add(matchEnclosingClass(sharedClassName, inputs.get(i), namespace));
+				} else {
+					mergedNames.add(nameOr(classes[i], namespace, sharedClassName));
+				}
+			}
+		}
 
-		return new TinyClass(mergedNames, mergedMethods, mergedFields, mergedComments);
-	}
+		List<String> mergedComments = mergeComments(classes, TinyClass::getComments);
 
-	private static final TinyMethod EMPTY_METHOD = new TinyMethod(null, Collections.emptyList(), Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+		List<TinyMethod> mergedMethods = new ArrayList<>();
+		join(members(classes, TinyClass::getMethods), TinyMethod[]::new, Comparator.naturalOrder(), true,
+						methods -> mergedMethods.add(mergeMethods(methods, inputs)));
 
+		List<TinyField> mergedFields = new ArrayList<>();
+		join(members(classes, TinyClass::getFields), TinyField[]::new, Comparator.naturalOrder(), true,
+						fields -> mergedFields.add(mergeFields(fields, inputs)));
 
-	private TinyMethod mergeMethods(String sharedMethodName, @Nullable TinyMethod methodA, @Nullable TinyMethod methodB) {
-		List<String> mergedNames = mergeNames(sharedMethodName, methodA, methodB);
-		if (methodA == null) methodA = EMPTY_METHOD;
-		if (methodB == null) methodB = EMPTY_METHOD;
-		List<String> mergedComments = mergeComments(methodA.getComments(), methodB.getComments());
+		return new TinyClass(mergedNames, mergedMethods, mergedFields, mergedComments);
+	}
+
+	private static final Comparator<TinyLocalVariable> LOCAL_VARIABLE_ORDER = Comparator.comparingInt(TinyLocalVariable::getLvIndex)
+					.thenComparingInt(TinyLocalVariable::getLvStartOffset)
+					.thenComparingInt(TinyLocalVariable::getLvTableIndex);
 
-		String descriptor = methodA.getMethodDescriptorInFirstNamespace() != null ? methodA.getMethodDescriptorInFirstNamespace()
-						: methodB.getMethodDescriptorInFirstNamespace();
-		if (descriptor == null) throw new RuntimeException("no descriptor for key " + sharedMethodName);
+	private TinyMethod mergeMethods(TinyMethod[] methods, List<TinyFile> inputs) {
+		TinyMethod method = first(methods);
+		String sharedMethodName = method.getMethodNames().get(0);
 
+		List<String> mergedNames = mergeNames(methods, inputs, sharedMethodName);
+		List<String> mergedComments = mergeComments(methods, TinyMethod::getComments);
 
-		//TODO: this won't work too well when the first namespace is named or there is more than one named namespace (hack)
 		List<TinyMethodParameter> mergedParameters = new ArrayList<>();
-		addParameters(methodA, mergedParameters, 2);
-		addParameters(methodB, mergedParameters, 1);
+		join(members(methods, TinyMethod::getParameters), TinyMethodParameter[]::new, Comparator.naturalOrder(), false, parameters -> {
+			TinyMethodParameter parameter = first(parameters);
+			mergedParameters.add(new TinyMethodParameter(parameter.getLvIndex(), mergeNames(parameters, inputs, null),
+							mergeComments(parameters, TinyMethodParameter::getComments)));
+		});
 
 		List<TinyLocalVariable> mergedLocalVariables = new ArrayList<>();
-		addLocalVariables(methodA, mergedLocalVariables, 2);
-		addLocalVariables(methodB, mergedLocalVariables, 1);
+		join(members(methods, TinyMethod::getLocalVariables), TinyLocalVariable[]::new, LOCAL_VARIABLE_ORDER, false, localVariables -> {
+			TinyLocalVariable localVariable = first(localVariables);
+			mergedLocalVariables.add(new TinyLocalVariable(localVariable.getLvIndex(), localVariable.getLvStartOffset(),
+							localVariable.getLvTableIndex(), mergeNames(localVariables, inputs, null),
+							mergeComments(localVariables, TinyLocalVariable::getComments)));
+		});
 
-		return new TinyMethod(descriptor, mergedNames, mergedParameters, mergedLocalVariables, mergedComments);
+		return new TinyMethod(method.getMethodDescriptorInFirstNamespace(), mergedNames, mergedParameters, mergedLocalVariables, mergedComments);
 	}
 
-	private void addParameters(TinyMethod method, List<TinyMethodParameter> addTo, int emptySpacePos) {
-		for (TinyMethodParameter localVariable : method.getParameters()) {
-			List<String> names = new ArrayList<>(localVariable.getParameterNames());
-			names.add(emptySpacePos, "");
-			addTo.add(new TinyMethodParameter(localVariable.getLvIndex(), names, localVariable.getComments()));
-		}
-	}
+	private TinyField mergeFields(TinyField[] fields, List<TinyFile> inputs) {
+		TinyField field = first(fields);
+		String sharedFieldName = field.getFieldNames().get(0);
 
-	private void addLocalVariables(TinyMethod method, List<TinyLocalVariable> addTo, int emptySpacePos) {
-		for (TinyLocalVariable localVariable : method.getLocalVariables()) {
-			List<String> names = new ArrayList<>(localVariable.getLocalVariableNames());
-			names.add(emptySpacePos, "");
-			addTo.add(new TinyLocalVariable(localVariable.getLvIndex(), localVariable.getLvStartOffset(),
-							localVariable.getLvTableIndex(), names, localVariable.getComments()));
-		}
+		return new TinyField(field.getFieldDescriptorInFirstNamespace(), mergeNames(fields, inputs, sharedFieldName),
+						mergeComments(fields, TinyField::getComments));
 	}
 
+	private TinyHeader mergeHeaders(List<TinyFile> inputs) {
+		TinyHeader first = inputs.get(0).getHeader();
+		List<String> namespaces = new ArrayList<>();
+		namespaces.add(first.getNamespaces().get(0));
 
-	private TinyField mergeFields(String sharedFieldName, @Nullable TinyField fieldA, @Nullable TinyField fieldB) {
-		List<String> mergedNames = mergeNames(sharedFieldName, fieldA, fieldB);
-		List<String> mergedComments = mergeComments(fieldA != null ? fieldA.getComments() : Collections.emptyList(),
-						fieldB != null ? fieldB.getComments() : Collections.emptyList());
+		for (TinyFile input : inputs) {
+			List<String> inputNamespaces = input.getHeader().getNamespaces();
 
-		String descriptor = fieldA != null ? fieldA.getFieldDescriptorInFirstNamespace()
-						: fieldB != null ? fieldB.getFieldDescriptorInFirstNamespace() : null;
-		if (descriptor == null) throw new RuntimeException("no descriptor for key " + sharedFieldName);
+			for (String namespace : inputNamespaces.subList(1, inputNamespaces.size())) {
+				if (namespaces.contains(namespace)) {
+					throw new IllegalArgumentException("The namespace " + namespace + " is in more than one input.");
+				}
 
-		return new TinyField(descriptor, mergedNames, mergedComments);
-	}
+				namespaces.add(namespace);
+			}
+		}
 
-	private TinyHeader mergeHeaders(TinyHeader headerA, TinyHeader headerB) {
-		List<String> namespaces = new ArrayList<>(headerA.getNamespaces());
-		namespaces.add(headerB.getNamespaces().get(1));
 		// TODO: how should versions and properties be merged?
-		return new TinyHeader(namespaces, headerA.getMajorVersion(), headerA.getMinorVersion(), headerA.getProperties());
+		return new TinyHeader(namespaces, first.getMajorVersion(), first.getMinorVersion(), first.getProperties());
 	}
 
-	private List<String> mergeComments(Collection<String> commentsA, Collection<String> commentsB) {
-		return union(commentsA, commentsB);
-	}
+	/**
+	 * The comments of every entry in input order, without duplicates.
+	 */
+	private <T> List<String> mergeComments(T[] entries, Function<T, Collection<String>> comments) {
+		List<String> merged = new ArrayList<>();
 
-	private <T extends Mapping> List<String> keyUnion(Collection<T> mappingsA, Collection<T> mappingB) {
-		return union(mappingsA.stream().map(m -> m.getMapping().get(0)), mappingB.stream().map(m -> m.getMapping().get(0)));
-	}
+		for (T entry : entries) {
+			if (entry == null) continue;
 
-	private Stream<Pair<String, String>> mapToFirstNamespaceAndDescriptor(TinyClass tinyClass) {
-		return tinyClass.getMethods().stream().map(m -> Pair.of(m.getMapping().get(0), m.getMethodDescriptorInFirstNamespace()));
-	}
+			for (String comment : comments.apply(entry)) {
+				if (!merged.contains(comment)) merged.add(comment);
+			}
+		}
 
+		return merged;
+	}
 
-	private List<String> mergeNames(String key, @Nullable Mapping mappingA, @Nullable Mapping mappingB) {
+	/**
+	 * The shared name, followed by the other names of every input. Names an input does not have are replaced with
+	 * the fallback, or are empty if there is none. Without a fallback, the shared name is the first non-empty name.
+	 */
+	private <T extends Mapping> List<String> mergeNames(T[] entries, List<TinyFile> inputs, @Nullable String fallback) {
 		List<String> merged = new ArrayList<>();
-		merged.add(key);
-		merged.add(mappingExists(mappingA) ? mappingA.getMapping().get(1) : key);
-		merged.add(mappingExists(mappingB) ? mappingB.getMapping().get(1) : key);
+		String shared = fallback;
+
+		if (shared == null) {
+			shared = "";
+
+			for (T entry : entries) {
+				if (entry != null && !entry.getMapping().get(0).isEmpty()) {
+					shared = entry.getMapping().get(0);
+					break;
+				}
+			}
+		}
+
+		merged.add(shared);
+
+		for (int i = 0; i < entries.length; i++) {
+			int namespaces = inputs.get(i).getHeader().getNamespaces().size();
+
+			for (int namespace = 1; namespace < namespaces; namespace++) {
+				merged.add(nameOr(entries[i], namespace, fallback != null ? fallback : ""));
+			}
+		}
 
 		return merged;
 	}
 
-	private boolean mappingExists(@Nullable Mapping mapping) {
-		return mapping != null && !mapping.getMapping().get(1).isEmpty();
-	}
+	private static String nameOr(@Nullable Mapping mapping, int namespace, String fallback) {
+		if (mapping == null || namespace >= mapping.getMapping().size()) return fallback;
 
-	private <T> List<T> union(Stream<T> list1, Stream<T> list2) {
-		return union(list1.collect(Collectors.toList()), list2.collect(Collectors.toList()));
+		String name = mapping.getMapping().get(namespace);
+		return name.isEmpty() ? fallback : name;
 	}
 
-	private <T> List<T> union(Collection<T> list1, Collection<T> list2) {
-		Set<T> set = new HashSet<T>();
+	private static <O, T> List<Collection<T>> members(O[] owners, Function<O, Collection<T>> members) {
+		List<Collection<T>> result = new ArrayList<>(owners.length);
 
-		set.addAll(list1);
-		set.addAll(list2);
+		for (O owner : owners) {
+			result.add(owner != null ? members.apply(owner) : Collections.emptyList());
+		}
 
-		return new ArrayList<T>(set);
+		return result;
 	}
 
-	private static String escape(String str) {
-		return Pattern.quote(str);
+	private static <S, E> List<E> map(List<S> from, Function<S, E> mapper) {
+		List<E> result = new ArrayList<>(from.size());
+		for (S element : from) result.add(mapper.apply(element));
+		return result;
 	}
 
-	private <S, E> List<E> map(List<S> from, Function<S, E> mapper) {
-		return from.stream().map(mapper).collect(Collectors.toList());
+	private static String escape(String str) {
+		return Pattern.quote(str);
 	}
 
 }
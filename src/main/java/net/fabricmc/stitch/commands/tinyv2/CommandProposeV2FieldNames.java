@@ -81,10 +81,25 @@ public class CommandProposeV2FieldNames extends Command {
 		Map<EntryTriple, String> generatedFieldNames = new FieldNameFinder().findNames(new File(args[0]));
 		System.err.println("Found " + generatedFieldNames.size() + " interesting names.");
 
-		TinyFile tinyFile = TinyV2Reader.read(Paths.get(args[1]));
+		TinyFile tinyFile = TinyV2Reader.read(Paths.get(args[1]), Runtime.getRuntime().availableProcessors());
+		int replaceCount = proposeFieldNames(tinyFile, generatedFieldNames, shouldReplace);
+
+		System.err.println("Replaced " + replaceCount + " names in the mappings.");
+
+		Path newMappingsLocation = Paths.get(args[2]);
+
+		TinyV2Writer.write(tinyFile, newMappingsLocation, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Adds the generated names to the file, see the class description.
+	 *
+	 * @param generatedFieldNames the names found by FieldNameFinder, keyed in the first namespace of the file
+	 * @return the number of fields which were added or renamed
+	 */
+	public int proposeFieldNames(TinyFile tinyFile, Map<EntryTriple, String> generatedFieldNames, boolean shouldReplace) {
 		Map<EntryTriple, TinyField> fieldsMap = new HashMap<>();
 		tinyFile.getClassEntries().stream().map(this::generatedNamesOfClass).forEach(map -> map.forEach(fieldsMap::put));
-		Map<String, TinyClass> classMap = tinyFile.mapClassesByFirstNamespace();
 
 		int replaceCount = 0;
 		for (Map.Entry<EntryTriple, String> entry : generatedFieldNames.entrySet()) {
@@ -98,7 +113,7 @@ public class CommandProposeV2FieldNames extends Command {
 					replaceCount++;
 				}
 			} else {
-				TinyClass tinyClass = classMap.get(key.getOwner());
+				TinyClass tinyClass = tinyFile.findClass(key.getOwner());
 				// If field name does not exist, but its class does exist, create a new mapping with the supplied generated name.
 				if (tinyClass != null) {
 					tinyClass.getFields().add(new TinyField(key.getDesc(), Lists.newArrayList(key.getName(), newName), Lists.newArrayList()));
@@ -108,11 +123,7 @@ public class CommandProposeV2FieldNames extends Command {
 
 		}
 
-		System.err.println("Replaced " + replaceCount + " names in the mappings.");
-
-		Path newMappingsLocation = Paths.get(args[2]);
-
-		TinyV2Writer.write(tinyFile, newMappingsLocation);
+		return replaceCount;
 	}
 
 	@Nullable
@@ -16,22 +16,25 @@
 
 package net.fabricmc.stitch.commands.tinyv2;
 
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
-
-import com.google.common.base.Strings;
 
 import net.fabricmc.stitch.Command;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer.Prefixes;
+import net.fabricmc.stitch.util.CompressedFiles;
+import net.fabricmc.stitch.util.DescriptorRemapper;
+import net.fabricmc.stitch.util.LineTokenizer;
+import net.fabricmc.stitch.util.NamePool;
 
 /**
  * - Reorders the columns in the tiny file
@@ -60,10 +63,11 @@ public class CommandReorderTinyV2 extends Command {
 	/**
 	 * Reorders the columns in <old-mapping-file> according to [new name order...] and puts the result in <new-mapping-file>.
 	 * new name order is for example "official intermediary named"
+	 * --stream reorders the file line by line instead of reading all of it, see {@link #reorder(Path, Path, List)}.
 	 */
 	@Override
 	public String getHelpString() {
-		return "<old-mapping-file> <new-mapping-file> [new name order...]";
+		return "<old-mapping-file> <new-mapping-file> [new name order...] [--stream]";
 	}
 
 	@Override
@@ -75,24 +79,135 @@ public class CommandReorderTinyV2 extends Command {
 	public void run(String[] args) throws Exception {
 		Path oldMappingFile = Paths.get(args[0]);
 		Path newMappingFile = Paths.get(args[1]);
-		List<String> newOrder = Arrays.asList(Arrays.copyOfRange(args, 2, args.length));
+		List<String> newOrder = new ArrayList<>(Arrays.asList(Arrays.copyOfRange(args, 2, args.length)));
+
+		if (newOrder.remove("--stream")) {
+			reorder(oldMappingFile, newMappingFile, newOrder);
+			return;
+		}
+
+		TinyFile tinyFile = TinyV2Reader.read(oldMappingFile, Runtime.getRuntime().availableProcessors());
+		reorder(tinyFile, newOrder);
 
-		TinyFile tinyFile = TinyV2Reader.read(oldMappingFile);
-		validateNamespaces(newOrder, tinyFile);
+		TinyV2Writer.write(tinyFile, newMappingFile, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Reorders the namespaces of the file in place and remaps its descriptors to the new first namespace.
+	 */
+	public void reorder(TinyFile tinyFile, List<String> newOrder) {
+		validateNamespaces(newOrder, tinyFile.getHeader().getNamespaces());
 
-		Map<String, TinyClass> mappingCopy = tinyFile.getClassEntries().stream()
-						.collect(Collectors.toMap(c -> c.getClassNames().get(0),
-										c -> new TinyClass(new ArrayList<>(c.getClassNames()), c.getMethods(), c.getFields(), c.getComments())));
 		int newFirstNamespaceOldIndex = tinyFile.getHeader().getNamespaces().indexOf(newOrder.get(0));
+		Map<String, String> classNames = new HashMap<>(tinyFile.getClassEntries().size() * 2);
+		for (TinyClass tinyClass : tinyFile.getClassEntries()) {
+			classNames.put(tinyClass.getClassNames().get(0), tinyClass.getClassNames().get(newFirstNamespaceOldIndex));
+		}
 
-		reorder(tinyFile, newOrder);
-		remapDescriptors(tinyFile, mappingCopy, newFirstNamespaceOldIndex);
+		reorderNames(tinyFile, newOrder);
+		remapDescriptors(tinyFile, new DescriptorRemapper(classNames));
+	}
 
-		TinyV2Writer.write(tinyFile, newMappingFile);
+	/**
+	 * Reorders the file line by line, so only the class names are kept in memory. The file is read twice: first for
+	 * the class names the descriptors are remapped with, then to write every line with its names reordered.
+	 * <p>
+	 * Unlike the other reorder, the output keeps the order of the input instead of being sorted by the new first
+	 * namespace, and comments and properties are copied as they are.
+	 */
+	public void reorder(Path oldMappingFile, Path newMappingFile, List<String> newOrder) throws IOException {
+		List<String> namespaces;
+		int[] oldIndices;
+		Map<String, String> classNames = new HashMap<>();
+
+		try (LineTokenizer line = new LineTokenizer(CompressedFiles.newBufferedReader(oldMappingFile, StandardCharsets.UTF_8), false)) {
+			if (!line.nextLine() || line.getFieldCount() < 4 || !line.fieldEquals(0, Prefixes.HEADER)) {
+				throw new IllegalArgumentException(oldMappingFile + " is not a Tiny v2 file");
+			}
+
+			namespaces = new ArrayList<>();
+			for (int i = 3; i < line.getFieldCount(); i++) namespaces.add(line.getField(i));
+			validateNamespaces(newOrder, namespaces);
+			oldIndices = oldIndices(namespaces, newOrder);
+
+			int newFirstNamespaceOldIndex = oldIndices[0];
+			NamePool pool = new NamePool();
+			while (line.nextLine()) {
+				if (line.getFieldCount() > 1 && line.fieldEquals(0, Prefixes.CLASS)) {
+					String name = line.getField(1, pool);
+					int newName = 1 + newFirstNamespaceOldIndex;
+					classNames.put(name, newName < line.getFieldCount() ? line.getField(newName, pool) : "");
+				}
+			}
+		}
+
+		DescriptorRemapper remapper = new DescriptorRemapper(classNames);
+
+		try (LineTokenizer line = new LineTokenizer(CompressedFiles.newBufferedReader(oldMappingFile, StandardCharsets.UTF_8), false);
+			Writer writer = CompressedFiles.newBufferedWriter(newMappingFile, StandardCharsets.UTF_8)) {
+			line.nextLine();
+			writePrefix(writer, line, 3);
+			writeNames(writer, line, 3, oldIndices);
+			writer.write('\n');
+
+			boolean inClass = false;
+
+			while (line.nextLine()) {
+				int depth = 0;
+				while (depth < line.getFieldCount() - 1 && line.isEmpty(depth)) depth++;
+
+				if (depth == 0 && line.fieldEquals(0, Prefixes.CLASS)) {
+					inClass = true;
+					writePrefix(writer, line, 1);
+					writeNames(writer, line, 1, oldIndices);
+				} else if (depth == 1 && inClass && (line.fieldEquals(1, Prefixes.METHOD) || line.fieldEquals(1, Prefixes.FIELD))) {
+					if (line.getFieldCount() < 3) throw new IllegalArgumentException("Missing descriptor: " + line.getLine());
+					writePrefix(writer, line, 2);
+					writer.write('\t');
+					String descriptor = line.getField(2);
+					writer.write(line.fieldEquals(1, Prefixes.METHOD) ? remapper.remapMethodDescriptor(descriptor) : remapper.remapFieldDescriptor(descriptor));
+					writeNames(writer, line, 3, oldIndices);
+				} else if (depth == 2 && line.fieldEquals(2, Prefixes.PARAMETER)) {
+					writePrefix(writer, line, 4);
+					writeNames(writer, line, 4, oldIndices);
+				} else if (depth == 2 && line.fieldEquals(2, Prefixes.VARIABLE)) {
+					writePrefix(writer, line, 6);
+					writeNames(writer, line, 6, oldIndices);
+				} else {
+					// comments and properties
+					line.writeLine(writer);
+				}
+
+				writer.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Writes the fields of the line before the given one.
+	 */
+	private static void writePrefix(Writer writer, LineTokenizer line, int end) throws IOException {
+		if (end > line.getFieldCount()) {
+			throw new IllegalArgumentException("Missing fields: " + line.getLine());
+		}
+		writer.write(line.getBuffer(), line.getLineStart(), line.getStart(end - 1) + line.getLength(end - 1) - line.getLineStart());
+	}
+
+	/**
+	 * Writes a tab and the names starting at the given field in the new order, padded with empty names.
+	 */
+	private static void writeNames(Writer writer, LineTokenizer line, int start, int[] oldIndices) throws IOException {
+		if (line.getFieldCount() - start > oldIndices.length) {
+			throw new IllegalArgumentException("More names than namespaces: " + line.getLine());
+		}
+		for (int oldIndex : oldIndices) {
+			writer.write('\t');
+			if (start + oldIndex < line.getFieldCount()) line.writeField(writer, start + oldIndex);
+		}
 	}
 
-	private void validateNamespaces(List<String> newOrder, TinyFile tinyFile) {
-		HashSet<String> fileNamespacesOrderless = new HashSet<>(tinyFile.getHeader().getNamespaces());
+	private void validateNamespaces(List<String> newOrder, List<String> namespaces) {
+		HashSet<String> fileNamespacesOrderless = new HashSet<>(namespaces);
 		HashSet<String> providedNamespacesOrderless = new HashSet<>(newOrder);
 
 		if (!fileNamespacesOrderless.equals(providedNamespacesOrderless)) {
@@ -101,31 +216,43 @@ public class CommandReorderTinyV2 extends Command {
 		}
 	}
 
-	private void reorder(TinyFile tinyFile, List<String> newOrder) {
-		Map<Integer, Integer> indexMapping = new HashMap<>();
-		for (int i = 0; i < newOrder.size(); i++) {
-			indexMapping.put(tinyFile.getHeader().getNamespaces().indexOf(newOrder.get(i)), i);
-		}
+	private void reorderNames(TinyFile tinyFile, List<String> newOrder) {
+		int[] oldIndices = oldIndices(tinyFile.getHeader().getNamespaces(), newOrder);
+		String[] oldNames = new String[newOrder.size()];
 
 		visitNames(tinyFile, (names) -> {
 			// This way empty names won't be skipped
 			for (int i = names.size(); i < newOrder.size(); i++) {
 				names.add("");
 			}
-			List<String> namesCopy = new ArrayList<>(names);
-			for (int i = 0; i < namesCopy.size(); i++) {
-				names.set(indexMapping.get(i), namesCopy.get(i));
+			if (names.size() > oldNames.length) {
+				throw new IllegalArgumentException("Names " + names + " do not match the namespaces " + tinyFile.getHeader().getNamespaces());
+			}
+			names.toArray(oldNames);
+			for (int i = 0; i < oldIndices.length; i++) {
+				names.set(i, oldNames[oldIndices[i]]);
 			}
 		});
 	}
 
-	private void remapDescriptors(TinyFile tinyFile, Map<String, TinyClass> mappings, int targetNamespace) {
+	/**
+	 * Returns the old index of the namespace at every new index.
+	 */
+	private static int[] oldIndices(List<String> oldOrder, List<String> newOrder) {
+		int[] oldIndices = new int[newOrder.size()];
+		for (int i = 0; i < oldIndices.length; i++) {
+			oldIndices[i] = oldOrder.indexOf(newOrder.get(i));
+		}
+		return oldIndices;
+	}
+
+	private void remapDescriptors(TinyFile tinyFile, DescriptorRemapper remapper) {
 		for (TinyClass tinyClass : tinyFile.getClassEntries()) {
 			for (TinyMethod method : tinyClass.getMethods()) {
-				remapMethodDescriptor(method, mappings, targetNamespace);
+				method.setMethodDescriptorInFirstNamespace(remapper.remapMethodDescriptor(method.getMethodDescriptorInFirstNamespace()));
 			}
 			for (TinyField field : tinyClass.getFields()) {
-				remapFieldDescriptor(field, mappings, targetNamespace);
+				field.setFieldDescriptorInFirstNamespace(remapper.remapFieldDescriptor(field.getFieldDescriptorInFirstNamespace()));
 			}
 		}
 	}
@@ -152,99 +279,4 @@ public class CommandReorderTinyV2 extends Command {
 			}
 		}
 	}
-
-	private void remapFieldDescriptor(TinyField field, Map<String, TinyClass> mappings, int targetNamespace) {
-		String newDescriptor = remapType(field.getFieldDescriptorInFirstNamespace(), mappings, targetNamespace);
-		field.setFieldDescriptorInFirstNamespace(newDescriptor);
-	}
-
-	////////////////// This part can be replaced with a descriptor parser library
-	// (I already have one, not sure if I should add it)
-
-	private void remapMethodDescriptor(TinyMethod method, Map<String, TinyClass> mappings, int targetNamespace) {
-		String descriptor = method.getMethodDescriptorInFirstNamespace();
-		String[] paramsAndReturnType = descriptor.split(Pattern.quote(")"));
-        if (paramsAndReturnType.length != 2) {
-            throw new IllegalArgumentException(
-                            "method descriptor '" + descriptor + "' is of an unknown format.");
-        }
-		List<String> params = parseParameterDescriptors(paramsAndReturnType[0].substring(1));
-		String returnType = paramsAndReturnType[1];
-
-		List<String> paramsMapped = params.stream().map(p -> remapType(p, mappings, targetNamespace)).collect(Collectors.toList());
-		String returnTypeMapped = returnType.equals("V") ? "V" : remapType(returnType, mappings, targetNamespace);
-
-		String newDescriptor = "(" + String.join("", paramsMapped) + ")" + returnTypeMapped;
-		method.setMethodDescriptorInFirstNamespace(newDescriptor);
-
-	}
-
-	private static final Collection<String> primitiveTypeNames = Arrays.asList("B", "C", "D", "F", "I", "J", "S", "Z");
-
-
-	private List<String> parseParameterDescriptors(String concatenatedParameterDescriptors) {
-		List<String> parameterDescriptors = new ArrayList<>();
-		boolean inClassName = false;
-		int inArrayNestingLevel = 0;
-		StringBuilder currentClassName = new StringBuilder();
-
-		for (int i = 0; i < concatenatedParameterDescriptors.length(); i++) {
-			char c = concatenatedParameterDescriptors.charAt(i);
-			if (inClassName) {
-				if (c == ';') {
-                    if (currentClassName.length() == 0) {
-                        throw new IllegalArgumentException(
-                                        "Empty class name in parameter list " + concatenatedParameterDescriptors + " at position " + i);
-                    }
-					parameterDescriptors.add(Strings.repeat("[", inArrayNestingLevel) + "L" + currentClassName.toString() + ";");
-					inArrayNestingLevel = 0;
-					currentClassName = new StringBuilder();
-					inClassName = false;
-				} else {
-					currentClassName.append(c);
-				}
-			} else {
-				if (primitiveTypeNames.contains(Character.toString(c))) {
-					parameterDescriptors.add(Strings.repeat("[", inArrayNestingLevel) + c);
-					inArrayNestingLevel = 0;
-				} else if (c == '[') {
-					inArrayNestingLevel++;
-				} else if (c == 'L') {
-					inClassName = true;
-				} else {
-					throw new IllegalArgumentException(
-									"Unexpected special character " + c + " in parameter descriptor list "
-													+ concatenatedParameterDescriptors);
-				}
-			}
-
-		}
-
-		return parameterDescriptors;
-
-	}
-
-
-	/**
-	 * Remaps type from namespace X, to the namespace of targetNamespaceIndex in mappings, where mappings
-	 * is a mapping from names in namespace X to the names in all other namespaces.
-	 */
-	private String remapType(String type, Map<String, TinyClass> mappings, int targetNamespaceIndex) {
-		if (type.isEmpty()) throw new IllegalArgumentException("types cannot be empty strings");
-		if (primitiveTypeNames.contains(type)) return type;
-        if (type.charAt(0) == '[') {
-            return "[" + remapType(type.substring(1), mappings, targetNamespaceIndex);
-        }
-		if (type.charAt(0) == 'L' && type.charAt(type.length() - 1) == ';') {
-			String className = type.substring(1, type.length() - 1);
-			TinyClass mapping = mappings.get(className);
-			String remappedName = mapping != null ? mapping.getClassNames().get(targetNamespaceIndex) : className;
-			return "L" + remappedName + ";";
-		}
-
-		throw new IllegalArgumentException("type descriptor '" + type + "' is of an unknown format.");
-
-	}
-
-
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The names and comments of a class, member, parameter or local variable.
+ * <p>
+ * The names are kept as one index into a {@link StringPool} per namespace, and the entries of a collection are
+ * kept in a plain array by their owner. The getters return views over these arrays, which can be changed like
+ * any list. An entry made outside of a file has a small pool of its own, and moves its strings to the pool of the
+ * file when it is added to it. An entry belongs to the collection it was last added to.
+ */
+abstract class Entry {
+	/**
+	 * The scope of the collection the entry is in, whose pool the names are indices into.
+	 */
+	Scope scope;
+	private int[] names;
+	/**
+	 * Null while there are no comments.
+	 */
+	private Object[] comments;
+
+	Entry(List<String> names, Collection<String> comments) {
+		this.scope = new Scope(new StringPool());
+		this.names = new int[names.size()];
+
+		int i = 0;
+		for (String name : names) this.names[i++] = scope.pool.add(name);
+
+		if (!comments.isEmpty()) this.comments = comments.toArray();
+	}
+
+	Entry(Scope scope, int[] names) {
+		this.scope = scope;
+		this.names = names;
+	}
+
+	final String getName(int namespace) {
+		return scope.pool.get(names[namespace]);
+	}
+
+	final List<String> names() {
+		return new Names();
+	}
+
+	final Collection<String> comments() {
+		return new ArrayView<String>() {
+			@Override
+			Object[] array() {
+				return comments;
+			}
+
+			@Override
+			public int size() {
+				return comments != null ? comments.length : 0;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				comments = size == 0 ? null : array.length == size ? array : Arrays.copyOf(array, size);
+			}
+		};
+	}
+
+	/**
+	 * Moves the entry to the collection with the scope, adding its strings to the pool of the scope.
+	 */
+	final void attach(Scope scope) {
+		if (this.scope == scope) return;
+
+		StringPool from = this.scope.pool;
+		this.scope = scope;
+		if (from != scope.pool) move(from, scope.pool);
+	}
+
+	/**
+	 * Adds the strings of the entry, and of the entries in its collections, from one pool to the other and points
+	 * the entries at them.
+	 */
+	void move(StringPool from, StringPool to) {
+		to.addAll(from, names);
+	}
+
+	/**
+	 * Moves the entries of a collection along with their owner, except those which were added to another
+	 * collection since.
+	 */
+	static void move(Object[] entries, int size, Scope scope, StringPool from, StringPool to) {
+		for (int i = 0; i < size; i++) {
+			Entry entry = (Entry) entries[i];
+			if (entry.scope == scope) entry.move(from, to);
+		}
+	}
+
+	/**
+	 * A collection of entries which moves entries into its scope when they are added, and counts its changes in
+	 * the scope.
+	 */
+	abstract static class Children<T extends Entry> extends ArrayView<T> {
+		abstract Scope scope();
+
+		@Override
+		void adding(T element) {
+			element.attach(scope());
+		}
+
+		@Override
+		void changed() {
+			scope().modCount++;
+		}
+	}
+
+	private final class Names extends AbstractList<String> implements RandomAccess {
+		@Override
+		public String get(int index) {
+			return scope.pool.get(names[index]);
+		}
+
+		@Override
+		public String set(int index, String element) {
+			String old = get(index);
+			names[index] = scope.pool.add(element);
+			scope.modCount++;
+			return old;
+		}
+
+		@Override
+		public void add(int index, String element) {
+			if (index < 0 || index > names.length) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + names.length);
+
+			int[] added = new int[names.length + 1];
+			System.arraycopy(names, 0, added, 0, index);
+			added[index] = scope.pool.add(element);
+			System.arraycopy(names, index, added, index + 1, names.length - index);
+			names = added;
+			modCount++;
+			scope.modCount++;
+		}
+
+		@Override
+		public String remove(int index) {
+			String old = get(index);
+			int[] removed = new int[names.length - 1];
+			System.arraycopy(names, 0, removed, 0, index);
+			System.arraycopy(names, index + 1, removed, index, removed.length - index);
+			names = removed;
+			modCount++;
+			scope.modCount++;
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return names.length;
+		}
+	}
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+
+import net.fabricmc.stitch.util.StitchUtil;
+
+/**
+ * A {@link TinyFile} whose classes are parsed from the memory-mapped file when they are first accessed, through
+ * {@link #getClassEntries()} or {@link #findClass}. Iterating over the classes parses all of them, in the order of
+ * the file.
+ * <p>
+ * The offset and names of every class are found by scanning the file when it is opened. They can also be kept in a
+ * sidecar index, conventionally named like the file with {@link #INDEX_SUFFIX} added, which saves the scan the next
+ * time. The index is created when it is missing, and created again when the size, modification time or the checksum
+ * of the header and the first {@value #SAMPLED_PREFIX} bytes of the file no longer match. Only that prefix is hashed,
+ * as hashing the whole file would read every page the index is meant to spare; a change which keeps the size and
+ * modification time and lies past the prefix goes unnoticed. Until a class is added, removed or renamed, or {@link #invalidateIndexes()} is called, {@link #findClass}
+ * looks classes up in the index and only parses the class it finds.
+ * <p>
+ * Writing the file back to the path it was read from parses every class first and releases the mapping, as the
+ * writer would otherwise truncate the file under the classes still to be parsed.
+ */
+final class LazyTinyFile extends TinyFile {
+	public static final String INDEX_SUFFIX = ".index";
+
+	private static final int INDEX_MAGIC = 0x53544349; // "STCI"
+	private static final int INDEX_VERSION = 3;
+	private static final int SAMPLED_PREFIX = 64 * 1024;
+
+	private final Path path;
+	private final LazyClasses classes;
+	private final List<Map<String, Integer>> classesByName;
+
+	private LazyTinyFile(Path path, TinyHeader header, ByteBuffer buffer, char[] headerText, int[] starts, List<Map<String, Integer>> classesByName) {
+		super(header, new StringPool());
+		this.path = path;
+		this.classes = new LazyClasses(buffer, headerText, starts, scope());
+		this.classesByName = classesByName;
+	}
+
+	/**
+	 * @param indexPath where to keep the class index, or null to only build it in memory
+	 */
+	static LazyTinyFile open(Path path, @Nullable Path indexPath) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is too large to be read lazily");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		long size = buffer.limit();
+		long modified = 0;
+		ClassIndex index = null;
+
+		if (indexPath != null) {
+			modified = Files.getLastModifiedTime(path).toMillis();
+			index = ClassIndex.read(indexPath, size, modified);
+
+			// the modification time can miss a change made within its resolution, so some of the contents are checked too
+			if (index != null && index.prefixChecksum != prefixChecksum(buffer, index.headerEnd)) index = null;
+		}
+
+		int first = index != null ? index.headerEnd : TinyV2Reader.nextClass(buffer, 0);
+		char[] header = decode(buffer, 0, first >= 0 ? first : buffer.limit());
+		TinyHeader tinyHeader = TinyV2Reader.readChunk(header, ByteBuffer.allocate(0), new StringPool()).getHeader();
+
+		if (index == null) {
+			index = ClassIndex.build(buffer, first, tinyHeader.getProperties().containsKey("escaped-names"));
+
+			if (indexPath != null) {
+				try {
+					index.write(indexPath, size, modified, prefixChecksum(buffer, index.headerEnd));
+				} catch (IOException e) {
+					// the index only saves scanning the file the next time
+					Files.deleteIfExists(indexPath);
+				}
+			}
+		}
+
+		List<Map<String, Integer>> classesByName = new ArrayList<>();
+
+		for (int namespace = 0; namespace < tinyHeader.getNamespaces().size(); namespace++) {
+			Map<String, Integer> names = new HashMap<>(index.starts.length * 2);
+
+			for (int i = 0; i < index.starts.length; i++) {
+				String[] classNames = index.names[i];
+				if (namespace < classNames.length && !classNames[namespace].isEmpty()) names.putIfAbsent(classNames[namespace], i);
+			}
+
+			classesByName.add(names);
+		}
+
+		return new LazyTinyFile(path, tinyHeader, buffer, header, index.starts, classesByName);
+	}
+
+	@Override
+	public Collection<TinyClass> getClassEntries() {
+		return classes;
+	}
+
+	@Override
+	public TinyClass findClass(int namespace, String name) {
+		if (scope().modCount != 0) return super.findClass(namespace, name);
+
+		Integer index = classesByName.get(namespace).get(name);
+		return index != null ? classes.get(index) : null;
+	}
+
+	@Override
+	public void invalidateIndexes() {
+		// the names in the class index may be out of date now, so count it as a change
+		scope().modCount++;
+		super.invalidateIndexes();
+	}
+
+	@Override
+	void beforeWrite(Path writeTo) throws IOException {
+		if (classes.buffer != null && Files.exists(writeTo) && Files.isSameFile(writeTo, path)) classes.release();
+	}
+
+	/**
+	 * Hashes the header and at least the first {@value #SAMPLED_PREFIX} bytes of the file.
+	 */
+	private static long prefixChecksum(ByteBuffer buffer, int headerEnd) {
+		CRC32 crc = new CRC32();
+		crc.update(TinyV2Reader.slice(buffer, 0, Math.min(Math.max(headerEnd, SAMPLED_PREFIX), buffer.limit())));
+		return crc.getValue();
+	}
+
+	private static char[] decode(ByteBuffer buffer, int start, int end) {
+		return StandardCharsets.UTF_8.decode(TinyV2Reader.slice(buffer, start, end)).toString().toCharArray();
+	}
+
+	/**
+	 * The classes of the file, where classes which have not been parsed yet are held by their index in the file.
+	 */
+	private static final class LazyClasses extends AbstractList<TinyClass> {
+		private ByteBuffer buffer;
+		private final char[] header;
+		private final int[] starts;
+		private final Scope scope;
+		private final List<Object> entries;
+
+		private LazyClasses(ByteBuffer buffer, char[] header, int[] starts, Scope scope) {
+			this.buffer = buffer;
+			this.header = header;
+			this.starts = starts;
+			this.scope = scope;
+			this.entries = new ArrayList<>(starts.length);
+			for (int i = 0; i < starts.length; i++) entries.add(i);
+		}
+
+		@Override
+		public TinyClass get(int index) {
+			Object entry = entries.get(index);
+			if (entry instanceof TinyClass) return (TinyClass) entry;
+
+			TinyClass tinyClass = parse((Integer) entry);
+			entries.set(index, tinyClass);
+			return tinyClass;
+		}
+
+		/**
+		 * Parses every class not parsed yet and unmaps the file, which nothing reads afterwards.
+		 */
+		private void release() {
+			for (int i = 0; i < entries.size(); i++) get(i);
+			StitchUtil.unmap(buffer);
+			buffer = null;
+		}
+
+		private TinyClass parse(int block) {
+			int end = block + 1 < starts.length ? starts[block + 1] : buffer.limit();
+
+			try {
+				// parsed straight into the pool of the file, so only the scope of the class changes
+				TinyClass tinyClass = TinyV2Reader.readChunk(header, TinyV2Reader.slice(buffer, starts[block], end), scope.pool)
+								.getClassEntries().iterator().next();
+				tinyClass.attach(scope);
+				return tinyClass;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public int size() {
+			return entries.size();
+		}
+
+		@Override
+		public TinyClass set(int index, TinyClass element) {
+			TinyClass old = get(index);
+			element.attach(scope);
+			entries.set(index, element);
+			scope.modCount++;
+			return old;
+		}
+
+		@Override
+		public void add(int index, TinyClass element) {
+			element.attach(scope);
+			entries.add(index, element);
+			scope.modCount++;
+			modCount++;
+		}
+
+		@Override
+		public TinyClass remove(int index) {
+			TinyClass old = get(index);
+			entries.remove(index);
+			scope.modCount++;
+			modCount++;
+			return old;
+		}
+	}
+
+	/**
+	 * The start and names of every top level class in a file.
+	 */
+	private static final class ClassIndex {
+		private final int headerEnd;
+		private final int[] starts;
+		private final String[][] names;
+		/** The checksum of the file prefix the index was written with, or 0 for an index which was just built. */
+		private final long prefixChecksum;
+
+		private ClassIndex(int headerEnd, int[] starts, String[][] names, long prefixChecksum) {
+			this.headerEnd = headerEnd;
+			this.starts = starts;
+			this.names = names;
+			this.prefixChecksum = prefixChecksum;
+		}
+
+		/**
+		 * @param first the start of the first class, or -1 if there are none
+		 */
+		private static ClassIndex build(ByteBuffer buffer, int first, boolean escapedNames) {
+			List<Integer> starts = new ArrayList<>();
+			for (int start = first; start >= 0; start = TinyV2Reader.nextClass(buffer, start + 1)) starts.add(start);
+
+			String[][] names = new String[starts.size()][];
+			for (int i = 0; i < starts.size(); i++) {
+				int start = starts.get(i);
+				int end = start;
+				while (end < buffer.limit() && buffer.get(end) != '\n') end++;
+				if (end > start && buffer.get(end - 1) == '\r') end--;
+
+				String line = new String(decode(buffer, start, end));
+				String[] fields = line.split("\t", -1);
+				names[i] = new String[fields.length - 1];
+				for (int j = 1; j < fields.length; j++) names[i][j - 1] = escapedNames ? unescape(fields[j]) : fields[j];
+			}
+
+			return new ClassIndex(first >= 0 ? first : buffer.limit(), starts.stream().mapToInt(Integer::intValue).toArray(), names, 0);
+		}
+
+		private static String unescape(String name) {
+			if (name.indexOf('\\') < 0) return name;
+
+			StringBuilder unescaped = new StringBuilder(name.length());
+			for (int i = 0; i < name.length(); i++) {
+				char c = name.charAt(i);
+				if (c == '\\' && i + 1 < name.length()) {
+					int escape = "\\nr0t".indexOf(name.charAt(++i));
+					if (escape < 0) throw new IllegalArgumentException("Invalid escape in " + name);
+					c = "\\\n\r\0\t".charAt(escape);
+				}
+				unescaped.append(c);
+			}
+			return unescaped.toString();
+		}
+
+		/**
+		 * Reads the index, or returns null if there is none or it was made for a different file. The checksum of the
+		 * prefix is left for the caller to compare, as it covers the header whose end only the index knows.
+		 */
+		private static ClassIndex read(Path path, long fileSize, long fileModified) throws IOException {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+				if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return null;
+				if (in.readLong() != fileSize || in.readLong() != fileModified) return null;
+
+				long prefixChecksum = in.readLong();
+
+				int headerEnd = in.readInt();
+				int[] starts = new int[in.readInt()];
+				String[][] names = new String[starts.length][];
+
+				for (int i = 0; i < starts.length; i++) {
+					starts[i] = in.readInt();
+					names[i] = new String[in.readInt()];
+					for (int j = 0; j < names[i].length; j++) names[i][j] = in.readUTF();
+				}
+
+				return new ClassIndex(headerEnd, starts, names, prefixChecksum);
+			} catch (NoSuchFileException | EOFException e) {
+				return null;
+			}
+		}
+
+		private void write(Path path, long fileSize, long fileModified, long fileChecksum) throws IOException {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+				out.writeInt(INDEX_MAGIC);
+				out.writeInt(INDEX_VERSION);
+				out.writeLong(fileSize);
+				out.writeLong(fileModified);
+				out.writeLong(fileChecksum);
+				out.writeInt(headerEnd);
+				out.writeInt(starts.length);
+
+				for (int i = 0; i < starts.length; i++) {
+					out.writeInt(starts[i]);
+					out.writeInt(names[i].length);
+					for (String name : names[i]) out.writeUTF(name);
+				}
+			}
+		}
+	}
+}
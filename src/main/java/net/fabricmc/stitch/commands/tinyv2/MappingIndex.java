@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up the entries of a collection in the AST by their name in any namespace.
+ * <p>
+ * The map of a namespace is built the first time it is needed. The maps are dropped whenever the scope of the
+ * collection counts a change, which covers entries being added, removed or replaced and names being changed through
+ * the AST. Entries which have been added to another collection since are only tracked there, so changes to them
+ * are only seen after {@link #invalidate()}. Not thread-safe.
+ */
+final class MappingIndex<T extends Mapping> {
+	private final Collection<T> entries;
+	private final Scope scope;
+	/**
+	 * Per namespace, the name maps to the entry or, when several entries share the name, a list of them. A
+	 * namespace which has not been indexed yet is null.
+	 */
+	private final List<Map<String, Object>> byNamespace = new ArrayList<>();
+	private int indexedModCount;
+
+	MappingIndex(Collection<T> entries, Scope scope) {
+		this.entries = entries;
+		this.scope = scope;
+	}
+
+	/**
+	 * Returns the first entry with the name in the namespace, or null.
+	 */
+	@SuppressWarnings("unchecked")
+	T get(int namespace, String name) {
+		Object found = map(namespace).get(name);
+		return found instanceof List ? ((List<T>) found).get(0) : (T) found;
+	}
+
+	/**
+	 * Returns every entry with the name in the namespace, in collection order.
+	 */
+	@SuppressWarnings("unchecked")
+	List<T> getAll(int namespace, String name) {
+		Object found = map(namespace).get(name);
+		if (found == null) return Collections.emptyList();
+		return found instanceof List ? (List<T>) found : Collections.singletonList((T) found);
+	}
+
+	void invalidate() {
+		byNamespace.clear();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> map(int namespace) {
+		if (indexedModCount != scope.modCount) {
+			byNamespace.clear();
+			indexedModCount = scope.modCount;
+		}
+
+		while (byNamespace.size() <= namespace) byNamespace.add(null);
+		Map<String, Object> map = byNamespace.get(namespace);
+
+		if (map == null) {
+			map = new HashMap<>(entries.size() * 4 / 3 + 1);
+
+			for (T entry : entries) {
+				List<String> names = entry.getMapping();
+				if (namespace >= names.size()) continue;
+
+				String name = names.get(namespace);
+				Object existing = map.putIfAbsent(name, entry);
+
+				if (existing instanceof List) {
+					((List<T>) existing).add(entry);
+				} else if (existing != null) {
+					List<T> shared = new ArrayList<>(2);
+					shared.add((T) existing);
+					shared.add(entry);
+					map.put(name, shared);
+				}
+			}
+
+			byNamespace.set(namespace, map);
+		}
+
+		return map;
+	}
+}
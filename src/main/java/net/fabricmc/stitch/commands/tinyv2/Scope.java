@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+/**
+ * What the entries in one collection of the AST share: the pool their names are stored in, and a count of the
+ * changes to the collection and to the names of its entries. Every collection has its own scope, while the scopes
+ * of a file all use the pool of the file.
+ */
+final class Scope {
+	StringPool pool;
+	/**
+	 * Increased whenever an entry is added, removed or replaced, or a name of an entry is changed, through the views
+	 * of the AST.
+	 */
+	int modCount;
+
+	Scope(StringPool pool) {
+		this.pool = pool;
+	}
+}
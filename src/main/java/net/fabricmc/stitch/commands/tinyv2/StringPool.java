@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.util.Arrays;
+
+/**
+ * The names and descriptors of a {@link TinyFile}, each stored once and referred to by its index. Null is stored
+ * as -1. Strings are never removed, so a renamed entry leaves its old name behind.
+ * <p>
+ * Adding strings is not thread-safe. Looking strings up by their index is, as long as nothing is added meanwhile.
+ */
+final class StringPool {
+	/**
+	 * Pools up to this size are searched without a hash table, which keeps the pools of entries made outside of a
+	 * file small.
+	 */
+	private static final int LINEAR_LIMIT = 8;
+
+	private String[] strings;
+	private int size;
+	/**
+	 * The index + 1 of the string in every slot, or 0 for an empty slot. Null while the pool is small.
+	 */
+	private int[] table;
+
+	StringPool() {
+		strings = new String[4];
+	}
+
+	String get(int index) {
+		return index >= 0 ? strings[index] : null;
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the index of the string, adding it if the pool does not have it yet.
+	 */
+	int add(String string) {
+		if (string == null) return -1;
+
+		if (table == null) {
+			for (int i = 0; i < size; i++) {
+				if (strings[i].equals(string)) return i;
+			}
+		} else {
+			int mask = table.length - 1;
+
+			for (int slot = mix(string.hashCode()) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+				if (strings[table[slot] - 1].equals(string)) return table[slot] - 1;
+			}
+		}
+
+		if (size == strings.length) strings = Arrays.copyOf(strings, size * 2);
+		int index = size++;
+		strings[index] = string;
+
+		if (table == null) {
+			if (size > LINEAR_LIMIT) rehash(64);
+		} else if (size * 2 > table.length) {
+			rehash(table.length * 2);
+		} else {
+			insert(index);
+		}
+
+		return index;
+	}
+
+	/**
+	 * Adds the strings at the indices in the other pool, and replaces the indices with the ones in this pool.
+	 */
+	void addAll(StringPool from, int[] indices) {
+		for (int i = 0; i < indices.length; i++) indices[i] = add(from.get(indices[i]));
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		for (int i = 0; i < size; i++) insert(i);
+	}
+
+	private void insert(int index) {
+		int mask = table.length - 1;
+		int slot = mix(strings[index].hashCode()) & mask;
+		while (table[slot] != 0) slot = (slot + 1) & mask;
+		table[slot] = index + 1;
+	}
+
+	private static int mix(int h) {
+		return h ^ (h >>> 16);
+	}
+}
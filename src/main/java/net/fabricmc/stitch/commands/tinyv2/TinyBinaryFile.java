@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A memory-mapped file in the binary mapping format written by {@link TinyV2Writer#writeBinary(TinyFile, Path)}.
+ * <p>
+ * Classes, methods and fields can be looked up by their names in any namespace without loading the file, only the
+ * entries visited by the lookup are read. Entries are identified by their index, which is -1 if there is none.
+ * {@link #toTinyFile()} loads the whole file, which gives back the {@link TinyFile} it was written from, see also
+ * {@link TinyV2Reader#readBinary(Path)}.
+ * <p>
+ * The file is a header followed by sections of big-endian ints, in the order of the section constants:
+ * <ul>
+ * <li>The header holds {@link #MAGIC}, {@link #FORMAT_VERSION}, the Tiny major and minor version, the namespace
+ * count n, the number of properties, classes, methods, fields, parameters, local variables, comments and
+ * strings, and the offset of every section.</li>
+ * <li>Entries are fixed-size records, in the order of the {@link TinyFile}. Members are stored after each other
+ * by class, parameters, local variables and comments likewise by their owner, so records point to their children
+ * with a first index and a count. Strings are referred to by their index, missing names are -1.</li>
+ * <li>Descriptors are stored for every namespace, as one array of descriptor strings per namespace.</li>
+ * <li>Indexes hold the entry indices sorted by their name in each namespace, one array per namespace. Member
+ * indexes are sorted by name and descriptor within the range of each class.</li>
+ * <li>Strings are UTF-8 without a terminator, given by an array of count + 1 offsets into the string bytes.</li>
+ * </ul>
+ * Names are sorted by their UTF-8 bytes, so lookups compare bytes without decoding strings.
+ */
+public class TinyBinaryFile implements Closeable {
+	static final int MAGIC = 0x53544D42; // "STMB"
+	static final int FORMAT_VERSION = 1;
+
+	static final int PROPERTIES = 0;
+	static final int NAMESPACES = 1;
+	static final int CLASSES = 2;
+	static final int METHODS = 3;
+	static final int FIELDS = 4;
+	static final int PARAMETERS = 5;
+	static final int LOCAL_VARIABLES = 6;
+	static final int COMMENTS = 7;
+	static final int METHOD_DESCRIPTORS = 8;
+	static final int FIELD_DESCRIPTORS = 9;
+	static final int CLASS_INDEX = 10;
+	static final int METHOD_INDEX = 11;
+	static final int FIELD_INDEX = 12;
+	static final int STRING_OFFSETS = 13;
+	static final int STRINGS = 14;
+	static final int SECTION_COUNT = 15;
+
+	// magic, version, major, minor, namespaces, 8 counts and the section offsets
+	static final int HEADER_SIZE = (13 + SECTION_COUNT) * 4;
+
+	// the ints before and after the names of each record
+	static final int CLASS_BEFORE_NAMES = 0, CLASS_AFTER_NAMES = 6;
+	static final int METHOD_BEFORE_NAMES = 1, METHOD_AFTER_NAMES = 6;
+	static final int FIELD_BEFORE_NAMES = 1, FIELD_AFTER_NAMES = 2;
+	static final int PARAMETER_BEFORE_NAMES = 1, PARAMETER_AFTER_NAMES = 2;
+	static final int LOCAL_VARIABLE_BEFORE_NAMES = 3, LOCAL_VARIABLE_AFTER_NAMES = 2;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int majorVersion, minorVersion;
+	private final int namespaceCount;
+	private final int propertyCount, classCount, methodCount, fieldCount, parameterCount, localVariableCount, commentCount, stringCount;
+	private final int[] sections = new int[SECTION_COUNT];
+	private final List<String> namespaces;
+
+	public TinyBinaryFile(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+
+		try {
+			if (channel.size() > Integer.MAX_VALUE) throw new IOException(path + " is too large");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+				throw new IOException(path + " is not a binary mapping file");
+			}
+			if (buffer.getInt(4) != FORMAT_VERSION) {
+				throw new IOException(path + " has the unsupported format version " + buffer.getInt(4));
+			}
+
+			majorVersion = buffer.getInt(8);
+			minorVersion = buffer.getInt(12);
+			namespaceCount = buffer.getInt(16);
+			propertyCount = buffer.getInt(20);
+			classCount = buffer.getInt(24);
+			methodCount = buffer.getInt(28);
+			fieldCount = buffer.getInt(32);
+			parameterCount = buffer.getInt(36);
+			localVariableCount = buffer.getInt(40);
+			commentCount = buffer.getInt(44);
+			stringCount = buffer.getInt(48);
+			for (int i = 0; i < SECTION_COUNT; i++) sections[i] = buffer.getInt(52 + i * 4);
+
+			List<String> namespaces = new ArrayList<>(namespaceCount);
+			for (int i = 0; i < namespaceCount; i++) namespaces.add(getString(getInt(NAMESPACES, i)));
+			this.namespaces = Collections.unmodifiableList(namespaces);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public int getMajorVersion() {
+		return majorVersion;
+	}
+
+	public int getMinorVersion() {
+		return minorVersion;
+	}
+
+	public List<String> getNamespaces() {
+		return namespaces;
+	}
+
+	public int getClassCount() {
+		return classCount;
+	}
+
+	/**
+	 * Returns the class with the name in the namespace. If several classes share the name, the first one in the
+	 * index is returned.
+	 */
+	public int findClass(int namespace, String name) {
+		byte[] key = name.getBytes(StandardCharsets.UTF_8);
+		int index = sections[CLASS_INDEX] + namespace * classCount * 4;
+		int low = 0, high = classCount;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compare(getClassNameString(buffer.getInt(index + mid * 4), namespace), key) < 0) low = mid + 1;
+			else high = mid;
+		}
+
+		if (low < classCount) {
+			int found = buffer.getInt(index + low * 4);
+			if (compare(getClassNameString(found, namespace), key) == 0) return found;
+		}
+
+		return -1;
+	}
+
+	public String getClassName(int classIndex, int namespace) {
+		return getString(getClassNameString(classIndex, namespace));
+	}
+
+	/**
+	 * Returns the method of the class with the name and descriptor in the namespace.
+	 *
+	 * @param descriptor the descriptor in the namespace, or null to find any method with the name
+	 */
+	public int findMethod(int namespace, String owner, String name, @Nullable String descriptor) {
+		int owningClass = findClass(namespace, owner);
+		if (owningClass < 0) return -1;
+
+		int classRecord = classRecord(owningClass) + (CLASS_BEFORE_NAMES + namespaceCount) * 4;
+		return findMember(namespace, METHOD_INDEX, methodCount, buffer.getInt(classRecord), buffer.getInt(classRecord + 4),
+						this::getMethodNameString, METHOD_DESCRIPTORS, name, descriptor);
+	}
+
+	public int getMethodOwner(int method) {
+		return buffer.getInt(methodRecord(method));
+	}
+
+	public String getMethodName(int method, int namespace) {
+		return getString(getMethodNameString(method, namespace));
+	}
+
+	public String getMethodDescriptor(int method, int namespace) {
+		return getString(getInt(METHOD_DESCRIPTORS, namespace * methodCount + method));
+	}
+
+	/**
+	 * Returns the field of the class with the name and descriptor in the namespace.
+	 *
+	 * @param descriptor the descriptor in the namespace, or null to find any field with the name
+	 */
+	public int findField(int namespace, String owner, String name, @Nullable String descriptor) {
+		int owningClass = findClass(namespace, owner);
+		if (owningClass < 0) return -1;
+
+		int classRecord = classRecord(owningClass) + (CLASS_BEFORE_NAMES + namespaceCount + 2) * 4;
+		return findMember(namespace, FIELD_INDEX, fieldCount, buffer.getInt(classRecord), buffer.getInt(classRecord + 4),
+						this::getFieldNameString, FIELD_DESCRIPTORS, name, descriptor);
+	}
+
+	public int getFieldOwner(int field) {
+		return buffer.getInt(fieldRecord(field));
+	}
+
+	public String getFieldName(int field, int namespace) {
+		return getString(getFieldNameString(field, namespace));
+	}
+
+	public String getFieldDescriptor(int field, int namespace) {
+		return getString(getInt(FIELD_DESCRIPTORS, namespace * fieldCount + field));
+	}
+
+	private interface NameLookup {
+		int getNameString(int entry, int namespace);
+	}
+
+	private int findMember(int namespace, int indexSection, int count, int first, int memberCount, NameLookup names,
+						int descriptorSection, String name, @Nullable String descriptor) {
+		byte[] nameKey = name.getBytes(StandardCharsets.UTF_8);
+		byte[] descriptorKey = descriptor != null ? descriptor.getBytes(StandardCharsets.UTF_8) : null;
+		int index = sections[indexSection] + (namespace * count + first) * 4;
+		int low = 0, high = memberCount;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareMember(buffer.getInt(index + mid * 4), namespace, count, names, descriptorSection, nameKey, descriptorKey) < 0) low = mid + 1;
+			else high = mid;
+		}
+
+		if (low < memberCount) {
+			int found = buffer.getInt(index + low * 4);
+			if (compareMember(found, namespace, count, names, descriptorSection, nameKey, descriptorKey) == 0) return found;
+		}
+
+		return -1;
+	}
+
+	private int compareMember(int member, int namespace, int count, NameLookup names, int descriptorSection, byte[] nameKey, @Nullable byte[] descriptorKey) {
+		int c = compare(names.getNameString(member, namespace), nameKey);
+		if (c != 0 || descriptorKey == null) return c;
+		return compare(getInt(descriptorSection, namespace * count + member), descriptorKey);
+	}
+
+	/**
+	 * Loads the whole file.
+	 */
+	public TinyFile toTinyFile() {
+		String[] strings = new String[stringCount];
+		for (int i = 0; i < stringCount; i++) strings[i] = getString(i);
+
+		Map<String, String> properties = new LinkedHashMap<>();
+		for (int i = 0; i < propertyCount; i++) {
+			int value = getInt(PROPERTIES, i * 2 + 1);
+			properties.put(strings[getInt(PROPERTIES, i * 2)], value >= 0 ? strings[value] : null);
+		}
+
+		TinyHeader header = new TinyHeader(new ArrayList<>(namespaces), majorVersion, minorVersion, properties);
+		List<TinyClass> classes = new ArrayList<>(classCount);
+
+		for (int c = 0; c < classCount; c++) {
+			int record = classRecord(c);
+			int after = record + (CLASS_BEFORE_NAMES + namespaceCount) * 4;
+			int firstMethod = buffer.getInt(after), methods = buffer.getInt(after + 4);
+			int firstField = buffer.getInt(after + 8), fields = buffer.getInt(after + 12);
+
+			List<TinyMethod> classMethods = new ArrayList<>(methods);
+			for (int m = firstMethod; m < firstMethod + methods; m++) classMethods.add(loadMethod(m, strings));
+
+			List<TinyField> classFields = new ArrayList<>(fields);
+			for (int f = firstField; f < firstField + fields; f++) {
+				int fieldRecord = fieldRecord(f);
+				classFields.add(new TinyField(strings[getInt(FIELD_DESCRIPTORS, f)],
+								loadNames(fieldRecord + FIELD_BEFORE_NAMES * 4, strings),
+								loadComments(fieldRecord + (FIELD_BEFORE_NAMES + namespaceCount) * 4, strings)));
+			}
+
+			classes.add(new TinyClass(loadNames(record + CLASS_BEFORE_NAMES * 4, strings), classMethods, classFields,
+							loadComments(after + 16, strings)));
+		}
+
+		return new TinyFile(header, classes);
+	}
+
+	private TinyMethod loadMethod(int method, String[] strings) {
+		int record = methodRecord(method);
+		int after = record + (METHOD_BEFORE_NAMES + namespaceCount) * 4;
+		int firstParameter = buffer.getInt(after), parameters = buffer.getInt(after + 4);
+		int firstLocalVariable = buffer.getInt(after + 8), localVariables = buffer.getInt(after + 12);
+
+		List<TinyMethodParameter> methodParameters = new ArrayList<>(parameters);
+		for (int p = firstParameter; p < firstParameter + parameters; p++) {
+			int parameterRecord = record(PARAMETERS, p, PARAMETER_BEFORE_NAMES + PARAMETER_AFTER_NAMES);
+			methodParameters.add(new TinyMethodParameter(buffer.getInt(parameterRecord),
+							loadNames(parameterRecord + PARAMETER_BEFORE_NAMES * 4, strings),
+							loadComments(parameterRecord + (PARAMETER_BEFORE_NAMES + namespaceCount) * 4, strings)));
+		}
+
+		List<TinyLocalVariable> methodLocalVariables = new ArrayList<>(localVariables);
+		for (int v = firstLocalVariable; v < firstLocalVariable + localVariables; v++) {
+			int localRecord = record(LOCAL_VARIABLES, v, LOCAL_VARIABLE_BEFORE_NAMES + LOCAL_VARIABLE_AFTER_NAMES);
+			methodLocalVariables.add(new TinyLocalVariable(buffer.getInt(localRecord), buffer.getInt(localRecord + 4), buffer.getInt(localRecord + 8),
+							loadNames(localRecord + LOCAL_VARIABLE_BEFORE_NAMES * 4, strings),
+							loadComments(localRecord + (LOCAL_VARIABLE_BEFORE_NAMES + namespaceCount) * 4, strings)));
+		}
+
+		return new TinyMethod(strings[getInt(METHOD_DESCRIPTORS, method)], loadNames(record + METHOD_BEFORE_NAMES * 4, strings),
+						methodParameters, methodLocalVariables, loadComments(after + 16, strings));
+	}
+
+	private List<String> loadNames(int position, String[] strings) {
+		List<String> names = new ArrayList<>(namespaceCount);
+		for (int i = 0; i < namespaceCount; i++) {
+			int name = buffer.getInt(position + i * 4);
+			// only the names at the end can be missing
+			if (name < 0) break;
+			names.add(strings[name]);
+		}
+		return names;
+	}
+
+	private List<String> loadComments(int position, String[] strings) {
+		int first = buffer.getInt(position), count = buffer.getInt(position + 4);
+		List<String> comments = new ArrayList<>(count);
+		for (int i = first; i < first + count; i++) comments.add(strings[getInt(COMMENTS, i)]);
+		return comments;
+	}
+
+	private int classRecord(int classIndex) {
+		return record(CLASSES, classIndex, CLASS_BEFORE_NAMES + CLASS_AFTER_NAMES);
+	}
+
+	private int methodRecord(int method) {
+		return record(METHODS, method, METHOD_BEFORE_NAMES + METHOD_AFTER_NAMES);
+	}
+
+	private int fieldRecord(int field) {
+		return record(FIELDS, field, FIELD_BEFORE_NAMES + FIELD_AFTER_NAMES);
+	}
+
+	private int record(int section, int index, int otherInts) {
+		return sections[section] + index * (namespaceCount + otherInts) * 4;
+	}
+
+	private int getClassNameString(int classIndex, int namespace) {
+		return buffer.getInt(classRecord(classIndex) + (CLASS_BEFORE_NAMES + namespace) * 4);
+	}
+
+	private int getMethodNameString(int method, int namespace) {
+		return buffer.getInt(methodRecord(method) + (METHOD_BEFORE_NAMES + namespace) * 4);
+	}
+
+	private int getFieldNameString(int field, int namespace) {
+		return buffer.getInt(fieldRecord(field) + (FIELD_BEFORE_NAMES + namespace) * 4);
+	}
+
+	private int getInt(int section, int index) {
+		return buffer.getInt(sections[section] + index * 4);
+	}
+
+	/**
+	 * Returns the string, or an empty string for a missing name.
+	 */
+	private String getString(int string) {
+		if (string < 0) return "";
+
+		int start = getInt(STRING_OFFSETS, string);
+		byte[] bytes = new byte[getInt(STRING_OFFSETS, string + 1) - start];
+		ByteBuffer strings = buffer.duplicate();
+		strings.position(sections[STRINGS] + start);
+		strings.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Compares the UTF-8 bytes of the string to the key like {@link TinyBinaryWriter} sorts them.
+	 */
+	private int compare(int string, byte[] key) {
+		int start = 0, length = 0;
+		if (string >= 0) {
+			start = sections[STRINGS] + getInt(STRING_OFFSETS, string);
+			length = sections[STRINGS] + getInt(STRING_OFFSETS, string + 1) - start;
+		}
+
+		for (int i = 0; i < Math.min(length, key.length); i++) {
+			int c = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+			if (c != 0) return c;
+		}
+
+		return length - key.length;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
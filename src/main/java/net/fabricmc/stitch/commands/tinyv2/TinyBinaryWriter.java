@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.commands.tinyv2;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.fabricmc.stitch.util.DescriptorRemapper;
+
+import static net.fabricmc.stitch.commands.tinyv2.TinyBinaryFile.*;
+
+/**
+ * Writes a {@link TinyFile} in the binary mapping format, which is described in {@link TinyBinaryFile}. Used
+ * through {@link TinyV2Writer#writeBinary(TinyFile, Path)}.
+ */
+final class TinyBinaryWriter {
+	private static final class Ints {
+		private int[] values = new int[1024];
+		private int size;
+
+		private void add(int value) {
+			if (size == values.length) values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+	}
+
+	private final int namespaceCount;
+	private final Map<String, Integer> stringIndices = new HashMap<>();
+	private final List<byte[]> strings = new ArrayList<>();
+	private final Ints[] sections = new Ints[SECTION_COUNT];
+	private int commentCount;
+
+	private TinyBinaryWriter(int namespaceCount) {
+		this.namespaceCount = namespaceCount;
+		for (int i = 0; i < SECTION_COUNT; i++) sections[i] = new Ints();
+	}
+
+	static void write(TinyFile tinyFile, Path path) throws IOException {
+		tinyFile.beforeWrite(path);
+		List<String> namespaces = tinyFile.getHeader().getNamespaces();
+		TinyBinaryWriter writer = new TinyBinaryWriter(namespaces.size());
+
+		for (Map.Entry<String, String> property : tinyFile.getHeader().getProperties().entrySet()) {
+			writer.sections[PROPERTIES].add(writer.string(property.getKey()));
+			writer.sections[PROPERTIES].add(property.getValue() != null ? writer.string(property.getValue()) : -1);
+		}
+		for (String namespace : namespaces) writer.sections[NAMESPACES].add(writer.string(namespace));
+
+		List<TinyClass> classes = new ArrayList<>(tinyFile.getClassEntries());
+		List<TinyMethod> methods = new ArrayList<>();
+		List<TinyField> fields = new ArrayList<>();
+		List<Integer> methodOwners = new ArrayList<>();
+		List<Integer> fieldOwners = new ArrayList<>();
+
+		for (int c = 0; c < classes.size(); c++) {
+			TinyClass tinyClass = classes.get(c);
+			Ints record = writer.sections[CLASSES];
+			writer.names(record, tinyClass.getClassNames());
+			record.add(methods.size());
+			record.add(tinyClass.getMethods().size());
+			record.add(fields.size());
+			record.add(tinyClass.getFields().size());
+			writer.comments(record, tinyClass.getComments());
+
+			methods.addAll(tinyClass.getMethods());
+			fields.addAll(tinyClass.getFields());
+			for (int i = 0; i < tinyClass.getMethods().size(); i++) methodOwners.add(c);
+			for (int i = 0; i < tinyClass.getFields().size(); i++) fieldOwners.add(c);
+		}
+
+		int parameterCount = 0, localVariableCount = 0;
+		for (int m = 0; m < methods.size(); m++) {
+			TinyMethod method = methods.get(m);
+			Ints record = writer.sections[METHODS];
+			record.add(methodOwners.get(m));
+			writer.names(record, method.getMethodNames());
+			record.add(parameterCount);
+			record.add(method.getParameters().size());
+			record.add(localVariableCount);
+			record.add(method.getLocalVariables().size());
+			writer.comments(record, method.getComments());
+
+			for (TinyMethodParameter parameter : method.getParameters()) {
+				Ints parameterRecord = writer.sections[PARAMETERS];
+				parameterRecord.add(parameter.getLvIndex());
+				writer.names(parameterRecord, parameter.getParameterNames());
+				writer.comments(parameterRecord, parameter.getComments());
+			}
+			for (TinyLocalVariable localVariable : method.getLocalVariables()) {
+				Ints localRecord = writer.sections[LOCAL_VARIABLES];
+				localRecord.add(localVariable.getLvIndex());
+				localRecord.add(localVariable.getLvStartOffset());
+				localRecord.add(localVariable.getLvTableIndex());
+				writer.names(localRecord, localVariable.getLocalVariableNames());
+				writer.comments(localRecord, localVariable.getComments());
+			}
+
+			parameterCount += method.getParameters().size();
+			localVariableCount += method.getLocalVariables().size();
+		}
+
+		for (int f = 0; f < fields.size(); f++) {
+			TinyField field = fields.get(f);
+			Ints record = writer.sections[FIELDS];
+			record.add(fieldOwners.get(f));
+			writer.names(record, field.getFieldNames());
+			writer.comments(record, field.getComments());
+		}
+
+		writer.descriptors(classes, methods, fields);
+		writer.indexes(classes, methods, fields);
+
+		int[] counts = {tinyFile.getHeader().getProperties().size(), classes.size(), methods.size(), fields.size(),
+						parameterCount, localVariableCount, writer.commentCount, writer.strings.size()};
+		writer.write(path, tinyFile.getHeader(), counts);
+	}
+
+	private int string(String string) {
+		Integer index = stringIndices.get(string);
+		if (index == null) {
+			index = strings.size();
+			stringIndices.put(string, index);
+			strings.add(string.getBytes(StandardCharsets.UTF_8));
+		}
+		return index;
+	}
+
+	private void names(Ints record, List<String> names) {
+		if (names.size() > namespaceCount) {
+			throw new IllegalArgumentException("Names " + names + " do not match the " + namespaceCount + " namespaces");
+		}
+		for (int i = 0; i < namespaceCount; i++) record.add(i < names.size() ? string(names.get(i)) : -1);
+	}
+
+	private void comments(Ints record, Collection<String> comments) {
+		record.add(commentCount);
+		record.add(comments.size());
+		for (String comment : comments) sections[COMMENTS].add(string(comment));
+		commentCount += comments.size();
+	}
+
+	/**
+	 * Adds the descriptors of every namespace, remapped with the class names of that namespace.
+	 */
+	private void descriptors(List<TinyClass> classes, List<TinyMethod> methods, List<TinyField> fields) {
+		for (int namespace = 0; namespace < namespaceCount; namespace++) {
+			Map<String, String> classNames = new HashMap<>();
+			for (TinyClass tinyClass : classes) {
+				List<String> names = tinyClass.getClassNames();
+				// classes without a name in the namespace keep their first name, like in the mappings library
+				if (namespace < names.size() && !names.get(namespace).isEmpty()) classNames.put(names.get(0), names.get(namespace));
+			}
+
+			DescriptorRemapper remapper = new DescriptorRemapper(classNames);
+			for (TinyMethod method : methods) {
+				String descriptor = method.getMethodDescriptorInFirstNamespace();
+				sections[METHOD_DESCRIPTORS].add(string(namespace == 0 ? descriptor : remapper.remapMethodDescriptor(descriptor)));
+			}
+			for (TinyField field : fields) {
+				String descriptor = field.getFieldDescriptorInFirstNamespace();
+				sections[FIELD_DESCRIPTORS].add(string(namespace == 0 ? descriptor : remapper.remapFieldDescriptor(descriptor)));
+			}
+		}
+	}
+
+	private void indexes(List<TinyClass> classes, List<TinyMethod> methods, List<TinyField> fields) {
+		int classRecord = namespaceCount + CLASS_BEFORE_NAMES + CLASS_AFTER_NAMES;
+		int methodRecord = namespaceCount + METHOD_BEFORE_NAMES + METHOD_AFTER_NAMES;
+		int fieldRecord = namespaceCount + FIELD_BEFORE_NAMES + FIELD_AFTER_NAMES;
+		int[] classInts = sections[CLASSES].values;
+
+		for (int namespace = 0; namespace < namespaceCount; namespace++) {
+			int ns = namespace;
+			sort(sections[CLASS_INDEX], 0, classes.size(),
+							Comparator.comparing(c -> string(classInts[c * classRecord + CLASS_BEFORE_NAMES + ns]), TinyBinaryWriter::compare));
+
+			Comparator<Integer> methodOrder = Comparator.<Integer, byte[]>comparing(m -> string(sections[METHODS].values[m * methodRecord + METHOD_BEFORE_NAMES + ns]), TinyBinaryWriter::compare)
+							.thenComparing(m -> string(sections[METHOD_DESCRIPTORS].values[ns * methods.size() + m]), TinyBinaryWriter::compare);
+			Comparator<Integer> fieldOrder = Comparator.<Integer, byte[]>comparing(f -> string(sections[FIELDS].values[f * fieldRecord + FIELD_BEFORE_NAMES + ns]), TinyBinaryWriter::compare)
+							.thenComparing(f -> string(sections[FIELD_DESCRIPTORS].values[ns * fields.size() + f]), TinyBinaryWriter::compare);
+
+			for (int c = 0; c < classes.size(); c++) {
+				int members = c * classRecord + CLASS_BEFORE_NAMES + namespaceCount;
+				sort(sections[METHOD_INDEX], classInts[members], classInts[members] + classInts[members + 1], methodOrder);
+				sort(sections[FIELD_INDEX], classInts[members + 2], classInts[members + 2] + classInts[members + 3], fieldOrder);
+			}
+		}
+	}
+
+	private static void sort(Ints index, int from, int to, Comparator<Integer> order) {
+		Integer[] entries = new Integer[to - from];
+		for (int i = 0; i < entries.length; i++) entries[i] = from + i;
+		Arrays.sort(entries, order);
+		for (Integer entry : entries) index.add(entry);
+	}
+
+	private byte[] string(int string) {
+		return string >= 0 ? strings.get(string) : new byte[0];
+	}
+
+	private static int compare(byte[] a, byte[] b) {
+		for (int i = 0; i < Math.min(a.length, b.length); i++) {
+			int c = (a[i] & 0xFF) - (b[i] & 0xFF);
+			if (c != 0) return c;
+		}
+		return a.length - b.length;
+	}
+
+	private void write(Path path, TinyHeader header, int[] counts) throws IOException {
+		long stringBytes = 0;
+		for (byte[] string : strings) stringBytes += string.length;
+		for (int i = 0; i < strings.size() + 1; i++) sections[STRING_OFFSETS].add(0);
+
+		int[] offsets = new int[SECTION_COUNT];
+		long offset = HEADER_SIZE;
+		for (int i = 0; i < SECTION_COUNT; i++) {
+			offsets[i] = (int) offset;
+			offset += i == STRINGS ? stringBytes : sections[i].size * 4L;
+		}
+
+		if (offset > Integer.MAX_VALUE) throw new IOException("The mappings are too large for the binary format");
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(header.getMajorVersion());
+			out.writeInt(header.getMinorVersion());
+			out.writeInt(namespaceCount);
+			for (int count : counts) out.writeInt(count);
+			for (int sectionOffset : offsets) out.writeInt(sectionOffset);
+
+			for (int i = 0; i < STRING_OFFSETS; i++) {
+				for (int j = 0; j < sections[i].size; j++) out.writeInt(sections[i].values[j]);
+			}
+
+			int stringOffset = 0;
+			for (byte[] string : strings) {
+				out.writeInt(stringOffset);
+				stringOffset += string.length;
+			}
+			out.writeInt(stringOffset);
+
+			for (byte[] string : strings) out.write(string);
+		}
+	}
+}
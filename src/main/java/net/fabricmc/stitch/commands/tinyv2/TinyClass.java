@@ -16,38 +16,65 @@
 
 package net.fabricmc.stitch.commands.tinyv2;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import net.fabricmc.stitch.util.Pair;
 
-public class TinyClass implements Comparable<TinyClass>, Mapping {
+public class TinyClass extends Entry implements Comparable<TinyClass>, Mapping {
 	@Override
 	public String toString() {
-		return "TinyClass(names = [" + String.join(", ", classNames) + "], " + methods.size() + " methods, "
-						+ fields.size() + " fields, " + comments.size() + " comments)";
+		return "TinyClass(names = [" + String.join(", ", getClassNames()) + "], " + methodCount + " methods, "
+						+ fieldCount + " fields, " + getComments().size() + " comments)";
 	}
 
-	private final List<String> classNames;
-	private final Collection<TinyMethod> methods;
-	private final Collection<TinyField> fields;
-	private final Collection<String> comments;
+	/**
+	 * The scope of the methods and fields, null until the first one is added.
+	 */
+	private Scope members;
+	private Object[] methods;
+	private int methodCount;
+	private Object[] fields;
+	private int fieldCount;
+	private MappingIndex<TinyMethod> methodIndex;
+	private MappingIndex<TinyField> fieldIndex;
 
+	/**
+	 * The names, members and comments are copied into the class, so the given collections are not kept and later
+	 * changes to them do not show up in it. Use {@link #getClassNames()}, {@link #getMethods()} and so on to
+	 * change the class instead. The members themselves are not copied, they become part of the class.
+	 */
 	public TinyClass(List<String> classNames, Collection<TinyMethod> methods, Collection<TinyField> fields, Collection<String> comments) {
-		this.classNames = classNames;
-		this.methods = methods;
-		this.fields = fields;
-		this.comments = comments;
+		super(classNames, comments);
+		getMethods().addAll(methods);
+		getFields().addAll(fields);
 	}
 
 	public TinyClass(List<String> classNames) {
-		this.classNames = classNames;
-		this.methods = new ArrayList<>();
-		this.fields = new ArrayList<>();
-		this.comments = new ArrayList<>();
+		this(classNames, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+	}
+
+	TinyClass(Scope scope, int[] classNames) {
+		super(scope, classNames);
+	}
+
+	Scope members() {
+		if (members == null) members = new Scope(scope.pool);
+		return members;
+	}
+
+	@Override
+	void move(StringPool from, StringPool to) {
+		super.move(from, to);
+
+		if (members != null) {
+			move(methods, methodCount, members, from, to);
+			move(fields, fieldCount, members, from, to);
+			members.pool = to;
+		}
 	}
 
 
@@ -56,37 +83,126 @@ public class TinyClass implements Comparable<TinyClass>, Mapping {
 	 * The key format is firstMethodName + descriptor
 	 */
 	public Map<Pair<String, String>, TinyMethod> mapMethodsByFirstNamespaceAndDescriptor() {
-		return methods.stream().collect(Collectors.toMap(m -> Pair.of(m.getMethodNames().get(0), m.getMethodDescriptorInFirstNamespace()), m -> m));
+		return getMethods().stream().collect(Collectors.toMap(m -> Pair.of(m.getMethodNames().get(0), m.getMethodDescriptorInFirstNamespace()), m -> m));
 	}
 
 	public Map<String, TinyField> mapFieldsByFirstNamespace() {
-		return fields.stream().collect(Collectors.toMap(f -> f.getFieldNames().get(0), f -> f));
+		return getFields().stream().collect(Collectors.toMap(f -> f.getFieldNames().get(0), f -> f));
+	}
+
+
+	/**
+	 * Returns the method with the given name in the first namespace and descriptor, or null. Unlike
+	 * {@link #mapMethodsByFirstNamespaceAndDescriptor()}, the lookup map is built once and kept between calls.
+	 */
+	public TinyMethod findMethod(String name, String descriptorInFirstNamespace) {
+		return findMethod(0, name, descriptorInFirstNamespace);
 	}
 
+	/**
+	 * Returns the method with the given name in the namespace at the given index and the given descriptor, which
+	 * is always in the first namespace, or null.
+	 */
+	public TinyMethod findMethod(int namespace, String name, String descriptorInFirstNamespace) {
+		if (methodIndex == null) methodIndex = new MappingIndex<>(getMethods(), members());
+
+		for (TinyMethod method : methodIndex.getAll(namespace, name)) {
+			if (method.getMethodDescriptorInFirstNamespace().equals(descriptorInFirstNamespace)) return method;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the field with the given name in the first namespace, or null. Unlike
+	 * {@link #mapFieldsByFirstNamespace()}, the lookup map is built once and kept between calls.
+	 */
+	public TinyField findField(String name) {
+		return findField(0, name);
+	}
+
+	/**
+	 * Returns the field with the given name in the namespace at the given index, or null.
+	 */
+	public TinyField findField(int namespace, String name) {
+		if (fieldIndex == null) fieldIndex = new MappingIndex<>(getFields(), members());
+		return fieldIndex.get(namespace, name);
+	}
+
+	/**
+	 * Drops the lookup maps of {@link #findMethod} and {@link #findField}. Changes made through the AST are tracked,
+	 * so this is only needed for members which have been added to another class since.
+	 */
+	public void invalidateIndexes() {
+		if (methodIndex != null) methodIndex.invalidate();
+		if (fieldIndex != null) fieldIndex.invalidate();
+	}
 
 	public List<String> getClassNames() {
-		return classNames;
+		return names();
 	}
 
 	public Collection<TinyMethod> getMethods() {
-		return methods;
+		return new Children<TinyMethod>() {
+			@Override
+			Scope scope() {
+				return members();
+			}
+
+			@Override
+			Object[] array() {
+				return methods;
+			}
+
+			@Override
+			public int size() {
+				return methodCount;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				methods = array;
+				methodCount = size;
+			}
+		};
 	}
 
 	public Collection<TinyField> getFields() {
-		return fields;
+		return new Children<TinyField>() {
+			@Override
+			Scope scope() {
+				return members();
+			}
+
+			@Override
+			Object[] array() {
+				return fields;
+			}
+
+			@Override
+			public int size() {
+				return fieldCount;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				fields = array;
+				fieldCount = size;
+			}
+		};
 	}
 
 	public Collection<String> getComments() {
-		return comments;
+		return comments();
 	}
 
 	@Override
 	public int compareTo(TinyClass o) {
-		return classNames.get(0).compareTo(o.classNames.get(0));
+		return getName(0).compareTo(o.getName(0));
 	}
 
 	@Override
 	public List<String> getMapping() {
-		return classNames;
+		return names();
 	}
 }
@@ -19,45 +19,57 @@ package net.fabricmc.stitch.commands.tinyv2;
 import java.util.Collection;
 import java.util.List;
 
-public class TinyField implements Comparable<TinyField>, Mapping {
+public class TinyField extends Entry implements Comparable<TinyField>, Mapping {
 
 	/**
 	 * For example when we have official -> named mappings the descriptor will be in official, but in named -> official
 	 * the descriptor will be in named.
 	 */
-	private String fieldDescriptorInFirstNamespace;
-	private final List<String> fieldNames;
-	private final Collection<String> comments;
+	private int fieldDescriptorInFirstNamespace;
 
+	/**
+	 * The names and comments are copied into the field, so the given collections are not kept and later changes to
+	 * them do not show up in it. Use {@link #getFieldNames()} and {@link #getComments()} to change the field instead.
+	 */
 	public TinyField(String fieldDescriptorInFirstNamespace, List<String> fieldNames, Collection<String> comments) {
-		this.fieldDescriptorInFirstNamespace = fieldDescriptorInFirstNamespace;
-		this.fieldNames = fieldNames;
-		this.comments = comments;
+		super(fieldNames, comments);
+		this.fieldDescriptorInFirstNamespace = scope.pool.add(fieldDescriptorInFirstNamespace);
+	}
+
+	TinyField(Scope scope, String fieldDescriptorInFirstNamespace, int[] fieldNames) {
+		super(scope, fieldNames);
+		this.fieldDescriptorInFirstNamespace = scope.pool.add(fieldDescriptorInFirstNamespace);
+	}
+
+	@Override
+	void move(StringPool from, StringPool to) {
+		super.move(from, to);
+		fieldDescriptorInFirstNamespace = to.add(from.get(fieldDescriptorInFirstNamespace));
 	}
 
 	public String getFieldDescriptorInFirstNamespace() {
-		return fieldDescriptorInFirstNamespace;
+		return scope.pool.get(fieldDescriptorInFirstNamespace);
 	}
 
 	public List<String> getFieldNames() {
-		return fieldNames;
+		return names();
 	}
 
 	public Collection<String> getComments() {
-		return comments;
+		return comments();
 	}
 
 	@Override
 	public int compareTo(TinyField o) {
-		return fieldNames.get(0).compareTo(o.fieldNames.get(0));
+		return getName(0).compareTo(o.getName(0));
 	}
 
 	public void setFieldDescriptorInFirstNamespace(String fieldDescriptorInFirstNamespace) {
-		this.fieldDescriptorInFirstNamespace = fieldDescriptorInFirstNamespace;
+		this.fieldDescriptorInFirstNamespace = scope.pool.add(fieldDescriptorInFirstNamespace);
 	}
 
 	@Override
 	public List<String> getMapping() {
-		return fieldNames;
+		return names();
 	}
 }
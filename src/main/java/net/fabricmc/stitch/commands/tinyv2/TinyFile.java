@@ -16,20 +16,47 @@
 
 package net.fabricmc.stitch.commands.tinyv2;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
  * All lists and collections in this AST are mutable.
+ * <p>
+ * The names and descriptors of the file are stored once in a string pool, and every class, member, parameter and
+ * local variable keeps the indices of its names. The collections returned by the getters are views over arrays kept
+ * by their owner, and entries added to them are copied into the pool of the file. Changes made through the views
+ * are counted, so the lookups of {@link #findClass}, {@link TinyClass#findMethod} and so on follow them.
  */
 public class TinyFile {
 	private final TinyHeader header;
-	private final Collection<TinyClass> classEntries;
+	private final Scope scope;
+	private Object[] classEntries;
+	private int classCount;
+	private MappingIndex<TinyClass> classIndex;
 
+	/**
+	 * The classes are copied into the file, so the given collection is not kept and later changes to it do not show
+	 * up in it. Use {@link #getClassEntries()} to change the file instead. The classes themselves are not copied,
+	 * they become part of the file.
+	 */
 	public TinyFile(TinyHeader header, Collection<TinyClass> classEntries) {
+		this(header, new StringPool());
+		getClassEntries().addAll(classEntries);
+	}
+
+	TinyFile(TinyHeader header, StringPool pool) {
 		this.header = header;
-		this.classEntries = classEntries;
+		this.scope = new Scope(pool);
+	}
+
+	/**
+	 * The scope of the classes.
+	 */
+	Scope scope() {
+		return scope;
 	}
 
 	/**
@@ -37,7 +64,37 @@ public class TinyFile {
 	 * Useful for quickly retrieving a class based on a known name in the first namespace.
 	 */
 	public Map<String, TinyClass> mapClassesByFirstNamespace() {
-		return classEntries.stream().collect(Collectors.toMap(c -> c.getClassNames().get(0), c -> c));
+		return getClassEntries().stream().collect(Collectors.toMap(c -> c.getClassNames().get(0), c -> c));
+	}
+
+	/**
+	 * Returns the class with the given name in the first namespace, or null. Unlike
+	 * {@link #mapClassesByFirstNamespace()}, the lookup map is built once and kept between calls.
+	 */
+	public TinyClass findClass(String name) {
+		return findClass(0, name);
+	}
+
+	/**
+	 * Returns the class with the given name in the namespace at the given index, or null.
+	 */
+	public TinyClass findClass(int namespace, String name) {
+		if (classIndex == null) classIndex = new MappingIndex<>(getClassEntries(), scope);
+		return classIndex.get(namespace, name);
+	}
+
+	/**
+	 * Drops the lookup maps of {@link #findClass}. Changes made through the AST are tracked, so this is only
+	 * needed for classes which have been added to another file since.
+	 */
+	public void invalidateIndexes() {
+		if (classIndex != null) classIndex.invalidate();
+	}
+
+	/**
+	 * Called by the writers before they open the path, which may be the one this file is read from.
+	 */
+	void beforeWrite(Path path) throws IOException {
 	}
 
 	public TinyHeader getHeader() {
@@ -45,6 +102,27 @@ public class TinyFile {
 	}
 
 	public Collection<TinyClass> getClassEntries() {
-		return classEntries;
+		return new Entry.Children<TinyClass>() {
+			@Override
+			Scope scope() {
+				return scope;
+			}
+
+			@Override
+			Object[] array() {
+				return classEntries;
+			}
+
+			@Override
+			public int size() {
+				return classCount;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				classEntries = array;
+				classCount = size;
+			}
+		};
 	}
 }
@@ -19,7 +19,7 @@ package net.fabricmc.stitch.commands.tinyv2;
 import java.util.Collection;
 import java.util.List;
 
-public class TinyLocalVariable implements Comparable<TinyLocalVariable>, Mapping {
+public class TinyLocalVariable extends Entry implements Comparable<TinyLocalVariable>, Mapping {
 
 	private final int lvIndex;
 	private final int lvStartOffset;
@@ -27,15 +27,24 @@ public class TinyLocalVariable implements Comparable<TinyLocalVariable>, Mapping
 	 * Will be -1 when there is no lvt index
 	 */
 	private final int lvTableIndex;
-	private final List<String> localVariableNames;
-	private final Collection<String> comments;
 
+	/**
+	 * The names and comments are copied into the local variable, so the given collections are not kept and later
+	 * changes to them do not show up in it. Use {@link #getLocalVariableNames()} and {@link #getComments()} to
+	 * change the local variable instead.
+	 */
 	public TinyLocalVariable(int lvIndex, int lvStartOffset, int lvTableIndex, List<String> localVariableNames, Collection<String> comments) {
+		super(localVariableNames, comments);
+		this.lvIndex = lvIndex;
+		this.lvStartOffset = lvStartOffset;
+		this.lvTableIndex = lvTableIndex;
+	}
+
+	TinyLocalVariable(Scope scope, int lvIndex, int lvStartOffset, int lvTableIndex, int[] localVariableNames) {
+		super(scope, localVariableNames);
 		this.lvIndex = lvIndex;
 		this.lvStartOffset = lvStartOffset;
 		this.lvTableIndex = lvTableIndex;
-		this.localVariableNames = localVariableNames;
-		this.comments = comments;
 	}
 
 
@@ -52,20 +61,20 @@ public class TinyLocalVariable implements Comparable<TinyLocalVariable>, Mapping
 	}
 
 	public List<String> getLocalVariableNames() {
-		return localVariableNames;
+		return names();
 	}
 
 	public Collection<String> getComments() {
-		return comments;
+		return comments();
 	}
 
 	@Override
 	public int compareTo(TinyLocalVariable o) {
-		return localVariableNames.get(0).compareTo(o.localVariableNames.get(0));
+		return getName(0).compareTo(o.getName(0));
 	}
 
 	@Override
 	public List<String> getMapping() {
-		return localVariableNames;
+		return names();
 	}
 }
@@ -21,73 +21,210 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-public class TinyMethod implements Comparable<TinyMethod>, Mapping {
+public class TinyMethod extends Entry implements Comparable<TinyMethod>, Mapping {
 
 	@Override
 	public String toString() {
-		return "TinyMethod(names = [" + String.join(", ", methodNames) + "], desc = " + methodDescriptorInFirstNamespace
-				+ ", " + parameters.size() + " params, "
-				+ localVariables.size() + " vars, " + comments.size() + " comments)";
+		return "TinyMethod(names = [" + String.join(", ", getMethodNames()) + "], desc = " + getMethodDescriptorInFirstNamespace()
+				+ ", " + parameterCount + " params, "
+				+ localVariableCount + " vars, " + getComments().size() + " comments)";
 	}
 
 	/**
 	 * For example when we have official -> named mappings the descriptor will be in official, but in named -> official
 	 * the descriptor will be in named.
 	 */
-	private String methodDescriptorInFirstNamespace;
-	private final List<String> methodNames;
-	private final Collection<TinyMethodParameter> parameters;
-	private final Collection<TinyLocalVariable> localVariables;
-	private final Collection<String> comments;
+	private int methodDescriptorInFirstNamespace;
+	/**
+	 * The scope of the parameters and local variables, null until the first one is added.
+	 */
+	private Scope members;
+	private Object[] parameters;
+	private int parameterCount;
+	private Object[] localVariables;
+	private int localVariableCount;
+	private MappingIndex<TinyMethodParameter> parameterIndex;
+	private MappingIndex<TinyLocalVariable> localVariableIndex;
 
+	/**
+	 * The names, parameters, local variables and comments are copied into the method, so the given collections are
+	 * not kept and later changes to them do not show up in it. Use {@link #getMethodNames()},
+	 * {@link #getParameters()} and so on to change the method instead. The parameters and local variables
+	 * themselves are not copied, they become part of the method.
+	 */
 	public TinyMethod(String methodDescriptorInFirstNamespace, List<String> methodNames, Collection<TinyMethodParameter> parameters, Collection<TinyLocalVariable> localVariables, Collection<String> comments) {
-		this.methodDescriptorInFirstNamespace = methodDescriptorInFirstNamespace;
-		this.methodNames = methodNames;
-		this.parameters = parameters;
-		this.localVariables = localVariables;
-		this.comments = comments;
+		super(methodNames, comments);
+		this.methodDescriptorInFirstNamespace = scope.pool.add(methodDescriptorInFirstNamespace);
+		getParameters().addAll(parameters);
+		getLocalVariables().addAll(localVariables);
+	}
+
+	TinyMethod(Scope scope, String methodDescriptorInFirstNamespace, int[] methodNames) {
+		super(scope, methodNames);
+		this.methodDescriptorInFirstNamespace = scope.pool.add(methodDescriptorInFirstNamespace);
+	}
+
+	Scope members() {
+		if (members == null) members = new Scope(scope.pool);
+		return members;
+	}
+
+	@Override
+	void move(StringPool from, StringPool to) {
+		super.move(from, to);
+		methodDescriptorInFirstNamespace = to.add(from.get(methodDescriptorInFirstNamespace));
+
+		if (members != null) {
+			move(parameters, parameterCount, members, from, to);
+			move(localVariables, localVariableCount, members, from, to);
+			members.pool = to;
+		}
 	}
 
 	public Map<String, TinyMethodParameter> mapParametersByFirstNamespace() {
-		return parameters.stream().collect(Collectors.toMap(p -> p.getParameterNames().get(0), p -> p));
+		return getParameters().stream().collect(Collectors.toMap(p -> p.getParameterNames().get(0), p -> p));
 	}
 
 	public Map<String, TinyLocalVariable> mapLocalVariablesByFirstNamespace() {
-		return localVariables.stream().collect(Collectors.toMap(lv -> lv.getLocalVariableNames().get(0), lv -> lv));
+		return getLocalVariables().stream().collect(Collectors.toMap(lv -> lv.getLocalVariableNames().get(0), lv -> lv));
+	}
+
+	/**
+	 * Returns the parameter with the given name in the first namespace, or null. Unlike
+	 * {@link #mapParametersByFirstNamespace()}, the lookup map is built once and kept between calls.
+	 */
+	public TinyMethodParameter findParameter(String name) {
+		return findParameter(0, name);
+	}
+
+	/**
+	 * Returns the parameter with the given name in the namespace at the given index, or null.
+	 */
+	public TinyMethodParameter findParameter(int namespace, String name) {
+		if (parameterIndex == null) parameterIndex = new MappingIndex<>(getParameters(), members());
+		return parameterIndex.get(namespace, name);
+	}
+
+	/**
+	 * Returns the local variable with the given name in the first namespace, or null. Unlike
+	 * {@link #mapLocalVariablesByFirstNamespace()}, the lookup map is built once and kept between calls.
+	 */
+	public TinyLocalVariable findLocalVariable(String name) {
+		return findLocalVariable(0, name);
+	}
+
+	/**
+	 * Returns the local variable with the given name in the namespace at the given index, or null.
+	 */
+	public TinyLocalVariable findLocalVariable(int namespace, String name) {
+		if (localVariableIndex == null) localVariableIndex = new MappingIndex<>(getLocalVariables(), members());
+		return localVariableIndex.get(namespace, name);
+	}
+
+	/**
+	 * Drops the lookup maps of {@link #findParameter} and {@link #findLocalVariable}. Changes made through the AST
+	 * are tracked, so this is only needed for parameters and local variables which have been added to another
+	 * method since.
+	 */
+	public void invalidateIndexes() {
+		if (parameterIndex != null) parameterIndex.invalidate();
+		if (localVariableIndex != null) localVariableIndex.invalidate();
 	}
 
 	public String getMethodDescriptorInFirstNamespace() {
-		return methodDescriptorInFirstNamespace;
+		return scope.pool.get(methodDescriptorInFirstNamespace);
 	}
 
 	public List<String> getMethodNames() {
-		return methodNames;
+		return names();
 	}
 
 	public Collection<TinyMethodParameter> getParameters() {
-		return parameters;
+		return new Children<TinyMethodParameter>() {
+			@Override
+			Scope scope() {
+				return members();
+			}
+
+			@Override
+			Object[] array() {
+				return parameters;
+			}
+
+			@Override
+			public int size() {
+				return parameterCount;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				parameters = array;
+				parameterCount = size;
+			}
+		};
 	}
 
 	public Collection<TinyLocalVariable> getLocalVariables() {
-		return localVariables;
+		return new Children<TinyLocalVariable>() {
+			@Override
+			Scope scope() {
+				return members();
+			}
+
+			@Override
+			Object[] array() {
+				return localVariables;
+			}
+
+			@Override
+			public int size() {
+				return localVariableCount;
+			}
+
+			@Override
+			void store(Object[] array, int size) {
+				localVariables = array;
+				localVariableCount = size;
+			}
+		};
 	}
 
 	public Collection<String> getComments() {
-		return comments;
+		return comments();
 	}
 
 	@Override
 	public int compareTo(TinyMethod o) {
-		return (methodNames.get(0) + methodDescriptorInFirstNamespace)
-						.compareTo(o.methodNames.get(0) + o.methodDescriptorInFirstNamespace);
+		return compareConcatenated(getName(0), getMethodDescriptorInFirstNamespace(),
+						o.getName(0), o.getMethodDescriptorInFirstNamespace());
+	}
+
+	/**
+	 * Compares a1 + a2 to b1 + b2 like {@link String#compareTo(String)} does, without building the strings.
+	 */
+	private static int compareConcatenated(String a1, String a2, String b1, String b2) {
+		int aLength = a1.length() + a2.length();
+		int bLength = b1.length() + b2.length();
+		int length = Math.min(aLength, bLength);
+
+		for (int i = 0; i < length; i++) {
+			char a = i < a1.length() ? a1.charAt(i) : a2.charAt(i - a1.length());
+			char b = i < b1.length() ? b1.charAt(i) : b2.charAt(i - b1.length());
+
+			if (a != b) {
+				return a - b;
+			}
+		}
+
+		return aLength - bLength;
 	}
 
 	public void setMethodDescriptorInFirstNamespace(String methodDescriptorInFirstNamespace) {
-		this.methodDescriptorInFirstNamespace = methodDescriptorInFirstNamespace;
+		this.methodDescriptorInFirstNamespace = scope.pool.add(methodDescriptorInFirstNamespace);
 	}
 
 	@Override
 	public List<String> getMapping() {
-		return methodNames;
+		return names();
 	}
 }
@@ -19,15 +19,22 @@ package net.fabricmc.stitch.commands.tinyv2;
 import java.util.Collection;
 import java.util.List;
 
-public class TinyMethodParameter implements Comparable<TinyMethodParameter>, Mapping {
+public class TinyMethodParameter extends Entry implements Comparable<TinyMethodParameter>, Mapping {
 	private final int lvIndex;
-	private final List<String> parameterNames;
-	private final Collection<String> comments;
 
+	/**
+	 * The names and comments are copied into the parameter, so the given collections are not kept and later changes
+	 * to them do not show up in it. Use {@link #getParameterNames()} and {@link #getComments()} to change the
+	 * parameter instead.
+	 */
 	public TinyMethodParameter(int lvIndex, List<String> parameterNames, Collection<String> comments) {
+		super(parameterNames, comments);
+		this.lvIndex = lvIndex;
+	}
+
+	TinyMethodParameter(Scope scope, int lvIndex, int[] parameterNames) {
+		super(scope, parameterNames);
 		this.lvIndex = lvIndex;
-		this.parameterNames = parameterNames;
-		this.comments = comments;
 	}
 
 	public int getLvIndex() {
@@ -35,11 +42,11 @@ public class TinyMethodParameter implements Comparable<TinyMethodParameter>, Map
 	}
 
 	public List<String> getParameterNames() {
-		return parameterNames;
+		return names();
 	}
 
 	public Collection<String> getComments() {
-		return comments;
+		return comments();
 	}
 
 	@Override
@@ -49,6 +56,6 @@ public class TinyMethodParameter implements Comparable<TinyMethodParameter>, Map
 
 	@Override
 	public List<String> getMapping() {
-		return parameterNames;
+		return names();
 	}
 }
@@ -17,20 +17,33 @@
 package net.fabricmc.stitch.commands.tinyv2;
 
 import java.io.BufferedReader;
+import java.io.CharArrayReader;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import com.google.common.collect.Lists;
+import javax.annotation.Nullable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import net.fabricmc.mapping.reader.v2.MappingGetter;
 import net.fabricmc.mapping.reader.v2.TinyMetadata;
 import net.fabricmc.mapping.reader.v2.TinyV2Factory;
 import net.fabricmc.mapping.reader.v2.TinyVisitor;
+import net.fabricmc.stitch.util.CompressedFiles;
 
 public class TinyV2Reader {
 	private static class Visitor implements TinyVisitor {
@@ -42,10 +55,9 @@ public class TinyV2Reader {
 			LOCAL_VARIABLE
 		}
 
-		private TinyHeader header;
+		private final StringPool pool;
+		private TinyFile file;
 		private int namespaceAmount;
-		//        private String
-		private Set<TinyClass> classes = new HashSet<>();
 
 		private TinyClass currentClass;
 		private TinyField currentField;
@@ -55,54 +67,57 @@ public class TinyV2Reader {
 		private CommentType currentCommentType;
 		private boolean inComment = false;
 
-		private List<String> getNames(MappingGetter getter) {
-			return Lists.newArrayList(getter.getRawNames());
+		Visitor(StringPool pool) {
+			this.pool = pool;
+		}
+
+		private int[] getNames(MappingGetter getter) {
+			String[] rawNames = getter.getRawNames();
+			int[] names = new int[rawNames.length];
+			for (int i = 0; i < rawNames.length; i++) names[i] = pool.add(rawNames[i]);
+			return names;
 		}
 
 		@Override
 		public void start(TinyMetadata metadata) {
-			header = new TinyHeader(new ArrayList<>(metadata.getNamespaces()), metadata.getMajorVersion(), metadata.getMinorVersion(),
+			TinyHeader header = new TinyHeader(new ArrayList<>(metadata.getNamespaces()), metadata.getMajorVersion(), metadata.getMinorVersion(),
 							metadata.getProperties());
+			file = new TinyFile(header, pool);
 			namespaceAmount = header.getNamespaces().size();
 		}
 
 		@Override
 		public void pushClass(MappingGetter name) {
-			currentClass = new TinyClass(getNames(name), new HashSet<>(), new HashSet<>(), new ArrayList<>());
-			classes.add(currentClass);
+			currentClass = new TinyClass(file.scope(), getNames(name));
+			file.getClassEntries().add(currentClass);
 			currentCommentType = CommentType.CLASS;
 		}
 
 		@Override
 		public void pushField(MappingGetter name, String descriptor) {
-			currentField = new TinyField(descriptor, getNames(name), new ArrayList<>());
+			currentField = new TinyField(currentClass.members(), descriptor, getNames(name));
 			currentClass.getFields().add(currentField);
 			currentCommentType = CommentType.FIELD;
 		}
 
 		@Override
 		public void pushMethod(MappingGetter name, String descriptor) {
-			currentMethod = new TinyMethod(
-							descriptor, getNames(name), new HashSet<>(), new HashSet<>(), new ArrayList<>()
-			);
+			currentMethod = new TinyMethod(currentClass.members(), descriptor, getNames(name));
 			currentClass.getMethods().add(currentMethod);
 			currentCommentType = CommentType.METHOD;
 		}
 
 		@Override
 		public void pushParameter(MappingGetter name, int localVariableIndex) {
-			currentParameter = new TinyMethodParameter(
-							localVariableIndex, getNames(name), new ArrayList<>()
-			);
+			currentParameter = new TinyMethodParameter(currentMethod.members(), localVariableIndex, getNames(name));
 			currentMethod.getParameters().add(currentParameter);
 			currentCommentType = CommentType.PARAMETER;
 		}
 
 		@Override
 		public void pushLocalVariable(MappingGetter name, int localVariableIndex, int localVariableStartOffset, int localVariableTableIndex) {
-			currentLocalVariable = new TinyLocalVariable(
-							localVariableIndex, localVariableStartOffset, localVariableTableIndex, getNames(name), new ArrayList<>()
-			);
+			currentLocalVariable = new TinyLocalVariable(currentMethod.members(), localVariableIndex, localVariableStartOffset, localVariableTableIndex,
+							getNames(name));
 			currentMethod.getLocalVariables().add(currentLocalVariable);
 			currentCommentType = CommentType.LOCAL_VARIABLE;
 		}
@@ -161,16 +176,185 @@ public class TinyV2Reader {
 		}
 
 		private TinyFile getAST() {
-			return new TinyFile(header, classes);
+			return file;
 		}
 	}
 
+	/**
+	 * Files smaller than this are not worth splitting up.
+	 */
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
 	public static TinyFile read(Path readFrom) throws IOException {
-		Visitor visitor = new Visitor();
-		try (BufferedReader reader = Files.newBufferedReader(readFrom)) {
+		Visitor visitor = new Visitor(new StringPool());
+		try (BufferedReader reader = CompressedFiles.newBufferedReader(readFrom, StandardCharsets.UTF_8)) {
+			TinyV2Factory.visit(reader, visitor);
+		}
+
+		return visitor.getAST();
+	}
+
+	/**
+	 * Opens the file without reading its classes, which are only parsed once they are accessed, see
+	 * {@link LazyTinyFile}. The offsets of the classes are found by scanning the file.
+	 */
+	public static TinyFile readLazily(Path readFrom) throws IOException {
+		return readLazily(readFrom, null);
+	}
+
+	/**
+	 * Opens the file like {@link #readLazily(Path)}, keeping the offsets of the classes in the given index file so
+	 * the next open can skip the scan. The index is made again when it belongs to a different file or version of it.
+	 *
+	 * @param index where to keep the offsets, e.g. next to the file with {@code .index} added, or null for none
+	 */
+	public static TinyFile readLazily(Path readFrom, @Nullable Path index) throws IOException {
+		// compressed files can't be mapped, so they are read at once
+		if (CompressedFiles.isCompressed(readFrom)) return read(readFrom);
+		return LazyTinyFile.open(readFrom, index);
+	}
+
+	/**
+	 * Loads a whole file in the binary mapping format. To look up a few entries without loading the file, use
+	 * {@link TinyBinaryFile} directly.
+	 */
+	public static TinyFile readBinary(Path readFrom) throws IOException {
+		try (TinyBinaryFile file = new TinyBinaryFile(readFrom)) {
+			return file.toTinyFile();
+		}
+	}
+
+	/**
+	 * Reads the file like {@link #read(Path)}, but parses it on the given number of threads.
+	 * <p>
+	 * The memory-mapped file is split into chunks before top level class lines. Every chunk is parsed on its own,
+	 * after a copy of the header and its properties, so each chunk sees the same namespaces and escaping. The
+	 * header of the result comes from the first chunk.
+	 */
+	public static TinyFile read(Path readFrom, int threads) throws IOException {
+		try (FileChannel channel = FileChannel.open(readFrom, StandardOpenOption.READ)) {
+			long size = channel.size();
+
+			if (threads <= 1 || size < 2L * MIN_CHUNK_SIZE || size > Integer.MAX_VALUE || CompressedFiles.isCompressed(readFrom)) {
+				return read(readFrom);
+			}
+
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			List<Integer> bounds = findChunks(buffer, threads * 4);
+
+			if (bounds.size() < 3) {
+				return read(readFrom);
+			}
+
+			ByteBuffer headerBytes = slice(buffer, 0, bounds.get(0));
+			char[] header = StandardCharsets.UTF_8.newDecoder().decode(headerBytes).toString().toCharArray();
+			ExecutorService executor = Executors.newFixedThreadPool(threads,
+							new ThreadFactoryBuilder().setNameFormat("stitch-tiny-reader-%d").setDaemon(true).build());
+
+			try {
+				List<Future<TinyFile>> chunks = new ArrayList<>();
+
+				for (int i = 1; i < bounds.size(); i++) {
+					ByteBuffer chunk = slice(buffer, bounds.get(i - 1), bounds.get(i));
+					chunks.add(executor.submit(() -> readChunk(header, chunk, new StringPool())));
+				}
+
+				TinyFile first = await(chunks.get(0));
+
+				for (int i = 1; i < chunks.size(); i++) {
+					first.getClassEntries().addAll(await(chunks.get(i)).getClassEntries());
+				}
+
+				return first;
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+	}
+
+	/**
+	 * Returns the start of the first class line, the starts of the class lines the chunks begin with, and the end
+	 * of the file.
+	 */
+	private static List<Integer> findChunks(ByteBuffer buffer, int maxChunks) {
+		int size = buffer.limit();
+		int chunkSize = Math.max(MIN_CHUNK_SIZE, size / maxChunks);
+		List<Integer> bounds = new ArrayList<>();
+
+		int first = nextClass(buffer, 0);
+		if (first < 0) {
+			return bounds;
+		}
+
+		bounds.add(first);
+
+		for (int pos = first + chunkSize; pos < size; ) {
+			int next = nextClass(buffer, pos);
+			if (next < 0) {
+				break;
+			}
+
+			bounds.add(next);
+			pos = next + chunkSize;
+		}
+
+		bounds.add(size);
+		return bounds;
+	}
+
+	/**
+	 * Returns the start of the first line at or after the position which begins with "c\t", or -1.
+	 */
+	static int nextClass(ByteBuffer buffer, int pos) {
+		int size = buffer.limit();
+
+		for (int i = Math.max(pos, 1); i + 2 < size; i++) {
+			if (buffer.get(i - 1) == '\n' && buffer.get(i) == 'c' && buffer.get(i + 1) == '\t') {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(start);
+		slice.limit(end);
+		return slice.slice();
+	}
+
+	/**
+	 * Parses the chunk after the header, storing its names in the pool.
+	 */
+	static TinyFile readChunk(char[] header, ByteBuffer chunk, StringPool pool) throws IOException {
+		// decoded right behind the header, which saves copying the chunk once more
+		CharBuffer text = CharBuffer.allocate(header.length + chunk.remaining());
+		text.put(header);
+
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+		CoderResult result = decoder.decode(chunk, text, true);
+		if (result.isError()) result.throwException();
+		decoder.flush(text);
+
+		Visitor visitor = new Visitor(pool);
+		try (BufferedReader reader = new BufferedReader(new CharArrayReader(text.array(), 0, text.position()))) {
 			TinyV2Factory.visit(reader, visitor);
 		}
 
 		return visitor.getAST();
 	}
+
+	private static TinyFile await(Future<TinyFile> chunk) throws IOException {
+		try {
+			return chunk.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
 }
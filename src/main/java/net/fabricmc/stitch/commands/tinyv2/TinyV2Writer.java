@@ -16,18 +16,55 @@
 
 package net.fabricmc.stitch.commands.tinyv2;
 
-import java.io.BufferedWriter;
+import java.io.CharArrayWriter;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import net.fabricmc.stitch.util.CompressedFiles;
 
 public class TinyV2Writer {
+	/**
+	 * The number of classes formatted by one task when writing in parallel.
+	 */
+	private static final int CLASSES_PER_BLOCK = 64;
+
 	public static void write(TinyFile tinyFile, Path writeTo) throws IOException {
 		new TinyV2Writer().instanceWrite(tinyFile, writeTo);
 	}
 
-	private static class Prefixes {
+	/**
+	 * Writes the file like {@link #write(TinyFile, Path)}, but formats blocks of classes on the given number of
+	 * threads. The blocks are written in order, so the output is the same as with a single thread.
+	 */
+	public static void write(TinyFile tinyFile, Path writeTo, int threads) throws IOException {
+		if (threads <= 1) {
+			write(tinyFile, writeTo);
+		} else {
+			new TinyV2Writer().instanceWrite(tinyFile, writeTo, threads);
+		}
+	}
+
+	/**
+	 * Writes the file in the binary mapping format, see {@link TinyBinaryFile}.
+	 */
+	public static void writeBinary(TinyFile tinyFile, Path writeTo) throws IOException {
+		TinyBinaryWriter.write(tinyFile, writeTo);
+	}
+
+	static class Prefixes {
 		private Prefixes() {
 		}
 
@@ -64,18 +101,103 @@ public class TinyV2Writer {
 	private TinyV2Writer() {
 	}
 
-	private BufferedWriter writer;
+	private Writer writer;
+
+	// each nesting level sorts into its own array, which is reused for every element of the level above
+	private TinyClass[] classes = new TinyClass[0];
+	private TinyMethod[] methods = new TinyMethod[16];
+	private TinyField[] fields = new TinyField[16];
+	private TinyMethodParameter[] parameters = new TinyMethodParameter[8];
+	private TinyLocalVariable[] localVariables = new TinyLocalVariable[8];
 
 	private void instanceWrite(TinyFile tinyFile, Path writeTo) throws IOException {
+		tinyFile.beforeWrite(writeTo);
+
 		try {
-			writer = Files.newBufferedWriter(writeTo);
+			writer = CompressedFiles.newBufferedWriter(writeTo, StandardCharsets.UTF_8);
 			writeHeader(tinyFile.getHeader());
-			tinyFile.getClassEntries().stream().sorted().forEach(this::writeClass);
+
+			classes = sort(tinyFile.getClassEntries(), classes);
+			for (int i = 0; i < tinyFile.getClassEntries().size(); i++) writeClass(classes[i]);
 		} finally {
 			writer.close();
 		}
 	}
 
+	private void instanceWrite(TinyFile tinyFile, Path writeTo, int threads) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads,
+						new ThreadFactoryBuilder().setNameFormat("stitch-tiny-writer-%d").setDaemon(true).build());
+		// every worker formats into its own writer and buffer, which are reused for all of its blocks
+		ThreadLocal<TinyV2Writer> formatters = ThreadLocal.withInitial(TinyV2Writer::new);
+		tinyFile.beforeWrite(writeTo);
+
+		try {
+			writer = CompressedFiles.newBufferedWriter(writeTo, StandardCharsets.UTF_8);
+			writeHeader(tinyFile.getHeader());
+
+			TinyClass[] sorted = sort(tinyFile.getClassEntries(), classes);
+			int size = tinyFile.getClassEntries().size();
+			Deque<Future<char[]>> blocks = new ArrayDeque<>();
+
+			for (int start = 0; start < size; start += CLASSES_PER_BLOCK) {
+				// keeps a few blocks per thread queued without formatting far ahead of the output
+				if (blocks.size() >= threads * 4) writer.write(await(blocks.poll()));
+
+				int from = start;
+				int to = Math.min(size, start + CLASSES_PER_BLOCK);
+				blocks.add(executor.submit(() -> formatters.get().format(sorted, from, to)));
+			}
+
+			while (!blocks.isEmpty()) writer.write(await(blocks.poll()));
+		} finally {
+			executor.shutdownNow();
+			if (writer != null) writer.close();
+		}
+	}
+
+	private char[] format(TinyClass[] sorted, int from, int to) {
+		CharArrayWriter buffer;
+
+		if (writer == null) {
+			writer = buffer = new CharArrayWriter(64 * 1024);
+		} else {
+			buffer = (CharArrayWriter) writer;
+			buffer.reset();
+		}
+
+		for (int i = from; i < to; i++) writeClass(sorted[i]);
+
+		return buffer.toCharArray();
+	}
+
+	private static char[] await(Future<char[]> block) throws IOException {
+		try {
+			return block.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Sorts the elements into the array, which is replaced with a larger one if needed. The sort is stable like
+	 * {@code stream().sorted()}, so elements which compare equal keep their order.
+	 */
+	private static <T extends Comparable<? super T>> T[] sort(Collection<T> elements, T[] array) {
+		if (array.length < elements.size()) {
+			array = Arrays.copyOf(array, Math.max(elements.size(), array.length * 2));
+		}
+
+		int size = 0;
+		for (T element : elements) array[size++] = element;
+
+		Arrays.sort(array, 0, size);
+		return array;
+	}
+
 
 	private void writeHeader(TinyHeader header) {
 		writeLine(Indents.HEADER, header.getNamespaces(), Prefixes.HEADER,
@@ -88,8 +210,11 @@ public class TinyV2Writer {
 
 		for (String comment : tinyClass.getComments()) writeComment(Indents.CLASS_COMMENT, comment);
 
-		tinyClass.getMethods().stream().sorted().forEach(this::writeMethod);
-		tinyClass.getFields().stream().sorted().forEach(this::writeField);
+		methods = sort(tinyClass.getMethods(), methods);
+		for (int i = 0; i < tinyClass.getMethods().size(); i++) writeMethod(methods[i]);
+
+		fields = sort(tinyClass.getFields(), fields);
+		for (int i = 0; i < tinyClass.getFields().size(); i++) writeField(fields[i]);
 
 	}
 
@@ -98,8 +223,11 @@ public class TinyV2Writer {
 
 		for (String comment : method.getComments()) writeComment(Indents.METHOD_COMMENT, comment);
 
-		method.getParameters().stream().sorted().forEach(this::writeMethodParameter);
-		method.getLocalVariables().stream().sorted().forEach(this::writeLocalVariable);
+		parameters = sort(method.getParameters(), parameters);
+		for (int i = 0; i < method.getParameters().size(); i++) writeMethodParameter(parameters[i]);
+
+		localVariables = sort(method.getLocalVariables(), localVariables);
+		for (int i = 0; i < method.getLocalVariables().size(); i++) writeLocalVariable(localVariables[i]);
 
 	}
 
@@ -22,84 +22,523 @@ import org.objectweb.asm.tree.*;
 
 import java.util.*;
 
+/**
+ * Merges the versions of a class found in several environments (sides) into one class.
+ * <p>
+ * Members and interfaces missing from some of the sides get an {@code @Environment} or
+ * {@code @EnvironmentInterface} annotation naming the side they exist on. The side names are used as
+ * {@code EnvType} constants, so they have to be {@code CLIENT} or {@code SERVER}, and several inputs may share
+ * a side. Loader's annotations name a single side, so anything present on some but not all sides has to be
+ * present on exactly one of them.
+ */
 public class ClassMerger {
     private static final String SIDE_DESCRIPTOR = "Lnet/fabricmc/api/EnvType;";
     private static final String ITF_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterface;";
     private static final String ITF_LIST_DESCRIPTOR = "Lnet/fabricmc/api/EnvironmentInterfaces;";
     private static final String SIDED_DESCRIPTOR = "Lnet/fabricmc/api/Environment;";
+    /**
+     * The constants of Loader's {@code EnvType}, the only sides its annotations can name.
+     */
+    private static final List<String> ENV_TYPES = Arrays.asList("CLIENT", "SERVER");
+
+    /**
+     * The merged order of one kind of member, and the sides each member is present on.
+     */
+    private static final class MemberTable<T> {
+        private final List<List<String>> keys = new ArrayList<>();
+        private final Map<String, Set<String>> sides = new HashMap<>();
+        private final Map<String, T> entries = new HashMap<>();
+        private List<String> order;
+        private Map<String, Integer> positions;
+
+        private List<String> newSide() {
+            List<String> list = new ArrayList<>();
+            keys.add(list);
+            return list;
+        }
 
-    private abstract class Merger<T> {
-        private final Map<String, T> entriesClient, entriesServer;
-        private final List<String> entryNames;
+        /**
+         * Records a member of the current side, keeping the first version of it seen.
+         */
+        private void add(String side, String key, T entry) {
+            keys.get(keys.size() - 1).add(key);
+            sides.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(side);
 
-        public Merger(List<T> entriesClient, List<T> entriesServer) {
-            this.entriesClient = new LinkedHashMap<>();
-            this.entriesServer = new LinkedHashMap<>();
+            if (entry != null) {
+                entries.putIfAbsent(key, entry);
+            }
+        }
 
-            List<String> listClient = toMap(entriesClient, this.entriesClient);
-            List<String> listServer = toMap(entriesServer, this.entriesServer);
+        private void build() {
+            order = StitchUtil.mergePreserveOrder(keys);
+            positions = new HashMap<>(order.size() * 2);
 
-            this.entryNames = StitchUtil.mergePreserveOrder(listClient, listServer);
+            for (int i = 0; i < order.size(); i++) {
+                positions.put(order.get(i), i);
+            }
         }
+    }
 
-        public abstract String getName(T entry);
-        public abstract void applySide(T entry, String side);
+    /**
+     * Collects the members of one version of a class. Members of the primary version are streamed into the
+     * output later on, so only their keys are recorded. Members only found in other versions are kept in full,
+     * except for those already found in an earlier version.
+     */
+    private static final class MemberCollector extends ClassVisitor {
+        private final String side;
+        private final boolean primary;
+        private final MemberTable<InnerClassNode> innerClasses;
+        private final MemberTable<FieldNode> fields;
+        private final MemberTable<MethodNode> methods;
+        private List<String> interfaces;
+
+        private MemberCollector(String side, boolean primary, MemberTable<InnerClassNode> innerClasses,
+                                MemberTable<FieldNode> fields, MemberTable<MethodNode> methods) {
+            super(StitchUtil.ASM_VERSION);
+            this.side = side;
+            this.primary = primary;
+            this.innerClasses = innerClasses;
+            this.fields = fields;
+            this.methods = methods;
+
+            innerClasses.newSide();
+            fields.newSide();
+            methods.newSide();
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.interfaces = interfaces != null ? Arrays.asList(interfaces) : Collections.emptyList();
+        }
 
-        private final List<String> toMap(List<T> entries, Map<String, T> map) {
-            List<String> list = new ArrayList<>(entries.size());
-            for (T entry : entries) {
-                String name = getName(entry);
-                map.put(name, entry);
-                list.add(name);
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            innerClasses.add(side, name, new InnerClassNode(name, outerName, innerName, access));
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            String key = name + ";;" + descriptor;
+            FieldNode node = null;
+
+            if (!primary && !fields.sides.containsKey(key)) {
+                node = new FieldNode(StitchUtil.ASM_VERSION, access, name, descriptor, signature, value);
             }
-            return list;
+
+            fields.add(side, key, node);
+            return node;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            String key = name + descriptor;
+            MethodNode node = null;
+
+            if (!primary && !methods.sides.containsKey(key)) {
+                node = new MethodNode(StitchUtil.ASM_VERSION, access, name, descriptor, signature, exceptions);
+            }
+
+            methods.add(side, key, node);
+            return node;
+        }
+    }
+
+    /**
+     * Adds annotations to a class once its own annotations have been visited, since they have to come before its
+     * attributes, inner classes and members.
+     */
+    abstract static class ClassAnnotator extends ClassVisitor {
+        private boolean annotated;
+
+        ClassAnnotator(int api, ClassVisitor cv) {
+            super(api, cv);
+        }
+
+        protected abstract void addAnnotations();
+
+        protected final void annotate() {
+            if (!annotated) {
+                annotated = true;
+                addAnnotations();
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            annotate();
+            return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            annotate();
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public void visitNestMember(String nestMember) {
+            annotate();
+            super.visitNestMember(nestMember);
+        }
+
+        @Override
+        public void visitPermittedSubclass(String permittedSubclass) {
+            annotate();
+            super.visitPermittedSubclass(permittedSubclass);
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            annotate();
+            super.visitInnerClass(name, outerName, innerName, access);
         }
 
-        public void merge(List<T> list) {
-            for (String s : entryNames) {
-                T entryClient = entriesClient.get(s);
-                T entryServer = entriesServer.get(s);
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            annotate();
+            return super.visitRecordComponent(name, descriptor, signature);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            annotate();
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            annotate();
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd() {
+            annotate();
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Adds the sides annotation to a field after its own annotations.
+     */
+    private static final class SidedFieldVisitor extends FieldVisitor {
+        private String side;
+
+        private SidedFieldVisitor(int api, FieldVisitor fv, String side) {
+            super(api, fv);
+            this.side = side;
+        }
+
+        private void annotate() {
+            if (side != null) {
+                visitSideAnnotation(fv.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+                side = null;
+            }
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            annotate();
+            return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        }
+
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            annotate();
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public void visitEnd() {
+            annotate();
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Adds the sides annotation to a method after its own annotations, before its parameter annotations, attributes
+     * and code.
+     */
+    private static final class SidedMethodVisitor extends MethodVisitor {
+        private String side;
+
+        private SidedMethodVisitor(int api, MethodVisitor mv, String side) {
+            super(api, mv);
+            this.side = side;
+        }
+
+        private void annotate() {
+            if (side != null) {
+                visitSideAnnotation(mv.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+                side = null;
+            }
+        }
+
+        @Override
+        public void visitAnnotableParameterCount(int parameterCount, boolean visible) {
+            annotate();
+            super.visitAnnotableParameterCount(parameterCount, visible);
+        }
+
+        @Override
+        public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+            annotate();
+            return super.visitParameterAnnotation(parameter, descriptor, visible);
+        }
+
+        @Override
+        public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+            annotate();
+            return super.visitTypeAnnotation(typeRef, typePath, descriptor, visible);
+        }
 
-                if (entryClient != null && entryServer != null) {
-                    list.add(entryClient);
-                } else if (entryClient != null) {
-                    applySide(entryClient, "CLIENT");
-                    list.add(entryClient);
-                } else {
-                    applySide(entryServer, "SERVER");
-                    list.add(entryServer);
+        @Override
+        public void visitAttribute(Attribute attribute) {
+            annotate();
+            super.visitAttribute(attribute);
+        }
+
+        @Override
+        public void visitCode() {
+            annotate();
+            super.visitCode();
+        }
+
+        @Override
+        public void visitEnd() {
+            annotate();
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Streams the primary version of a class into the output, inserting the members of the other versions at
+     * their merged positions. Members shared by all sides pass through unchanged, so their code is copied by
+     * the {@link ClassWriter} without being parsed.
+     */
+    private static final class MergingClassVisitor extends ClassAnnotator {
+        private final Set<String> allSides;
+        private final List<String> interfaces;
+        private final Map<String, List<String>> sidedInterfaces;
+        private String name;
+        private final MemberTable<InnerClassNode> innerClasses;
+        private final MemberTable<FieldNode> fields;
+        private final MemberTable<MethodNode> methods;
+        private boolean innerClassesDone;
+        private int fieldPos, methodPos;
+
+        private MergingClassVisitor(ClassVisitor cv, Set<String> allSides, List<String> interfaces, Map<String, List<String>> sidedInterfaces,
+                                    MemberTable<InnerClassNode> innerClasses, MemberTable<FieldNode> fields, MemberTable<MethodNode> methods) {
+            super(StitchUtil.ASM_VERSION, cv);
+            this.allSides = allSides;
+            this.interfaces = interfaces;
+            this.sidedInterfaces = sidedInterfaces;
+            this.innerClasses = innerClasses;
+            this.fields = fields;
+            this.methods = methods;
+        }
+
+        /**
+         * Returns the side to annotate a member with, or null if it is present on all sides.
+         */
+        private String getSideToAnnotate(MemberTable<?> table, String key) {
+            Set<String> sides = table.sides.get(key);
+            return sides.equals(allSides) ? null : getOnlySide(sides, name + "." + key);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.name = name;
+            super.visit(version, access, name, signature, superName, this.interfaces.toArray(new String[0]));
+        }
+
+        @Override
+        public void visitInnerClass(String name, String outerName, String innerName, int access) {
+            // the merged list, including these, is written in one go
+            flushInnerClasses();
+        }
+
+        @Override
+        public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+            flushInnerClasses();
+            return super.visitRecordComponent(name, descriptor, signature);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            flushInnerClasses();
+
+            String key = name + ";;" + descriptor;
+            fieldPos = flushFields(fields.positions.getOrDefault(key, fieldPos));
+
+            FieldVisitor fv = super.visitField(access, name, descriptor, signature, value);
+            String side = getSideToAnnotate(fields, key);
+
+            if (side != null && fv != null) {
+                return new SidedFieldVisitor(api, fv, side);
+            }
+
+            return fv;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            flushInnerClasses();
+            fieldPos = flushFields(fields.order.size());
+
+            String key = name + descriptor;
+            methodPos = flushMethods(methods.positions.getOrDefault(key, methodPos));
+
+            MethodVisitor mv = super.visitMethod(access, name, descriptor, signature, exceptions);
+            String side = getSideToAnnotate(methods, key);
+
+            if (side != null && mv != null) {
+                // wrapping the writer's visitor also stops the method from being copied without the annotation
+                return new SidedMethodVisitor(api, mv, side);
+            }
+
+            return mv;
+        }
+
+        @Override
+        protected void addAnnotations() {
+            if (sidedInterfaces.values().stream().anyMatch(l -> !l.isEmpty())) {
+                AnnotationVisitor envInterfaces = cv.visitAnnotation(ITF_LIST_DESCRIPTOR, false);
+                AnnotationVisitor eiArray = envInterfaces.visitArray("value");
+
+                for (Map.Entry<String, List<String>> entry : sidedInterfaces.entrySet()) {
+                    if (!entry.getValue().isEmpty()) {
+                        visitItfAnnotation(eiArray, entry.getKey(), entry.getValue());
+                    }
+                }
+
+                eiArray.visitEnd();
+                envInterfaces.visitEnd();
+            }
+        }
+
+        @Override
+        public void visitEnd() {
+            flushInnerClasses();
+            fieldPos = flushFields(fields.order.size());
+            methodPos = flushMethods(methods.order.size());
+            super.visitEnd();
+        }
+
+        private void flushInnerClasses() {
+            if (innerClassesDone) {
+                return;
+            }
+
+            annotate();
+
+            innerClassesDone = true;
+            innerClasses.build();
+
+            for (String key : innerClasses.order) {
+                innerClasses.entries.get(key).accept(cv);
+            }
+        }
+
+        /**
+         * Writes the fields only present on other sides which come before the given merged position.
+         */
+        private int flushFields(int end) {
+            for (int i = fieldPos; i < end; i++) {
+                FieldNode node = fields.entries.get(fields.order.get(i));
+
+                if (node != null) {
+                    String side = getSideToAnnotate(fields, fields.order.get(i));
+                    if (side != null) {
+                        visitSideAnnotation(node.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+                    }
+
+                    node.accept(cv);
                 }
             }
+
+            return Math.max(fieldPos, end + 1);
+        }
+
+        private int flushMethods(int end) {
+            for (int i = methodPos; i < end; i++) {
+                MethodNode node = methods.entries.get(methods.order.get(i));
+
+                if (node != null) {
+                    String side = getSideToAnnotate(methods, methods.order.get(i));
+                    if (side != null) {
+                        visitSideAnnotation(node.visitAnnotation(SIDED_DESCRIPTOR, false), side);
+                    }
+
+                    node.accept(cv);
+                }
+            }
+
+            return Math.max(methodPos, end + 1);
         }
     }
 
     private static void visitSideAnnotation(AnnotationVisitor av, String side) {
-        av.visitEnum("value", SIDE_DESCRIPTOR, side.toUpperCase(Locale.ROOT));
+        av.visitEnum("value", SIDE_DESCRIPTOR, side);
         av.visitEnd();
     }
 
     private static void visitItfAnnotation(AnnotationVisitor av, String side, List<String> itfDescriptors) {
         for (String itf : itfDescriptors) {
             AnnotationVisitor avItf = av.visitAnnotation(null, ITF_DESCRIPTOR);
-            avItf.visitEnum("value", SIDE_DESCRIPTOR, side.toUpperCase(Locale.ROOT));
+            avItf.visitEnum("value", SIDE_DESCRIPTOR, side);
             avItf.visit("itf", Type.getType("L" + itf + ";"));
             avItf.visitEnd();
         }
     }
 
-    public static class SidedClassVisitor extends ClassVisitor {
+    /**
+     * Checks that every side is an {@code EnvType} constant, ignoring case.
+     *
+     * @throws IllegalArgumentException if a side is neither {@code CLIENT} nor {@code SERVER}
+     */
+    public static void checkSides(Collection<String> sides) {
+        for (String side : sides) {
+            if (!ENV_TYPES.contains(side.toUpperCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("Unknown side " + side + ", Loader only knows " + String.join(" and ", ENV_TYPES) + "!");
+            }
+        }
+    }
+
+    /**
+     * Returns the side something present on some but not all sides is present on.
+     *
+     * @throws IllegalArgumentException if it is present on more than one side, which Loader's annotations cannot express
+     */
+    private static String getOnlySide(Collection<String> sides, String what) {
+        if (sides.size() != 1) {
+            throw new IllegalArgumentException(what + " is only present on sides " + sides + ", which cannot be annotated!");
+        }
+
+        return sides.iterator().next().toUpperCase(Locale.ROOT);
+    }
+
+    public static class SidedClassVisitor extends ClassAnnotator {
         private final String side;
 
         public SidedClassVisitor(int api, ClassVisitor cv, String side) {
             super(api, cv);
-            this.side = side;
+            checkSides(Collections.singletonList(side));
+            this.side = side.toUpperCase(Locale.ROOT);
+        }
+
+        /**
+         * @param sides the sides the class is present on, which have to be a single one
+         */
+        public SidedClassVisitor(int api, ClassVisitor cv, Collection<String> sides) {
+            super(api, cv);
+            checkSides(sides);
+            this.side = getOnlySide(sides, "A class");
         }
 
         @Override
-        public void visitEnd() {
-            AnnotationVisitor av = cv.visitAnnotation(SIDED_DESCRIPTOR, true);
-            visitSideAnnotation(av, side);
-            super.visitEnd();
+        protected void addAnnotations() {
+            visitSideAnnotation(cv.visitAnnotation(SIDED_DESCRIPTOR, true), side);
         }
     }
 
@@ -108,118 +547,73 @@ public class ClassMerger {
     }
 
     public byte[] merge(byte[] classClient, byte[] classServer) {
-        ClassReader readerC = new ClassReader(classClient);
-        ClassReader readerS = new ClassReader(classServer);
-        ClassWriter writer = new ClassWriter(0);
-
-        ClassNode nodeC = new ClassNode(StitchUtil.ASM_VERSION);
-        readerC.accept(nodeC, 0);
-
-        ClassNode nodeS = new ClassNode(StitchUtil.ASM_VERSION);
-        readerS.accept(nodeS, 0);
-
-        ClassNode nodeOut = new ClassNode(StitchUtil.ASM_VERSION);
-        nodeOut.version = nodeC.version;
-        nodeOut.access = nodeC.access;
-        nodeOut.name = nodeC.name;
-        nodeOut.signature = nodeC.signature;
-        nodeOut.superName = nodeC.superName;
-        nodeOut.sourceFile = nodeC.sourceFile;
-        nodeOut.sourceDebug = nodeC.sourceDebug;
-        nodeOut.outerClass = nodeC.outerClass;
-        nodeOut.outerMethod = nodeC.outerMethod;
-        nodeOut.outerMethodDesc = nodeC.outerMethodDesc;
-        nodeOut.module = nodeC.module;
-        nodeOut.nestHostClass = nodeC.nestHostClass;
-        nodeOut.nestMembers = nodeC.nestMembers;
-        nodeOut.attrs = nodeC.attrs;
-
-        if (nodeC.invisibleAnnotations != null) {
-            nodeOut.invisibleAnnotations = new ArrayList<>();
-            nodeOut.invisibleAnnotations.addAll(nodeC.invisibleAnnotations);
-        }
-        if (nodeC.invisibleTypeAnnotations != null) {
-            nodeOut.invisibleTypeAnnotations = new ArrayList<>();
-            nodeOut.invisibleTypeAnnotations.addAll(nodeC.invisibleTypeAnnotations);
-        }
-        if (nodeC.visibleAnnotations != null) {
-            nodeOut.visibleAnnotations = new ArrayList<>();
-            nodeOut.visibleAnnotations.addAll(nodeC.visibleAnnotations);
-        }
-        if (nodeC.visibleTypeAnnotations != null) {
-            nodeOut.visibleTypeAnnotations = new ArrayList<>();
-            nodeOut.visibleTypeAnnotations.addAll(nodeC.visibleTypeAnnotations);
-        }
-
-        List<String> itfs = StitchUtil.mergePreserveOrder(nodeC.interfaces, nodeS.interfaces);
-        nodeOut.interfaces = new ArrayList<>();
-
-        List<String> clientItfs = new ArrayList<>();
-        List<String> serverItfs = new ArrayList<>();
+        return merge(Arrays.asList("CLIENT", "SERVER"), Arrays.asList(classClient, classServer));
+    }
 
-        for (String s : itfs) {
-            boolean nc = nodeC.interfaces.contains(s);
-            boolean ns = nodeS.interfaces.contains(s);
-            nodeOut.interfaces.add(s);
-            if (nc && !ns) {
-                clientItfs.add(s);
-            } else if (ns && !nc) {
-                serverItfs.add(s);
+    /**
+     * Merges the given versions of a class.
+     *
+     * @param sides the side of each class version, {@code CLIENT} or {@code SERVER}, may contain duplicates
+     * @param classes the class versions, null for sides which do not contain the class
+     * @throws IllegalArgumentException if a side is unknown, or a member or interface is present on some but not
+     * all sides and more than one of them
+     */
+    public byte[] merge(List<String> sides, List<byte[]> classes) {
+        checkSides(sides);
+
+        List<String> presentSides = new ArrayList<>(sides.size());
+        List<ClassReader> readers = new ArrayList<>(sides.size());
+
+        for (int i = 0; i < classes.size(); i++) {
+            if (classes.get(i) != null) {
+                readers.add(new ClassReader(classes.get(i)));
+                presentSides.add(sides.get(i).toUpperCase(Locale.ROOT));
             }
         }
 
-        if (!clientItfs.isEmpty() || !serverItfs.isEmpty()) {
-            AnnotationVisitor envInterfaces = nodeOut.visitAnnotation(ITF_LIST_DESCRIPTOR, false);
-            AnnotationVisitor eiArray = envInterfaces.visitArray("value");
-
-            if (!clientItfs.isEmpty()) {
-                visitItfAnnotation(eiArray, "CLIENT", clientItfs);
-            }
-            if (!serverItfs.isEmpty()) {
-                visitItfAnnotation(eiArray, "SERVER", serverItfs);
-            }
-            eiArray.visitEnd();
-            envInterfaces.visitEnd();
-        }
+        MemberTable<InnerClassNode> innerClasses = new MemberTable<>();
+        MemberTable<FieldNode> fields = new MemberTable<>();
+        MemberTable<MethodNode> methods = new MemberTable<>();
+        List<List<String>> itfLists = new ArrayList<>(readers.size());
+        List<Set<String>> itfSets = new ArrayList<>(readers.size());
 
-        new Merger<InnerClassNode>(nodeC.innerClasses, nodeS.innerClasses) {
-            @Override
-            public String getName(InnerClassNode entry) {
-                return entry.name;
-            }
+        for (int i = 0; i < readers.size(); i++) {
+            boolean primary = i == 0;
+            MemberCollector collector = new MemberCollector(presentSides.get(i), primary, innerClasses, fields, methods);
+            // the primary version is read again later, its code is not needed yet
+            readers.get(i).accept(collector, primary ? ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES : 0);
 
-            @Override
-            public void applySide(InnerClassNode entry, String side) {
-            }
-        }.merge(nodeOut.innerClasses);
+            itfLists.add(collector.interfaces);
+            itfSets.add(new HashSet<>(collector.interfaces));
+        }
 
-        new Merger<FieldNode>(nodeC.fields, nodeS.fields) {
-            @Override
-            public String getName(FieldNode entry) {
-                return entry.name + ";;" + entry.desc;
-            }
+        fields.build();
+        methods.build();
 
-            @Override
-            public void applySide(FieldNode entry, String side) {
-                AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
-                visitSideAnnotation(av, side);
-            }
-        }.merge(nodeOut.fields);
+        List<String> itfs = StitchUtil.mergePreserveOrder(itfLists);
+        Set<String> allSides = new LinkedHashSet<>(presentSides);
+        Map<String, List<String>> sidedItfs = new LinkedHashMap<>();
+        for (String side : allSides) {
+            sidedItfs.put(side, new ArrayList<>());
+        }
 
-        new Merger<MethodNode>(nodeC.methods, nodeS.methods) {
-            @Override
-            public String getName(MethodNode entry) {
-                return entry.name + entry.desc;
+        for (String s : itfs) {
+            Set<String> itfSides = new LinkedHashSet<>();
+            for (int i = 0; i < readers.size(); i++) {
+                if (itfSets.get(i).contains(s)) {
+                    itfSides.add(presentSides.get(i));
+                }
             }
 
-            @Override
-            public void applySide(MethodNode entry, String side) {
-                AnnotationVisitor av = entry.visitAnnotation(SIDED_DESCRIPTOR, false);
-                visitSideAnnotation(av, side);
+            // Loader strips an interface on every side but the one its entry names, so each entry needs its own side
+            if (!itfSides.equals(allSides)) {
+                sidedItfs.get(getOnlySide(itfSides, readers.get(0).getClassName() + " interface " + s)).add(s);
             }
-        }.merge(nodeOut.methods);
+        }
 
-        nodeOut.accept(writer);
+        ClassReader primary = readers.get(0);
+        ClassWriter writer = new ClassWriter(primary, 0);
+        primary.accept(new MergingClassVisitor(writer, allSides, itfs, sidedItfs, innerClasses, fields, methods), 0);
         return writer.toByteArray();
     }
 }
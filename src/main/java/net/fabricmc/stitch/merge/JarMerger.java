@@ -19,55 +19,108 @@ package net.fabricmc.stitch.merge;
 import net.fabricmc.stitch.util.SnowmanClassVisitor;
 import net.fabricmc.stitch.util.StitchUtil;
 import net.fabricmc.stitch.util.SyntheticParameterClassVisitor;
+import net.fabricmc.stitch.util.ZipReader;
+import net.fabricmc.stitch.util.ZipWriter;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
 
 import java.io.*;
 import java.nio.charset.Charset;
-import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributeView;
-import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
 
+/**
+ * Merges the jars of several environments into one jar.
+ * <p>
+ * Every input belongs to a side, the {@code EnvType} it runs in ({@code CLIENT} or {@code SERVER}); several
+ * inputs may share a side.
+ * The first input is the primary one: it decides which library classes end up in the output, and its
+ * version of a class wins wherever the versions differ in something other than their members.
+ */
 public class JarMerger implements AutoCloseable {
     public class Entry {
-        public final Path path;
-        public final BasicFileAttributes metadata;
+        public final String name;
+        public final ZipReader.Entry source;
+        /** The uncompressed entry data, or null to copy the source entry unchanged. */
         public final byte[] data;
+        private final ZipWriter.Deflated deflated;
+
+        public Entry(String name, ZipReader.Entry source, byte[] data) {
+            this(name, source, data, null);
+        }
 
-        public Entry(Path path, BasicFileAttributes metadata, byte[] data) {
-            this.path = path;
-            this.metadata = metadata;
+        private Entry(String name, ZipReader.Entry source, byte[] data, ZipWriter.Deflated deflated) {
+            this.name = name;
+            this.source = source;
             this.data = data;
+            this.deflated = deflated;
         }
     }
 
     private static final ClassMerger CLASS_MERGER = new ClassMerger();
-    private final StitchUtil.FileSystemDelegate inputClientFs, inputServerFs, outputFs;
-    private final Path inputClient, inputServer;
-    private final Map<String, Entry> entriesClient, entriesServer;
+    private final List<String> sides;
+    private final Set<String> allSides;
+    private final List<ZipReader> inputs;
+    private final ZipWriter output;
+    private final List<Map<String, Entry>> entries;
     private final Set<String> entriesAll;
     private boolean removeSnowmen = false;
     private boolean offsetSyntheticsParams = false;
+    private int readThreads = 2;
+    private int mergeThreads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 256;
+    private MergePipeline pipeline;
+    private MergeCache cache;
 
     public JarMerger(File inputClient, File inputServer, File output) throws IOException {
+        this(Arrays.asList("CLIENT", "SERVER"), Arrays.asList(inputClient, inputServer), output);
+    }
+
+    /**
+     * @param sides the side of each input jar, {@code CLIENT} or {@code SERVER}, may contain duplicates
+     * @param inputs the input jars, the first one being the primary input
+     */
+    public JarMerger(List<String> sides, List<File> inputs, File output) throws IOException {
+        if (sides.size() != inputs.size()) {
+            throw new IllegalArgumentException("Every input needs exactly one side!");
+        }
+
+        ClassMerger.checkSides(sides);
+
+        if (inputs.isEmpty()) {
+            throw new IllegalArgumentException("No inputs given!");
+        }
+
         if (output.exists()) {
             if (!output.delete()) {
                 throw new IOException("Could not delete " + output.getName());
             }
         }
 
-        this.inputClient = (inputClientFs = StitchUtil.getJarFileSystem(inputClient, false)).get().getPath("/");
-        this.inputServer = (inputServerFs = StitchUtil.getJarFileSystem(inputServer, false)).get().getPath("/");
-        this.outputFs = StitchUtil.getJarFileSystem(output, true);
+        this.sides = new ArrayList<>(sides.size());
+        for (String side : sides) {
+            this.sides.add(side.toUpperCase(Locale.ROOT));
+        }
+
+        this.allSides = new LinkedHashSet<>(this.sides);
+        this.inputs = new ArrayList<>(inputs.size());
+        this.entries = new ArrayList<>(inputs.size());
+
+        try {
+            for (File input : inputs) {
+                this.inputs.add(new ZipReader(input.toPath()));
+                this.entries.add(new HashMap<>());
+            }
+
+            this.output = new ZipWriter(output.toPath());
+        } catch (IOException e) {
+            for (ZipReader reader : this.inputs) {
+                reader.close();
+            }
+
+            throw e;
+        }
 
-        this.entriesClient = new HashMap<>();
-        this.entriesServer = new HashMap<>();
         this.entriesAll = new TreeSet<>();
     }
 
@@ -79,148 +132,264 @@ public class JarMerger implements AutoCloseable {
         offsetSyntheticsParams = true;
     }
 
+    public void setReadThreads(int readThreads) {
+        this.readThreads = readThreads;
+    }
+
+    public void setMergeThreads(int mergeThreads) {
+        this.mergeThreads = mergeThreads;
+    }
+
+    /**
+     * Sets how many entries may wait between two stages before the earlier stage blocks.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Reuses merged classes from the given cache, and stores newly merged classes in it.
+     */
+    public void setCache(MergeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Describes the enabled options which affect the merged output, for use in cache keys.
+     */
+    public String getFlags() {
+        return getFlags(sides, removeSnowmen, offsetSyntheticsParams);
+    }
+
+    /**
+     * Same as {@link #getFlags()}, for callers which need the cache key before opening a merger.
+     */
+    public static String getFlags(List<String> sides, boolean removeSnowman, boolean syntheticParams) {
+        List<String> upperSides = new ArrayList<>(sides.size());
+        for (String side : sides) {
+            upperSides.add(side.toUpperCase(Locale.ROOT));
+        }
+
+        return "sides=" + String.join("+", upperSides) + ",removeSnowman=" + removeSnowman + ",syntheticParams=" + syntheticParams;
+    }
+
+    /**
+     * Returns the per-stage counters of the last {@link #merge()} run, or an empty list if it has not run yet.
+     */
+    public List<MergePipeline.StageStats> getStageStats() {
+        return pipeline != null ? pipeline.getStats() : Collections.emptyList();
+    }
+
     @Override
     public void close() throws IOException {
-        inputClientFs.close();
-        inputServerFs.close();
-        outputFs.close();
+        // a pipeline thread which did not stop may still be reading from the inputs
+        boolean unmap = pipeline == null || pipeline.isTerminated();
+
+        for (ZipReader reader : inputs) {
+            reader.close(unmap);
+        }
+
+        output.close();
     }
 
-    private void readToMap(Map<String, Entry> map, Path input, boolean isServer) {
-        try {
-            Files.walkFileTree(input, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult visitFile(Path path, BasicFileAttributes attr) throws IOException {
-                    if (attr.isDirectory()) {
-                        return FileVisitResult.CONTINUE;
-                    }
+    private void readToMap(Map<String, Entry> map, ZipReader input) {
+        for (ZipReader.Entry entry : input.getEntries()) {
+            String name = entry.getName();
 
-                    if (!path.getFileName().toString().endsWith(".class")) {
-                        if (path.toString().equals("/META-INF/MANIFEST.MF")) {
-                            map.put("META-INF/MANIFEST.MF", new Entry(path, attr,
-                                    "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(Charset.forName("UTF-8"))));
-                        } else {
-                            if (path.toString().startsWith("/META-INF/")) {
-                                if (path.toString().endsWith(".SF") || path.toString().endsWith(".RSA")) {
-                                    return FileVisitResult.CONTINUE;
-                                }
-                            }
-
-                            map.put(path.toString().substring(1), new Entry(path, attr, null));
-                        }
-                        
-                        return FileVisitResult.CONTINUE;
-                    }
+            if (entry.isDirectory()) {
+                continue;
+            }
 
-                    byte[] output = Files.readAllBytes(path);
-                    map.put(path.toString().substring(1), new Entry(path, attr, output));
-                    return FileVisitResult.CONTINUE;
+            if (name.equals("META-INF/MANIFEST.MF")) {
+                map.put(name, new Entry(name, entry,
+                        "Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n".getBytes(Charset.forName("UTF-8"))));
+            } else {
+                if (name.startsWith("META-INF/")) {
+                    if (name.endsWith(".SF") || name.endsWith(".RSA")) {
+                        continue;
+                    }
                 }
-            });
-        } catch (IOException e) {
-            e.printStackTrace();
+
+                // class bytes are only loaded once the entry reaches the read stage, other entries are copied as-is
+                map.put(name, new Entry(name, entry, null));
+            }
         }
     }
 
-    private void add(Entry entry) throws IOException {
-        Path outPath = outputFs.get().getPath(entry.path.toString());
-        if (outPath.getParent() != null) {
-            Files.createDirectories(outPath.getParent());
+    private Entry load(Entry entry) throws IOException {
+        if (entry == null || entry.data != null || !entry.name.endsWith(".class")) {
+            return entry;
         }
 
-        if (entry.data != null) {
-            Files.write(outPath, entry.data, StandardOpenOption.CREATE_NEW);
-        } else {
-            Files.copy(entry.path, outPath);
+        return new Entry(entry.name, entry.source, entry.source.getData());
+    }
+
+    /**
+     * Prepares a merge result for the write stage: unchanged classes are copied without recompressing them, new
+     * data is deflated here so that it happens on the merge threads.
+     */
+    private Entry compress(Entry[] entries, Entry result) {
+        if (result == null || result.data == null) {
+            return result;
         }
 
-        Files.getFileAttributeView(outPath, BasicFileAttributeView.class)
-                .setTimes(
-                        entry.metadata.creationTime(),
-                        entry.metadata.lastAccessTime(),
-                        entry.metadata.lastModifiedTime()
-                );
+        if (result.name.endsWith(".class")) {
+            for (Entry entry : entries) {
+                if (entry == result) {
+                    return new Entry(result.name, result.source, null);
+                }
+            }
+        }
+
+        return new Entry(result.name, result.source, result.data, ZipWriter.deflate(result.data));
+    }
+
+    private void add(Entry entry) throws IOException {
+        if (entry.data == null) {
+            output.copy(entry.source);
+        } else {
+            output.write(entry.name, entry.source.getDosTime(), entry.source.getCentralExtra(),
+                    entry.deflated != null ? entry.deflated : ZipWriter.deflate(entry.data));
+        }
     }
 
     public void merge() throws IOException {
-        ExecutorService service = Executors.newFixedThreadPool(2);
-        service.submit(() -> readToMap(entriesClient, inputClient, false));
-        service.submit(() -> readToMap(entriesServer, inputServer, true));
-        service.shutdown();
-        try {
-            service.awaitTermination(1, TimeUnit.HOURS);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-
-        entriesAll.addAll(entriesClient.keySet());
-        entriesAll.addAll(entriesServer.keySet());
-
-        List<Entry> entries = entriesAll.parallelStream().map((entry) -> {
-            boolean isClass = entry.endsWith(".class");
-            boolean isMinecraft = entriesClient.containsKey(entry) || entry.startsWith("net/minecraft") || !entry.contains("/");
-            Entry result;
-            String side = null;
-
-            Entry entry1 = entriesClient.get(entry);
-            Entry entry2 = entriesServer.get(entry);
-
-            if (entry1 != null && entry2 != null) {
-                if (Arrays.equals(entry1.data, entry2.data)) {
-                    result = entry1;
-                } else {
-                    if (isClass) {
-                        result = new Entry(entry1.path, entry1.metadata, CLASS_MERGER.merge(entry1.data, entry2.data));
-                    } else {
-                        // FIXME: More heuristics?
-                        result = entry1;
-                    }
-                }
-            } else if ((result = entry1) != null) {
-                side = "CLIENT";
-            } else if ((result = entry2) != null) {
-                side = "SERVER";
-            }
+        for (int i = 0; i < inputs.size(); i++) {
+            readToMap(entries.get(i), inputs.get(i));
+            entriesAll.addAll(entries.get(i).keySet());
+        }
 
-            if (isClass && !isMinecraft && "SERVER".equals(side)) {
+        pipeline = new MergePipeline(readThreads, mergeThreads, queueCapacity);
+        pipeline.run(new ArrayList<>(entriesAll), (entry) -> {
+            if (entry.endsWith(".class") && !isMinecraft(entry)) {
                 // Server bundles libraries, client doesn't - skip them
                 return null;
             }
 
-            if (result != null) {
-                if (isMinecraft && isClass) {
-                    byte[] data = result.data;
-                    ClassReader reader = new ClassReader(data);
-                    ClassWriter writer = new ClassWriter(0);
-                    ClassVisitor visitor = writer;
+            Entry[] result = new Entry[entries.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = load(entries.get(i).get(entry));
+            }
 
-                    if (side != null) {
-                        visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, side);
-                    }
+            return result;
+        }, (entries) -> compress(entries, mergeEntry(entries)), this::add);
+    }
 
-                    if (removeSnowmen) {
-                        visitor = new SnowmanClassVisitor(StitchUtil.ASM_VERSION, visitor);
-                    }
+    private boolean isMinecraft(String entry) {
+        return entries.get(0).containsKey(entry) || entry.startsWith("net/minecraft") || !entry.contains("/");
+    }
 
-                    if (offsetSyntheticsParams) {
-                        visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
-                    }
+    private Entry mergeEntry(Entry[] entries) throws IOException {
+        Entry first = null;
+        boolean missing = false;
+        for (Entry e : entries) {
+            if (e == null) {
+                missing = true;
+            } else if (first == null) {
+                first = e;
+            }
+        }
 
-                    if (visitor != writer) {
-                        reader.accept(visitor, 0);
-                        data = writer.toByteArray();
-                        result = new Entry(result.path, result.metadata, data);
-                    }
+        String entry = first.name;
+
+        if (cache == null || !entry.endsWith(".class") || !isMinecraft(entry)) {
+            return mergeEntry(entry, entries);
+        }
+
+        if (!missing && !removeSnowmen && !offsetSyntheticsParams && allEqual(entries)) {
+            // nothing to do, not worth a cache lookup
+            return first;
+        }
+
+        byte[][] data = new byte[entries.length][];
+        for (int i = 0; i < entries.length; i++) {
+            data[i] = entries[i] != null ? entries[i].data : null;
+        }
+
+        String key = cache.getClassKey(getFlags(), data);
+        byte[] cached = cache.getClass(key);
+        if (cached != null) {
+            return new Entry(first.name, first.source, cached);
+        }
+
+        Entry result = mergeEntry(entry, entries);
+        cache.putClass(key, result.data);
+        return result;
+    }
+
+    private static boolean allEqual(Entry[] entries) {
+        byte[] data = null;
+        boolean found = false;
+
+        for (Entry e : entries) {
+            if (e != null) {
+                if (!found) {
+                    data = e.data;
+                    found = true;
+                } else if (!Arrays.equals(data, e.data)) {
+                    return false;
                 }
+            }
+        }
 
-                return result;
-            } else {
-                return null;
+        return true;
+    }
+
+    private Entry mergeEntry(String entry, Entry[] entries) {
+        boolean isClass = entry.endsWith(".class");
+        boolean isMinecraft = isMinecraft(entry);
+        Entry result = null;
+        Set<String> presentSides = new LinkedHashSet<>();
+
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i] != null) {
+                if (result == null) {
+                    result = entries[i];
+                }
+
+                presentSides.add(sides.get(i));
             }
-        }).filter(Objects::nonNull).collect(Collectors.toList());
+        }
 
-        for (Entry e : entries) {
-            add(e);
+        if (result == null) {
+            return null;
+        }
+
+        if (isClass && !allEqual(entries)) {
+            List<byte[]> data = new ArrayList<>(entries.length);
+            for (Entry e : entries) {
+                data.add(e != null ? e.data : null);
+            }
+
+            result = new Entry(result.name, result.source, CLASS_MERGER.merge(sides, data));
+        }
+        // FIXME: More heuristics for differing resources?
+
+        if (isMinecraft && isClass) {
+            byte[] data = result.data;
+            ClassReader reader = new ClassReader(data);
+            ClassWriter writer = new ClassWriter(0);
+            ClassVisitor visitor = writer;
+
+            if (!presentSides.equals(allSides)) {
+                visitor = new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, visitor, presentSides);
+            }
+
+            if (removeSnowmen) {
+                visitor = new SnowmanClassVisitor(StitchUtil.ASM_VERSION, visitor);
+            }
+
+            if (offsetSyntheticsParams) {
+                visitor = new SyntheticParameterClassVisitor(StitchUtil.ASM_VERSION, visitor);
+            }
+
+            if (visitor != writer) {
+                reader.accept(visitor, 0);
+                data = writer.toByteArray();
+                result = new Entry(result.name, result.source, data);
+            }
         }
+
+        return result;
     }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A local, content-addressed store of merge results.
+ * <p>
+ * Whole merged jars are keyed by the hashes of the input jars, and single merged classes are keyed by the
+ * hashes of their input class bytes. Both keys include the merge flags and the stitch version, so changing
+ * either never returns a stale result. Development builds have no version, so the jar or class files stitch was
+ * loaded from are hashed in its place. Entries are written to a temporary file and then moved into place,
+ * so concurrent merges can share one cache directory.
+ */
+public class MergeCache {
+    private static final String FORMAT = "stitch-merge-cache-1";
+
+    private final Path root;
+    private final String version;
+    private final AtomicLong classHits = new AtomicLong();
+    private final AtomicLong classMisses = new AtomicLong();
+
+    public MergeCache(Path root) {
+        this.root = root;
+
+        String version = MergeCache.class.getPackage().getImplementationVersion();
+        this.version = version != null ? version : DevVersion.VERSION;
+    }
+
+    /**
+     * Hashes a jar, or every class file below a directory, to stand in for the version of a development build.
+     */
+    static String hashCodeSource(Path codeSource) throws IOException {
+        Hasher hasher = Hashing.sha256().newHasher();
+
+        if (Files.isDirectory(codeSource)) {
+            List<Path> classes;
+
+            try (Stream<Path> files = Files.walk(codeSource)) {
+                classes = files.filter(file -> file.toString().endsWith(".class")).sorted().collect(Collectors.toList());
+            }
+
+            for (Path file : classes) {
+                hasher.putString(codeSource.relativize(file).toString(), StandardCharsets.UTF_8).putByte((byte) 0);
+                byte[] data = Files.readAllBytes(file);
+                hasher.putInt(data.length).putBytes(data);
+            }
+        } else {
+            hasher.putBytes(com.google.common.io.Files.asByteSource(codeSource.toFile()).hash(Hashing.sha256()).asBytes());
+        }
+
+        return "dev-" + hasher.hash();
+    }
+
+    public String getJarKey(String flags, File... inputs) throws IOException {
+        Hasher hasher = newHasher(flags);
+
+        for (File input : inputs) {
+            hasher.putBytes(com.google.common.io.Files.asByteSource(input).hash(Hashing.sha256()).asBytes());
+        }
+
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @param inputs the class bytes of every side, null for sides not containing the class
+     */
+    public String getClassKey(String flags, byte[]... inputs) {
+        Hasher hasher = newHasher(flags);
+
+        for (byte[] input : inputs) {
+            if (input == null) {
+                hasher.putInt(-1);
+            } else {
+                hasher.putInt(input.length).putBytes(input);
+            }
+        }
+
+        return hasher.hash().toString();
+    }
+
+    private Hasher newHasher(String flags) {
+        return Hashing.sha256().newHasher()
+                .putString(FORMAT, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(version, StandardCharsets.UTF_8).putByte((byte) 0)
+                .putString(flags, StandardCharsets.UTF_8).putByte((byte) 0);
+    }
+
+    /**
+     * Returns the cached merged jar for the key, or null if there is none.
+     */
+    public Path getJar(String key) {
+        Path path = getJarPath(key);
+        return Files.isRegularFile(path) ? path : null;
+    }
+
+    public void putJar(String key, File mergedJar) throws IOException {
+        Path path = getJarPath(key);
+        Files.createDirectories(path.getParent());
+
+        Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+        Files.copy(mergedJar.toPath(), tmp, StandardCopyOption.REPLACE_EXISTING);
+        commit(tmp, path);
+    }
+
+    /**
+     * Returns the cached merged class for the key, or null if there is none.
+     */
+    public byte[] getClass(String key) throws IOException {
+        try {
+            byte[] data = Files.readAllBytes(getClassPath(key));
+            classHits.incrementAndGet();
+            return data;
+        } catch (NoSuchFileException e) {
+            classMisses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void putClass(String key, byte[] data) throws IOException {
+        Path path = getClassPath(key);
+        Files.createDirectories(path.getParent());
+
+        Path tmp = Files.createTempFile(path.getParent(), key, ".tmp");
+        Files.write(tmp, data);
+        commit(tmp, path);
+    }
+
+    public long getClassHits() {
+        return classHits.get();
+    }
+
+    public long getClassMisses() {
+        return classMisses.get();
+    }
+
+    private Path getJarPath(String key) {
+        return root.resolve("jars").resolve(key + ".jar");
+    }
+
+    private Path getClassPath(String key) {
+        return root.resolve("classes").resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    /**
+     * The version of a development build, hashed once as the code can't change while it is running.
+     */
+    private static final class DevVersion {
+        private static final String VERSION = computeVersion();
+
+        private static String computeVersion() {
+            CodeSource source = MergeCache.class.getProtectionDomain().getCodeSource();
+
+            if (source != null && source.getLocation() != null) {
+                try {
+                    return hashCodeSource(Paths.get(source.getLocation().toURI()));
+                } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+                    // fall through
+                }
+            }
+
+            // nothing to tell this build from others, so results are only shared within this run
+            return "dev-" + UUID.randomUUID();
+        }
+    }
+
+    private static void commit(Path tmp, Path target) throws IOException {
+        try {
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // someone else stored the same content first
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A read -> merge -> write pipeline running on its own threads.
+ * <p>
+ * The read and merge stages run on dedicated pools of configurable size and hand their results over through
+ * bounded queues, so a slow stage holds back the ones before it instead of letting entries pile up in memory.
+ * The write stage runs on the calling thread and always consumes the entries in input order, which keeps the
+ * output deterministic regardless of the thread counts.
+ */
+public class MergePipeline {
+    public interface Task<I, O> {
+        O apply(I input) throws IOException;
+    }
+
+    public interface Sink<I> {
+        void accept(I input) throws IOException;
+    }
+
+    public static class StageStats {
+        private final String name;
+        private final int threads;
+        private final LongAdder items = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+        private long wallNanos;
+
+        private StageStats(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getItems() {
+            return items.sum();
+        }
+
+        public long getBusyNanos() {
+            return busyNanos.sum();
+        }
+
+        public double getItemsPerSecond() {
+            return wallNanos > 0 ? getItems() * 1e9 / wallNanos : 0;
+        }
+
+        /**
+         * The share of the available thread time this stage spent working, between 0 and 1.
+         */
+        public double getUtilization() {
+            return wallNanos > 0 ? (double) getBusyNanos() / ((double) wallNanos * threads) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d entries, %d thread(s), %.0f entries/s, %.0f%% busy",
+                    name, getItems(), threads, getItemsPerSecond(), getUtilization() * 100);
+        }
+    }
+
+    private static final class Slot {
+        private final int index;
+        private final Object value;
+
+        private Slot(int index, Object value) {
+            this.index = index;
+            this.value = value;
+        }
+    }
+
+    private final int readThreads, mergeThreads, queueCapacity;
+    private final StageStats readStats, mergeStats, writeStats;
+    private volatile boolean terminated = true;
+
+    public MergePipeline(int readThreads, int mergeThreads, int queueCapacity) {
+        if (readThreads < 1 || mergeThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Thread counts and queue capacity must be positive!");
+        }
+
+        this.readThreads = readThreads;
+        this.mergeThreads = mergeThreads;
+        this.queueCapacity = queueCapacity;
+        this.readStats = new StageStats("read", readThreads);
+        this.mergeStats = new StageStats("merge", mergeThreads);
+        this.writeStats = new StageStats("write", 1);
+    }
+
+    public List<StageStats> getStats() {
+        List<StageStats> stats = new ArrayList<>(3);
+        stats.add(readStats);
+        stats.add(mergeStats);
+        stats.add(writeStats);
+        return stats;
+    }
+
+    /**
+     * Returns whether every thread of the last {@link #run} has stopped. They are given a minute to stop once the
+     * run ends, so if one is stuck in a stage, the inputs it reads from must be left alone until it stops.
+     */
+    public boolean isTerminated() {
+        return terminated;
+    }
+
+    /**
+     * Runs every input through the three stages. A stage may return null to drop an input, in which case
+     * the following stages do not see it.
+     */
+    @SuppressWarnings("unchecked")
+    public <I, R, M> void run(List<I> inputs, Task<I, R> read, Task<R, M> merge, Sink<M> write) throws IOException {
+        BlockingQueue<Slot> mergeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Slot> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        // Bounds everything between being read and being written, including entries that finished early and
+        // wait in the write stage for their predecessors.
+        Semaphore inFlight = new Semaphore(queueCapacity * 2 + readThreads + mergeThreads);
+        AtomicInteger nextInput = new AtomicInteger();
+        AtomicInteger readersLeft = new AtomicInteger(readThreads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        terminated = false;
+        ExecutorService readService = Executors.newFixedThreadPool(readThreads, threadFactory("read"));
+        ExecutorService mergeService = Executors.newFixedThreadPool(mergeThreads, threadFactory("merge"));
+        long start = System.nanoTime();
+
+        try {
+            for (int i = 0; i < readThreads; i++) {
+                readService.submit(() -> {
+                    try {
+                        while (failure.get() == null) {
+                            inFlight.acquire();
+                            int index = nextInput.getAndIncrement();
+                            if (index >= inputs.size()) {
+                                inFlight.release();
+                                break;
+                            }
+
+                            long t = System.nanoTime();
+                            R value = read.apply(inputs.get(index));
+                            readStats.busyNanos.add(System.nanoTime() - t);
+                            readStats.items.increment();
+                            mergeQueue.put(new Slot(index, value));
+                        }
+                    } catch (InterruptedException e) {
+                        // stopped by run(), which reports whatever made it stop. Still interrupted, so the poison
+                        // pills below are not waited for.
+                        Thread.currentThread().interrupt();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        if (readersLeft.decrementAndGet() == 0) {
+                            // one poison pill per merge thread
+                            for (int j = 0; j < mergeThreads; j++) {
+                                try {
+                                    mergeQueue.put(new Slot(-1, null));
+                                } catch (InterruptedException e) {
+                                    // the pipeline is being torn down
+                                    break;
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+
+            for (int i = 0; i < mergeThreads; i++) {
+                mergeService.submit(() -> {
+                    try {
+                        Slot slot;
+                        while ((slot = mergeQueue.take()).index >= 0) {
+                            Object value = slot.value;
+                            if (value != null && failure.get() == null) {
+                                long t = System.nanoTime();
+                                value = merge.apply((R) value);
+                                mergeStats.busyNanos.add(System.nanoTime() - t);
+                                mergeStats.items.increment();
+                            }
+
+                            writeQueue.put(new Slot(slot.index, value));
+                        }
+                    } catch (InterruptedException e) {
+                        // stopped by run(), possibly while waiting for its poison pill after the last entry
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                });
+            }
+
+            Map<Integer, Object> pending = new HashMap<>();
+            int nextWrite = 0;
+
+            while (nextWrite < inputs.size()) {
+                Slot slot = writeQueue.poll(100, TimeUnit.MILLISECONDS);
+                if (slot == null) {
+                    if (failure.get() != null) {
+                        break;
+                    }
+
+                    continue;
+                }
+
+                pending.put(slot.index, slot.value);
+
+                while (pending.containsKey(nextWrite)) {
+                    Object value = pending.remove(nextWrite++);
+                    if (value != null) {
+                        long t = System.nanoTime();
+                        write.accept((M) value);
+                        writeStats.busyNanos.add(System.nanoTime() - t);
+                        writeStats.items.increment();
+                    }
+
+                    inFlight.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, e);
+        } finally {
+            readService.shutdownNow();
+            mergeService.shutdownNow();
+            // the stages may still be reading the inputs, which the caller is free to close once this returns
+            terminated = MoreExecutors.shutdownAndAwaitTermination(readService, 1, TimeUnit.MINUTES)
+                    & MoreExecutors.shutdownAndAwaitTermination(mergeService, 1, TimeUnit.MINUTES);
+
+            long wall = System.nanoTime() - start;
+            readStats.wallNanos = mergeStats.wallNanos = writeStats.wallNanos = wall;
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        } else if (t != null) {
+            throw new IOException(t);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String stage) {
+        return new ThreadFactoryBuilder().setNameFormat("stitch-merge-" + stage + "-%d").setDaemon(true).build();
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fabricmc.stitch.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens mapping files which may be gzip compressed, like {@link Files} opens plain ones.
+ * <p>
+ * Compressed input is recognized by the gzip magic bytes, whatever the file is called, and decompressed while it
+ * is read. Output is compressed if the file name ends with {@code .gz}, on all cores through
+ * {@link ParallelGzipOutputStream}.
+ */
+public final class CompressedFiles {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private CompressedFiles() {
+    }
+
+    public static boolean isCompressed(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    public static InputStream newInputStream(Path path) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+
+        try {
+            in.mark(2);
+            boolean compressed = in.read() == 0x1f && in.read() == 0x8b;
+            in.reset();
+            return compressed ? new GZIPInputStream(in, BUFFER_SIZE) : in;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    public static OutputStream newOutputStream(Path path) throws IOException {
+        OutputStream out = Files.newOutputStream(path);
+
+        if (path.getFileName().toString().endsWith(".gz")) {
+            return new ParallelGzipOutputStream(out, Runtime.getRuntime().availableProcessors());
+        }
+
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    public static BufferedReader newBufferedReader(Path path, Charset charset) throws IOException {
+        return new BufferedReader(new InputStreamReader(newInputStream(path), charset.newDecoder()));
+    }
+
+    public static BufferedWriter newBufferedWriter(Path path, Charset charset) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(newOutputStream(path), charset.newEncoder()));
+    }
+}
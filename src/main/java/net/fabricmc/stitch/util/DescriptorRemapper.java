@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remaps the class names in descriptors, scanning each descriptor once. The same descriptors come up for many
+ * members, so every remapped descriptor is remembered, which also means that the class names must not change once
+ * a descriptor using them has been remapped. Not thread-safe.
+ */
+public final class DescriptorRemapper {
+    private final Map<String, String> classNames;
+    private final Map<String, String> remapped = new HashMap<>();
+    private final StringBuilder builder = new StringBuilder();
+
+    /**
+     * @param classNames the names to remap to, by the names used in the descriptors. Classes which are not in the
+     *                   map keep their name.
+     */
+    public DescriptorRemapper(Map<String, String> classNames) {
+        this.classNames = classNames;
+    }
+
+    public String remapMethodDescriptor(String descriptor) {
+        String result = remapped.get(descriptor);
+        if (result == null) {
+            result = remap(descriptor, true);
+            remapped.put(descriptor, result);
+        }
+        return result;
+    }
+
+    public String remapFieldDescriptor(String descriptor) {
+        // field descriptors never start with '(', so they can't be mistaken for method descriptors
+        String result = remapped.get(descriptor);
+        if (result == null) {
+            result = remap(descriptor, false);
+            remapped.put(descriptor, result);
+        }
+        return result;
+    }
+
+    private String remap(String descriptor, boolean method) {
+        builder.setLength(0);
+        int pos;
+
+        if (method) {
+            if (descriptor.isEmpty() || descriptor.charAt(0) != '(') {
+                throw unknownFormat(descriptor);
+            }
+
+            builder.append('(');
+            pos = 1;
+            while (pos < descriptor.length() && descriptor.charAt(pos) != ')') {
+                pos = remapType(descriptor, pos);
+            }
+
+            if (pos == descriptor.length()) {
+                throw unknownFormat(descriptor);
+            }
+
+            builder.append(')');
+            pos++;
+
+            if (pos < descriptor.length() && descriptor.charAt(pos) == 'V') {
+                builder.append('V');
+                pos++;
+            } else {
+                pos = remapType(descriptor, pos);
+            }
+        } else {
+            pos = remapType(descriptor, 0);
+        }
+
+        if (pos != descriptor.length()) {
+            throw unknownFormat(descriptor);
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Appends the remapped type starting at start, and returns the index after it.
+     */
+    private int remapType(String descriptor, int start) {
+        int pos = start;
+        while (pos < descriptor.length() && descriptor.charAt(pos) == '[') {
+            pos++;
+        }
+
+        if (pos == descriptor.length()) {
+            throw unknownFormat(descriptor);
+        }
+
+        switch (descriptor.charAt(pos)) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+                builder.append(descriptor, start, pos + 1);
+                return pos + 1;
+            case 'L':
+                int end = descriptor.indexOf(';', pos + 1);
+                if (end < 0) {
+                    throw unknownFormat(descriptor);
+                }
+
+                if (end == pos + 1) {
+                    throw new IllegalArgumentException("Empty class name in descriptor " + descriptor + " at position " + pos);
+                }
+
+                builder.append(descriptor, start, pos + 1);
+                String className = descriptor.substring(pos + 1, end);
+                String remappedName = classNames.get(className);
+                builder.append(remappedName != null ? remappedName : className).append(';');
+                return end + 1;
+            default:
+                throw unknownFormat(descriptor);
+        }
+    }
+
+    private static IllegalArgumentException unknownFormat(String descriptor) {
+        return new IllegalArgumentException("descriptor '" + descriptor + "' is of an unknown format.");
+    }
+}
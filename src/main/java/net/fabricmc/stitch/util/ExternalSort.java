@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts string records in their natural order within a memory budget.
+ * <p>
+ * Records are copied into one shared character buffer and sorted in memory through an index array, so that no
+ * object is kept per record. Whenever the collected records exceed the budget, they are sorted and written to a
+ * temporary file as a run, and the runs are merged when the records are read back, at most {@value #MAX_FAN_IN}
+ * at a time. Records must not contain line breaks. Callers usually put the sort key first and the payload after a
+ * separator which sorts before any key character, such as {@code '\0'}.
+ */
+public class ExternalSort implements Closeable {
+    public interface RecordConsumer {
+        void accept(String record) throws IOException;
+    }
+
+    /**
+     * The most runs merged at once, which bounds the number of open files. More runs are merged in several passes.
+     */
+    public static final int MAX_FAN_IN = 64;
+    private static final int MAX_BUFFER = Integer.MAX_VALUE - 8;
+
+    private static final class Run {
+        private final BufferedReader reader;
+        private final int index;
+        private String head;
+
+        private Run(BufferedReader reader, int index) throws IOException {
+            this.reader = reader;
+            this.index = index;
+            this.head = reader.readLine();
+        }
+    }
+
+    private final long memoryBudget;
+    private final Path tempDir;
+    private final List<Path> runs = new ArrayList<>();
+    // record i is chars[starts[i]] to chars[starts[i + 1]]
+    private char[] chars = new char[16 * 1024];
+    private int[] starts = new int[1025];
+    private int length;
+    private int size;
+
+    /**
+     * @param memoryBudget the approximate number of bytes the buffered records may take up
+     * @param tempDir the directory for the runs, or null for the default temporary directory
+     */
+    public ExternalSort(long memoryBudget, Path tempDir) {
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Adds a record. The characters are copied, so the sequence can be reused afterwards.
+     */
+    public void add(CharSequence record) throws IOException {
+        int n = record.length();
+
+        if (n > MAX_BUFFER - length) {
+            if (size > 0) {
+                spill();
+            }
+
+            if (n > MAX_BUFFER) {
+                throw new IllegalArgumentException("Record too long: " + n + " characters");
+            }
+        }
+
+        if (length + n > chars.length) {
+            chars = Arrays.copyOf(chars, (int) Math.min(MAX_BUFFER, Math.max(length + n, 2L * chars.length)));
+        }
+
+        if (size + 1 == starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+        }
+
+        if (record instanceof String) {
+            ((String) record).getChars(0, n, chars, length);
+        } else if (record instanceof StringBuilder) {
+            ((StringBuilder) record).getChars(0, n, chars, length);
+        } else {
+            for (int i = 0; i < n; i++) {
+                chars[length + i] = record.charAt(i);
+            }
+        }
+
+        starts[size] = length;
+        length += n;
+        starts[++size] = length;
+
+        // the characters, the start offset and the slot in the index array sorted later on
+        if (2L * length + 8L * size > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * Returns the number of runs written to disk so far.
+     */
+    public int getRunCount() {
+        return runs.size();
+    }
+
+    /**
+     * Returns the character of the record at the given position, or -1 past its end.
+     */
+    private int charAt(int record, int pos) {
+        int i = starts[record] + pos;
+        return i < starts[record + 1] ? chars[i] : -1;
+    }
+
+    /**
+     * Returns the record indices in sorted order.
+     */
+    private int[] sort() {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+
+        sort(order, 0, size, 0);
+        return order;
+    }
+
+    /**
+     * Sorts {@code order[from, to)}, whose records share their first {@code depth} characters, with a three-way
+     * radix quicksort. Shared prefixes, such as the owner of members of the same class, are only compared once
+     * instead of in every comparison. Records which compare equal are identical, so the sort does not need to be stable.
+     */
+    private void sort(int[] order, int from, int to, int depth) {
+        while (to - from > 16) {
+            int mid = from + (to - from) / 2;
+            swap(order, from, mid);
+            int pivot = charAt(order[from], depth);
+            int lt = from, gt = to - 1, i = from + 1;
+
+            while (i <= gt) {
+                int c = charAt(order[i], depth);
+
+                if (c < pivot) {
+                    swap(order, lt++, i++);
+                } else if (c > pivot) {
+                    swap(order, i, gt--);
+                } else {
+                    i++;
+                }
+            }
+
+            sort(order, from, lt, depth);
+            sort(order, gt + 1, to, depth);
+
+            if (pivot < 0) {
+                // every record left is at its end, so they are all equal
+                return;
+            }
+
+            from = lt;
+            to = gt + 1;
+            depth++;
+        }
+
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && compare(order[j - 1], order[j], depth) > 0; j--) {
+                swap(order, j - 1, j);
+            }
+        }
+    }
+
+    private int compare(int a, int b, int depth) {
+        int i = starts[a] + depth, endA = starts[a + 1];
+        int j = starts[b] + depth, endB = starts[b + 1];
+
+        while (i < endA && j < endB) {
+            char c1 = chars[i++];
+            char c2 = chars[j++];
+
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+
+        return (endA - i) - (endB - j);
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    private Path createRun() throws IOException {
+        Path run = tempDir != null ? Files.createTempFile(tempDir, "stitch-sort", ".run") : Files.createTempFile("stitch-sort", ".run");
+        runs.add(run);
+        return run;
+    }
+
+    private void spill() throws IOException {
+        int[] order = sort();
+
+        try (BufferedWriter writer = Files.newBufferedWriter(createRun(), StandardCharsets.UTF_8)) {
+            for (int record : order) {
+                writer.write(chars, starts[record], starts[record + 1] - starts[record]);
+                writer.write('\n');
+            }
+        }
+
+        size = 0;
+        length = 0;
+    }
+
+    /**
+     * Passes every added record to the consumer in sorted order. Can only be called once.
+     */
+    public void forEachSorted(RecordConsumer consumer) throws IOException {
+        if (runs.isEmpty()) {
+            for (int record : sort()) {
+                consumer.accept(new String(chars, starts[record], starts[record + 1] - starts[record]));
+            }
+
+            chars = null;
+            starts = null;
+            return;
+        }
+
+        if (size > 0) {
+            spill();
+        }
+
+        chars = null;
+        starts = null;
+
+        while (runs.size() > MAX_FAN_IN) {
+            mergePass();
+        }
+
+        merge(new ArrayList<>(runs), consumer);
+    }
+
+    /**
+     * Merges every {@value #MAX_FAN_IN} consecutive runs into one.
+     */
+    private void mergePass() throws IOException {
+        List<Path> current = new ArrayList<>(runs);
+        List<Path> merged = new ArrayList<>(current.size() / MAX_FAN_IN + 1);
+
+        for (int i = 0; i < current.size(); i += MAX_FAN_IN) {
+            List<Path> group = current.subList(i, Math.min(i + MAX_FAN_IN, current.size()));
+
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+
+            Path run = createRun();
+            merged.add(run);
+
+            try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+                merge(group, (record) -> {
+                    writer.write(record);
+                    writer.write('\n');
+                });
+            }
+
+            for (Path path : group) {
+                Files.delete(path);
+            }
+
+            runs.removeAll(group);
+        }
+
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    private static void merge(List<Path> group, RecordConsumer consumer) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>(group.size(), (a, b) -> {
+            int c = a.head.compareTo(b.head);
+            return c != 0 ? c : Integer.compare(a.index, b.index);
+        });
+        List<Run> open = new ArrayList<>(group.size());
+
+        try {
+            for (int i = 0; i < group.size(); i++) {
+                Run run = new Run(Files.newBufferedReader(group.get(i), StandardCharsets.UTF_8), i);
+                open.add(run);
+
+                if (run.head != null) {
+                    queue.add(run);
+                }
+            }
+
+            Run run;
+            while ((run = queue.poll()) != null) {
+                consumer.accept(run.head);
+
+                if ((run.head = run.reader.readLine()) != null) {
+                    queue.add(run);
+                }
+            }
+        } finally {
+            for (Run r : open) {
+                r.reader.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes the runs.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+
+        runs.clear();
+    }
+}
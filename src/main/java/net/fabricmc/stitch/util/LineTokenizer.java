@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Splits tab separated text, such as Tiny v1 or matcher files, into lines and fields without creating a string
+ * per line or field.
+ * <p>
+ * The text is read in large blocks, and fields are exposed as ranges of the {@link #getBuffer() buffer}, which
+ * stay valid until the next line is read. Strings are only created for fields which are asked for, optionally
+ * deduplicated through a {@link NamePool}. Fields follow {@code line.split("\t")}: trailing empty fields are
+ * dropped, and an empty line has a single empty field. With trimming enabled, the line and then every field
+ * are trimmed like {@link String#trim()}.
+ */
+public final class LineTokenizer implements Closeable {
+    private final Reader reader;
+    private final boolean trim;
+    private char[] buffer;
+    private int bufferEnd;
+    private int pos;
+    private boolean eof;
+    private int lineStart, lineEnd;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int fieldCount;
+
+    public LineTokenizer(Reader reader, boolean trim) {
+        this.reader = reader;
+        this.trim = trim;
+        this.buffer = new char[64 * 1024];
+    }
+
+    /**
+     * Creates a tokenizer which is given its lines through {@link #setLine(CharSequence)}.
+     */
+    public LineTokenizer(boolean trim) {
+        this.reader = null;
+        this.trim = trim;
+        this.buffer = new char[256];
+    }
+
+    /**
+     * Moves to the next line, which may end with {@code \n} or {@code \r\n}.
+     *
+     * @return false if the end of the text has been reached
+     */
+    public boolean nextLine() throws IOException {
+        if (reader == null) {
+            throw new IllegalStateException("No reader to read lines from");
+        }
+
+        int scan = pos;
+        int nl;
+
+        while (true) {
+            nl = indexOf(buffer, '\n', scan, bufferEnd);
+            if (nl >= 0) {
+                break;
+            }
+
+            if (eof) {
+                if (pos >= bufferEnd) {
+                    return false;
+                }
+
+                nl = bufferEnd;
+                break;
+            }
+
+            scan = bufferEnd - pos;
+            fill();
+        }
+
+        lineStart = pos;
+        lineEnd = nl;
+        pos = nl < bufferEnd ? nl + 1 : nl;
+
+        if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+            lineEnd--;
+        }
+
+        tokenize();
+        return true;
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buffer, pos, buffer, 0, bufferEnd - pos);
+            bufferEnd -= pos;
+            pos = 0;
+        }
+
+        if (bufferEnd == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        int n = reader.read(buffer, bufferEnd, buffer.length - bufferEnd);
+        if (n < 0) {
+            eof = true;
+        } else {
+            bufferEnd += n;
+        }
+    }
+
+    /**
+     * Replaces the current line, for tokenizers created without a reader.
+     */
+    public void setLine(CharSequence line) {
+        if (reader != null) {
+            throw new IllegalStateException("Lines are read from the reader");
+        }
+
+        if (buffer.length < line.length()) {
+            buffer = new char[Math.max(line.length(), buffer.length * 2)];
+        }
+
+        for (int i = 0; i < line.length(); i++) {
+            buffer[i] = line.charAt(i);
+        }
+
+        lineStart = 0;
+        lineEnd = line.length();
+        tokenize();
+    }
+
+    private void tokenize() {
+        if (trim) {
+            while (lineStart < lineEnd && buffer[lineStart] <= ' ') {
+                lineStart++;
+            }
+
+            while (lineEnd > lineStart && buffer[lineEnd - 1] <= ' ') {
+                lineEnd--;
+            }
+        }
+
+        fieldCount = 0;
+        int start = lineStart;
+
+        while (true) {
+            int end = indexOf(buffer, '\t', start, lineEnd);
+            if (end < 0) {
+                end = lineEnd;
+            }
+
+            if (fieldCount == starts.length) {
+                starts = Arrays.copyOf(starts, fieldCount * 2);
+                ends = Arrays.copyOf(ends, fieldCount * 2);
+            }
+
+            starts[fieldCount] = start;
+            ends[fieldCount] = end;
+            fieldCount++;
+
+            if (end == lineEnd) {
+                break;
+            }
+
+            start = end + 1;
+        }
+
+        if (lineEnd > lineStart) {
+            while (fieldCount > 0 && starts[fieldCount - 1] == ends[fieldCount - 1]) {
+                fieldCount--;
+            }
+        }
+
+        if (trim) {
+            for (int i = 0; i < fieldCount; i++) {
+                while (starts[i] < ends[i] && buffer[starts[i]] <= ' ') {
+                    starts[i]++;
+                }
+
+                while (ends[i] > starts[i] && buffer[ends[i] - 1] <= ' ') {
+                    ends[i]--;
+                }
+            }
+        }
+    }
+
+    private static int indexOf(char[] buffer, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == c) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    public char[] getBuffer() {
+        return buffer;
+    }
+
+    public int getLineStart() {
+        return lineStart;
+    }
+
+    public int getLineLength() {
+        return lineEnd - lineStart;
+    }
+
+    public String getLine() {
+        return new String(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    public int getStart(int field) {
+        return starts[field];
+    }
+
+    public int getLength(int field) {
+        return ends[field] - starts[field];
+    }
+
+    public boolean isEmpty(int field) {
+        return starts[field] == ends[field];
+    }
+
+    public String getField(int field) {
+        return new String(buffer, starts[field], ends[field] - starts[field]);
+    }
+
+    public String getField(int field, NamePool pool) {
+        return pool.get(buffer, starts[field], ends[field] - starts[field]);
+    }
+
+    public boolean fieldEquals(int field, String s) {
+        return getLength(field) == s.length() && fieldStartsWith(field, s);
+    }
+
+    public boolean fieldStartsWith(int field, String prefix) {
+        if (getLength(field) < prefix.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[starts[field] + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the buffer position of the first occurrence of the char in the field, or -1.
+     */
+    public int indexOf(int field, char c) {
+        return indexOf(buffer, c, starts[field], ends[field]);
+    }
+
+    /**
+     * Returns the buffer position of the first occurrence of the string in the field, or -1.
+     */
+    public int indexOf(int field, String s) {
+        int last = ends[field] - s.length();
+
+        outer:
+        for (int i = starts[field]; i <= last; i++) {
+            for (int j = 0; j < s.length(); j++) {
+                if (buffer[i + j] != s.charAt(j)) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Writes the current line without its line break.
+     */
+    public void writeLine(Writer writer) throws IOException {
+        writer.write(buffer, lineStart, lineEnd - lineStart);
+    }
+
+    public void writeField(Writer writer, int field) throws IOException {
+        writer.write(buffer, starts[field], ends[field] - starts[field]);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+        }
+    }
+}
@@ -21,7 +21,6 @@ import net.fabricmc.mappings.EntryTriple;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.function.BiConsumer;
-import java.util.function.UnaryOperator;
 
 public final class MatcherUtil {
     private MatcherUtil() {
@@ -29,25 +28,26 @@ public final class MatcherUtil {
     }
 
     public static void read(BufferedReader reader, boolean invert, BiConsumer<String, String> classMappingConsumer, BiConsumer<EntryTriple, EntryTriple> fieldMappingConsumer, BiConsumer<EntryTriple, EntryTriple> methodMappingConsumer) throws IOException {
-        String line;
+        LineTokenizer line = new LineTokenizer(reader, false);
+        NamePool names = new NamePool();
         String ownerFrom = null, ownerTo = null;
 
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split("\t");
+        while (line.nextLine()) {
+            int partCount = line.getFieldCount();
 
-            if (parts[0].equals("c") && parts.length == 3) {
+            if (partCount == 3 && line.fieldEquals(0, "c")) {
                 // class
-                ownerFrom = parts[1].substring(1, parts[1].length() - 1);
-                ownerTo = parts[2].substring(1, parts[2].length() - 1);
+                ownerFrom = unwrap(line, 1, names);
+                ownerTo = unwrap(line, 2, names);
                 if (invert) {
                     classMappingConsumer.accept(ownerTo, ownerFrom);
                 } else {
                     classMappingConsumer.accept(ownerFrom, ownerTo);
                 }
-            } else if (parts[0].equals("") && ownerFrom != null && parts.length >= 2) {
-                if (parts[1].equals("f") && parts.length == 4) {
-                    String[] fieldFrom = parts[2].split(";;");
-                    String[] fieldTo = parts[3].split(";;");
+            } else if (partCount >= 2 && line.isEmpty(0) && ownerFrom != null) {
+                if (partCount == 4 && line.fieldEquals(1, "f")) {
+                    String[] fieldFrom = split(line, 2, line.indexOf(2, ";;"), 2, names);
+                    String[] fieldTo = split(line, 3, line.indexOf(3, ";;"), 2, names);
                     if (invert) {
                         fieldMappingConsumer.accept(
                                 new EntryTriple(ownerTo, fieldTo[0], fieldTo[1]),
@@ -59,9 +59,9 @@ public final class MatcherUtil {
                                 new EntryTriple(ownerTo, fieldTo[0], fieldTo[1])
                         );
                     }
-                } else if (parts[1].equals("m") && parts.length == 4) {
-                    String[] methodFrom = toMethodArray(parts[2]);
-                    String[] methodTo = toMethodArray(parts[3]);
+                } else if (partCount == 4 && line.fieldEquals(1, "m")) {
+                    String[] methodFrom = split(line, 2, line.indexOf(2, '('), 0, names);
+                    String[] methodTo = split(line, 3, line.indexOf(3, '('), 0, names);
                     if (invert) {
                         methodMappingConsumer.accept(
                                 new EntryTriple(ownerTo, methodTo[0], methodTo[1]),
@@ -78,11 +78,26 @@ public final class MatcherUtil {
         }
     }
 
-    private static String[] toMethodArray(String part) {
-        int parenPos = part.indexOf('(');
+    /**
+     * Returns the field without its first and last character.
+     */
+    private static String unwrap(LineTokenizer line, int field, NamePool names) {
+        return names.get(line.getBuffer(), line.getStart(field) + 1, line.getLength(field) - 2);
+    }
+
+    /**
+     * Splits the field at the given buffer position into the part before it and the part after the separator.
+     */
+    private static String[] split(LineTokenizer line, int field, int pos, int separatorLength, NamePool names) {
+        if (pos < 0) {
+            throw new IllegalArgumentException("Invalid matcher entry: " + line.getField(field));
+        }
+
+        int start = line.getStart(field);
+        int end = start + line.getLength(field);
         return new String[] {
-                part.substring(0, parenPos),
-                part.substring(parenPos)
+                names.get(line.getBuffer(), start, pos - start),
+                names.get(line.getBuffer(), pos + separatorLength, end - pos - separatorLength)
         };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+/**
+ * Deduplicates strings which are read from a char buffer. Looking up a range of chars only creates a string the
+ * first time the range is seen, so names which repeat across a file are stored once. Not thread-safe.
+ */
+public final class NamePool {
+    private String[] table = new String[1024];
+    private int size;
+
+    public String get(char[] buffer, int start, int length) {
+        int mask = table.length - 1;
+        int i = mix(hash(buffer, start, length)) & mask;
+        String s;
+
+        while ((s = table[i]) != null) {
+            if (matches(s, buffer, start, length)) {
+                return s;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        s = new String(buffer, start, length);
+        table[i] = s;
+
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+
+        return s;
+    }
+
+    public String get(String string) {
+        int mask = table.length - 1;
+        int i = mix(string.hashCode()) & mask;
+        String s;
+
+        while ((s = table[i]) != null) {
+            if (s.equals(string)) {
+                return s;
+            }
+
+            i = (i + 1) & mask;
+        }
+
+        table[i] = string;
+
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+
+        return string;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+
+        for (String s : old) {
+            if (s != null) {
+                int i = mix(s.hashCode()) & mask;
+
+                while (table[i] != null) {
+                    i = (i + 1) & mask;
+                }
+
+                table[i] = s;
+            }
+        }
+    }
+
+    // same as String.hashCode, so strings can be rehashed without their chars
+    private static int hash(char[] buffer, int start, int length) {
+        int h = 0;
+
+        for (int i = start; i < start + length; i++) {
+            h = 31 * h + buffer[i];
+        }
+
+        return h;
+    }
+
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean matches(String s, char[] buffer, int start, int length) {
+        if (s.length() != length) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) != buffer[start + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
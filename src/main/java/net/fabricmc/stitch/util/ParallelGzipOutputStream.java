@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.fabricmc.stitch.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Writes gzip data, deflating blocks of the input on several threads.
+ * <p>
+ * Like pigz, every block becomes a gzip member of its own, and the members are written in order one after another.
+ * Concatenated members are valid gzip, which {@link java.util.zip.GZIPInputStream} and gzip itself read as a
+ * whole. Blocks are compressed without the previous block as dictionary, which makes the output slightly larger
+ * than with a single member. {@link #flush()} ends the current block early, so it should be left to buffered
+ * writers on top of this stream.
+ */
+public class ParallelGzipOutputStream extends OutputStream {
+    private static final int BLOCK_SIZE = 1024 * 1024;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private final OutputStream out;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Deque<Future<byte[]>> pending = new ArrayDeque<>();
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockSize;
+    private boolean written;
+    private boolean closed;
+
+    public ParallelGzipOutputStream(OutputStream out, int threads) {
+        this.out = out;
+        this.executor = Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("stitch-gzip-%d").setDaemon(true).build());
+        // enough queued blocks to keep every thread busy while the oldest one is written
+        this.maxPending = threads * 2;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockSize == block.length) {
+            submit();
+        }
+
+        block[blockSize++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockSize == block.length) {
+                submit();
+            }
+
+            int n = Math.min(len, block.length - blockSize);
+            System.arraycopy(b, off, block, blockSize, n);
+            blockSize += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void submit() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        byte[] data = block;
+        int length = blockSize;
+        pending.add(executor.submit(() -> member(data, length)));
+        block = new byte[BLOCK_SIZE];
+        blockSize = 0;
+        written = true;
+
+        while (pending.size() > maxPending) {
+            out.write(await(pending.poll()));
+        }
+    }
+
+    private void drain() throws IOException {
+        while (!pending.isEmpty()) {
+            out.write(await(pending.poll()));
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (blockSize > 0) {
+            submit();
+        }
+
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        try {
+            // an empty stream still needs one member to be valid gzip
+            if (blockSize > 0 || !written) {
+                submit();
+            }
+
+            drain();
+        } finally {
+            closed = true;
+            executor.shutdownNow();
+            out.close();
+        }
+    }
+
+    private static byte[] member(byte[] data, int length) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+
+            byte[] buf = new byte[10 + length + length / 8 + 64 + 8];
+            int size = writeHeader(buf);
+
+            while (!deflater.finished()) {
+                if (size == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+
+                size += deflater.deflate(buf, size, buf.length - size);
+            }
+
+            buf = Arrays.copyOf(buf, size + 8);
+            writeInt(buf, size, (int) crc.getValue());
+            writeInt(buf, size + 4, length);
+            return buf;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int writeHeader(byte[] buf) {
+        buf[0] = (byte) GZIP_MAGIC;
+        buf[1] = (byte) (GZIP_MAGIC >> 8);
+        buf[2] = Deflater.DEFLATED;
+        // no flags, no modification time, no extra flags
+        buf[9] = (byte) 0xFF; // unknown OS
+        return 10;
+    }
+
+    private static void writeInt(byte[] buf, int pos, int value) {
+        buf[pos] = (byte) value;
+        buf[pos + 1] = (byte) (value >> 8);
+        buf[pos + 2] = (byte) (value >> 16);
+        buf[pos + 3] = (byte) (value >> 24);
+    }
+
+    private static byte[] await(Future<byte[]> member) throws IOException {
+        try {
+            return member.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
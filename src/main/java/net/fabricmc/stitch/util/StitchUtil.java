@@ -20,9 +20,12 @@ import org.objectweb.asm.Opcodes;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystemAlreadyExistsException;
 import java.nio.file.FileSystems;
@@ -97,32 +100,96 @@ public final class StitchUtil {
     }
 
     public static List<String> mergePreserveOrder(List<String> first, List<String> second) {
-        List<String> out = new ArrayList<>();
+        List<String> out = new ArrayList<>(Math.max(first.size(), second.size()));
+        Set<String> firstSet = new HashSet<>(first);
+        Set<String> secondSet = new HashSet<>(second);
+        Set<String> added = new HashSet<>();
         int i = 0;
         int j = 0;
 
         while (i < first.size() || j < second.size()) {
+            int start = i + j;
+
             while (i < first.size() && j < second.size()
                     && first.get(i).equals(second.get(j))) {
-                out.add(first.get(i));
+                if (added.add(first.get(i))) {
+                    out.add(first.get(i));
+                }
                 i++;
                 j++;
             }
 
-            while (i < first.size() && !second.contains(first.get(i))) {
-                out.add(first.get(i));
+            while (i < first.size() && (!secondSet.contains(first.get(i)) || added.contains(first.get(i)))) {
+                if (added.add(first.get(i))) {
+                    out.add(first.get(i));
+                }
                 i++;
             }
 
-            while (j < second.size() && !first.contains(second.get(j))) {
-                out.add(second.get(j));
+            while (j < second.size() && (!firstSet.contains(second.get(j)) || added.contains(second.get(j)))) {
+                if (added.add(second.get(j))) {
+                    out.add(second.get(j));
+                }
                 j++;
             }
+
+            if (i + j == start) {
+                // both lists contain the next entries in a different order, take the first list's one
+                added.add(first.get(i));
+                out.add(first.get(i));
+                i++;
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Merges any number of lists, folding them from first to last with {@link #mergePreserveOrder(List, List)}.
+     */
+    public static List<String> mergePreserveOrder(List<List<String>> lists) {
+        List<String> out = lists.isEmpty() ? new ArrayList<>() : new ArrayList<>(lists.get(0));
+
+        for (int i = 1; i < lists.size(); i++) {
+            out = mergePreserveOrder(out, lists.get(i));
         }
 
         return out;
     }
 
+    /**
+     * Releases a buffer returned by {@link java.nio.channels.FileChannel#map} right away instead of whenever it is
+     * garbage collected, so that the file can be replaced or deleted. Neither the buffer nor any view of it may be
+     * used afterwards. Does nothing if the JVM doesn't allow it.
+     */
+    public static void unmap(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+
+        try {
+            try {
+                // Java 9+
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+                Method getCleaner = buffer.getClass().getMethod("cleaner");
+                getCleaner.setAccessible(true);
+                Object cleaner = getCleaner.invoke(buffer);
+
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // leave it to the garbage collector
+        }
+    }
+
     public static long getTime() {
         return new Date().getTime();
     }
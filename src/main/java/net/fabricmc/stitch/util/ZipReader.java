@@ -0,0 +1,452 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A minimal zip reader working off the central directory of a memory-mapped archive.
+ * <p>
+ * Unlike {@link java.util.zip.ZipFile} or the zip file system it gives access to the raw, still compressed
+ * entry data together with the metadata needed to copy an entry into another archive unchanged, see
+ * {@link ZipWriter#copy(Entry)}. Entries can be read from several threads at once, but not while the reader is
+ * being closed.
+ * <p>
+ * The whole archive is mapped into a single buffer, which limits it to 2 GiB, and ZIP64 records are not parsed,
+ * which limits it to {@value #MAX_ENTRIES} entries. Larger archives are read through {@link ZipFile} instead, whose
+ * entries have no raw data: they can only be read uncompressed, and are compressed again when copied.
+ */
+public class ZipReader implements Closeable {
+    static final int LOCAL_HEADER = 0x04034b50;
+    static final int CENTRAL_HEADER = 0x02014b50;
+    static final int END_HEADER = 0x06054b50;
+    static final int LOCAL_HEADER_SIZE = 30;
+    static final int CENTRAL_HEADER_SIZE = 46;
+    static final int END_HEADER_SIZE = 22;
+
+    /**
+     * The largest entry count which fits the end of central directory record, 0xFFFF marks ZIP64 archives. Archives
+     * with more entries are read through {@link ZipFile}.
+     */
+    public static final int MAX_ENTRIES = 0xFFFE;
+
+    public static final int STORED = 0;
+    public static final int DEFLATED = 8;
+
+    public class Entry {
+        private final String name;
+        private final int versionMadeBy, flags, method, dosTime;
+        private final long crc;
+        private final int compressedSize, size;
+        private final int externalAttributes;
+        private final int localHeaderOffset;
+        private final byte[] centralExtra;
+        /** The entry to read the data from if the archive is read through {@link ZipFile}, null otherwise. */
+        private final ZipEntry zipEntry;
+
+        private Entry(String name, int versionMadeBy, int flags, int method, int dosTime, long crc,
+                      int compressedSize, int size, int externalAttributes, int localHeaderOffset, byte[] centralExtra) {
+            this(name, versionMadeBy, flags, method, dosTime, crc, compressedSize, size, externalAttributes, localHeaderOffset, centralExtra, null);
+        }
+
+        private Entry(String name, int versionMadeBy, int flags, int method, int dosTime, long crc, int compressedSize, int size,
+                      int externalAttributes, int localHeaderOffset, byte[] centralExtra, ZipEntry zipEntry) {
+            this.name = name;
+            this.versionMadeBy = versionMadeBy;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.localHeaderOffset = localHeaderOffset;
+            this.centralExtra = centralExtra;
+            this.zipEntry = zipEntry;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getVersionMadeBy() {
+            return versionMadeBy;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * The modification time in MS-DOS format, date in the upper and time in the lower 16 bits.
+         */
+        public int getDosTime() {
+            return dosTime;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public int getCompressedSize() {
+            return compressedSize;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public int getExternalAttributes() {
+            return externalAttributes;
+        }
+
+        public byte[] getCentralExtra() {
+            return centralExtra;
+        }
+
+        /**
+         * Returns whether {@link #getRawData()} and {@link #getLocalExtra()} are available, which they are not for
+         * archives too large to be mapped.
+         */
+        public boolean hasRawData() {
+            return zipEntry == null;
+        }
+
+        public byte[] getLocalExtra() throws IOException {
+            checkRawData();
+            ByteBuffer buf = buffer();
+            int extraLength = Short.toUnsignedInt(buf.getShort(localHeaderOffset + 28));
+            byte[] extra = new byte[extraLength];
+            buf.position(localHeaderOffset + LOCAL_HEADER_SIZE + Short.toUnsignedInt(buf.getShort(localHeaderOffset + 26)));
+            buf.get(extra);
+            return extra;
+        }
+
+        /**
+         * Returns the entry data as stored in the archive, compressed with {@link #getMethod()}. The buffer is only
+         * valid until the reader is closed.
+         */
+        public ByteBuffer getRawData() throws IOException {
+            checkRawData();
+            ByteBuffer buf = buffer();
+
+            if (buf.getInt(localHeaderOffset) != LOCAL_HEADER) {
+                throw new ZipException("Invalid local header for " + name);
+            }
+
+            int start = localHeaderOffset + LOCAL_HEADER_SIZE
+                    + Short.toUnsignedInt(buf.getShort(localHeaderOffset + 26))
+                    + Short.toUnsignedInt(buf.getShort(localHeaderOffset + 28));
+            buf.position(start);
+            buf.limit(start + compressedSize);
+            return buf.slice();
+        }
+
+        /**
+         * Returns the uncompressed entry data.
+         */
+        public byte[] getData() throws IOException {
+            if (zipEntry != null) {
+                return readFully(zipEntry);
+            }
+
+            ByteBuffer raw = getRawData();
+            byte[] data = new byte[size];
+
+            if (method == STORED) {
+                raw.get(data);
+                return data;
+            } else if (method != DEFLATED) {
+                throw new ZipException("Unsupported compression method " + method + " for " + name);
+            }
+
+            byte[] input = new byte[compressedSize];
+            raw.get(input);
+            Inflater inflater = new Inflater(true);
+
+            try {
+                inflater.setInput(input);
+                int read = 0;
+
+                while (read < size) {
+                    int n = inflater.inflate(data, read, size - read);
+                    if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+
+                    read += n;
+                }
+
+                if (read != size) {
+                    throw new ZipException("Invalid compressed data for " + name);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid compressed data for " + name + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+
+            return data;
+        }
+
+        private void checkRawData() {
+            if (zipEntry != null) {
+                throw new UnsupportedOperationException("No raw data for " + name + ", the archive is not mapped");
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private volatile MappedByteBuffer buffer;
+    private volatile ZipFile zipFile;
+    private final List<Entry> entries;
+
+    public ZipReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            List<Entry> entries = null;
+
+            if (channel.size() <= Integer.MAX_VALUE) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                entries = readCentralDirectory(path);
+            }
+
+            if (entries == null) {
+                // too large for the mapped reader, which is only needed for raw data
+                MappedByteBuffer buffer = this.buffer;
+                this.buffer = null;
+                if (buffer != null) {
+                    StitchUtil.unmap(buffer);
+                }
+
+                zipFile = new ZipFile(path.toFile());
+                entries = readZipFile();
+            }
+
+            this.entries = Collections.unmodifiableList(entries);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private List<Entry> readCentralDirectory(Path path) throws IOException {
+        ByteBuffer buf = buffer();
+        int end = -1;
+
+        // the end record is followed by a comment of up to 64k
+        for (int i = buf.limit() - END_HEADER_SIZE; i >= Math.max(0, buf.limit() - END_HEADER_SIZE - 0xFFFF); i--) {
+            if (buf.getInt(i) == END_HEADER) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0) {
+            throw new ZipException(path + " is not a zip file");
+        }
+
+        int count = Short.toUnsignedInt(buf.getShort(end + 10));
+        long cdSize = Integer.toUnsignedLong(buf.getInt(end + 12));
+        long cdOffset = Integer.toUnsignedLong(buf.getInt(end + 16));
+
+        if (count == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            return null;
+        }
+
+        if (cdOffset + cdSize > end) {
+            throw new ZipException("Invalid central directory in " + path);
+        }
+
+        List<Entry> entries = new ArrayList<>(count);
+        int pos = (int) cdOffset;
+
+        for (int i = 0; i < count; i++) {
+            if (buf.getInt(pos) != CENTRAL_HEADER) {
+                throw new ZipException("Invalid central directory in " + path);
+            }
+
+            int nameLength = Short.toUnsignedInt(buf.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(buf.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(buf.getShort(pos + 32));
+
+            byte[] name = new byte[nameLength];
+            byte[] extra = new byte[extraLength];
+            buf.position(pos + CENTRAL_HEADER_SIZE);
+            buf.get(name);
+            buf.get(extra);
+
+            int compressedSize = buf.getInt(pos + 20);
+            int size = buf.getInt(pos + 24);
+            int localHeaderOffset = buf.getInt(pos + 42);
+
+            if (compressedSize < 0 || size < 0 || localHeaderOffset < 0) {
+                return null;
+            }
+
+            entries.add(new Entry(new String(name, StandardCharsets.UTF_8),
+                    Short.toUnsignedInt(buf.getShort(pos + 4)),
+                    Short.toUnsignedInt(buf.getShort(pos + 8)),
+                    Short.toUnsignedInt(buf.getShort(pos + 10)),
+                    buf.getInt(pos + 12),
+                    Integer.toUnsignedLong(buf.getInt(pos + 16)),
+                    compressedSize,
+                    size,
+                    buf.getInt(pos + 38),
+                    localHeaderOffset,
+                    extra));
+
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return entries;
+    }
+
+    private ByteBuffer buffer() {
+        MappedByteBuffer buffer = this.buffer;
+
+        if (buffer == null) {
+            throw new IllegalStateException("Zip file closed");
+        }
+
+        return buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private List<Entry> readZipFile() {
+        List<Entry> entries = new ArrayList<>(zipFile.size());
+
+        for (ZipEntry entry : Collections.list(zipFile.entries())) {
+            byte[] extra = entry.getExtra();
+            entries.add(new Entry(entry.getName(), 20, 0x800, entry.getMethod(), toDosTime(entry.getTime()), entry.getCrc(),
+                    (int) Math.min(entry.getCompressedSize(), Integer.MAX_VALUE), (int) Math.min(entry.getSize(), Integer.MAX_VALUE),
+                    0, -1, extra != null ? extra : new byte[0], entry));
+        }
+
+        return entries;
+    }
+
+    private byte[] readFully(ZipEntry entry) throws IOException {
+        ZipFile zipFile = this.zipFile;
+
+        if (zipFile == null) {
+            throw new IllegalStateException("Zip file closed");
+        }
+
+        if (entry.getSize() > Integer.MAX_VALUE - 8) {
+            throw new ZipException(entry.getName() + " is larger than 2 GiB, which is not supported");
+        }
+
+        byte[] data = new byte[(int) entry.getSize()];
+        int read = 0;
+
+        try (InputStream stream = zipFile.getInputStream(entry)) {
+            while (read < data.length) {
+                int n = stream.read(data, read, data.length - read);
+                if (n < 0) {
+                    break;
+                }
+
+                read += n;
+            }
+        }
+
+        if (read != data.length) {
+            throw new ZipException("Invalid compressed data for " + entry.getName());
+        }
+
+        return data;
+    }
+
+    /**
+     * Converts a time as read by {@link ZipEntry#getTime()} back into the MS-DOS format it was read from.
+     */
+    private static int toDosTime(long time) {
+        LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochMilli(Math.max(time, 0)), ZoneId.systemDefault());
+
+        if (date.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+
+        return (date.getYear() - 1980) << 25 | date.getMonthValue() << 21 | date.getDayOfMonth() << 16
+                | date.getHour() << 11 | date.getMinute() << 5 | date.getSecond() >> 1;
+    }
+
+    /**
+     * Returns the entries in central directory order.
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(true);
+    }
+
+    /**
+     * Closes the reader, after which its entries can no longer be read.
+     *
+     * @param unmap whether to release the mapped archive right away. Reading from a released mapping crashes the
+     *              JVM, so this is only safe once no other thread can still be reading an entry. Otherwise the
+     *              mapping is left to the garbage collector, which releases it once nothing uses it anymore.
+     */
+    public void close(boolean unmap) throws IOException {
+        MappedByteBuffer buffer = this.buffer;
+        this.buffer = null;
+        ZipFile zipFile = this.zipFile;
+        this.zipFile = null;
+        channel.close();
+
+        if (zipFile != null) {
+            zipFile.close();
+        }
+
+        if (buffer != null && unmap) {
+            StitchUtil.unmap(buffer);
+        }
+    }
+}
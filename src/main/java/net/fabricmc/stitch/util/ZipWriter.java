@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal sequential zip writer, the counterpart of {@link ZipReader}.
+ * <p>
+ * Entries read with a {@link ZipReader} can be copied with their compressed data, checksum, timestamp and extra
+ * fields untouched, so they are never inflated and deflated again. New data is deflated, optionally ahead of
+ * time and on another thread through {@link #deflate(byte[])}. Parent directory entries are added as needed.
+ * Archives with more than {@value ZipReader#MAX_ENTRIES} entries, directory entries included, or larger than 4 GiB
+ * get ZIP64 records, but a single entry is limited to 2 GiB.
+ */
+public class ZipWriter implements Closeable {
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_END_HEADER_SIZE = 56;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x8;
+    private static final byte[] NO_EXTRA = new byte[0];
+
+    /**
+     * Entry data deflated ahead of time.
+     */
+    public static final class Deflated {
+        private final byte[] data;
+        private final int compressedSize, size;
+        private final long crc;
+
+        private Deflated(byte[] data, int compressedSize, int size, long crc) {
+            this.data = data;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.crc = crc;
+        }
+    }
+
+    private static final class CentralRecord {
+        private final byte[] name;
+        private final int versionMadeBy, flags, method, dosTime;
+        private final long crc;
+        private final int compressedSize, size;
+        private final int externalAttributes;
+        private final long offset;
+        private final byte[] extra;
+
+        private CentralRecord(byte[] name, int versionMadeBy, int flags, int method, int dosTime, long crc,
+                              int compressedSize, int size, int externalAttributes, long offset, byte[] extra) {
+            this.name = name;
+            this.versionMadeBy = versionMadeBy;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.externalAttributes = externalAttributes;
+            this.offset = offset;
+            this.extra = extra;
+        }
+    }
+
+    private final OutputStream out;
+    private final ByteBuffer header = ByteBuffer.allocate(ZIP64_END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] copyBuffer = new byte[64 * 1024];
+    private final List<CentralRecord> records = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long offset;
+    private boolean closed;
+
+    public ZipWriter(Path path) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(path), 64 * 1024);
+    }
+
+    public static Deflated deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+
+            byte[] buf = new byte[Math.max(64, data.length + data.length / 8 + 64)];
+            int length = 0;
+
+            while (!deflater.finished()) {
+                if (length == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+
+                length += deflater.deflate(buf, length, buf.length - length);
+            }
+
+            return new Deflated(buf, length, data.length, crc.getValue());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Copies an entry from another archive without recompressing it, unless the archive was too large to be mapped
+     * and the entry has no raw data.
+     */
+    public void copy(ZipReader.Entry entry) throws IOException {
+        if (!entry.hasRawData()) {
+            write(entry.getName(), entry.getDosTime(), entry.getCentralExtra(), entry.getData());
+            return;
+        }
+
+        addParents(entry.getName(), entry.getDosTime());
+
+        if (!names.add(entry.getName())) {
+            throw new ZipException("Duplicate entry " + entry.getName());
+        }
+
+        byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        int flags = entry.getFlags() & ~FLAG_DATA_DESCRIPTOR;
+        CentralRecord record = new CentralRecord(name, entry.getVersionMadeBy(), flags, entry.getMethod(), entry.getDosTime(),
+                entry.getCrc(), entry.getCompressedSize(), entry.getSize(), entry.getExternalAttributes(), offset, withoutZip64(entry.getCentralExtra()));
+
+        writeLocalHeader(record, entry.getLocalExtra());
+
+        ByteBuffer data = entry.getRawData();
+        while (data.hasRemaining()) {
+            int n = Math.min(copyBuffer.length, data.remaining());
+            data.get(copyBuffer, 0, n);
+            write(copyBuffer, 0, n);
+        }
+
+        records.add(record);
+    }
+
+    /**
+     * Deflates and adds an entry.
+     *
+     * @param dosTime the modification time in MS-DOS format, see {@link ZipReader.Entry#getDosTime()}
+     * @param extra the extra fields of the entry, may be null
+     */
+    public void write(String name, int dosTime, byte[] extra, byte[] data) throws IOException {
+        write(name, dosTime, extra, deflate(data));
+    }
+
+    public void write(String name, int dosTime, byte[] extra, Deflated data) throws IOException {
+        addParents(name, dosTime);
+
+        if (!names.add(name)) {
+            throw new ZipException("Duplicate entry " + name);
+        }
+
+        write(new CentralRecord(name.getBytes(StandardCharsets.UTF_8), VERSION, FLAG_UTF8, ZipReader.DEFLATED, dosTime,
+                data.crc, data.compressedSize, data.size, 0, offset, extra != null ? withoutZip64(extra) : NO_EXTRA), data.data, data.compressedSize);
+    }
+
+    private void addParents(String name, int dosTime) throws IOException {
+        int end = name.lastIndexOf('/', name.length() - 2);
+        if (end < 0) {
+            return;
+        }
+
+        String parent = name.substring(0, end + 1);
+        if (names.contains(parent)) {
+            return;
+        }
+
+        addParents(parent, dosTime);
+        names.add(parent);
+        write(new CentralRecord(parent.getBytes(StandardCharsets.UTF_8), VERSION, FLAG_UTF8, ZipReader.STORED, dosTime,
+                0, 0, 0, 0, offset, NO_EXTRA), copyBuffer, 0);
+    }
+
+    private void write(CentralRecord record, byte[] data, int length) throws IOException {
+        writeLocalHeader(record, record.extra);
+        write(data, 0, length);
+        records.add(record);
+    }
+
+    /**
+     * Removes the ZIP64 extra field the entry had in its source archive, the offsets in it are wrong here and the
+     * central directory gets a new one where needed.
+     */
+    private static byte[] withoutZip64(byte[] extra) {
+        ByteBuffer buf = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = null;
+
+        while (buf.remaining() >= 4) {
+            int start = buf.position();
+            int id = Short.toUnsignedInt(buf.getShort());
+            int length = Short.toUnsignedInt(buf.getShort());
+
+            if (length > buf.remaining()) {
+                // not a valid extra field, which is left alone
+                return extra;
+            }
+
+            buf.position(buf.position() + length);
+
+            if (id == ZIP64_EXTRA) {
+                if (out == null) {
+                    out = ByteBuffer.allocate(extra.length);
+                    out.put(extra, 0, start);
+                }
+            } else if (out != null) {
+                out.put(extra, start, buf.position() - start);
+            }
+        }
+
+        if (out == null) {
+            return extra;
+        }
+
+        out.put(extra, buf.position(), buf.remaining());
+        return Arrays.copyOf(out.array(), out.position());
+    }
+
+    private void writeLocalHeader(CentralRecord record, byte[] extra) throws IOException {
+        header.clear();
+        header.putInt(ZipReader.LOCAL_HEADER);
+        header.putShort((short) VERSION);
+        header.putShort((short) record.flags);
+        header.putShort((short) record.method);
+        header.putInt(record.dosTime);
+        header.putInt((int) record.crc);
+        header.putInt(record.compressedSize);
+        header.putInt(record.size);
+        header.putShort((short) record.name.length);
+        header.putShort((short) extra.length);
+        write(header.array(), 0, header.position());
+        write(record.name, 0, record.name.length);
+        write(extra, 0, extra.length);
+    }
+
+    private void write(byte[] data, int off, int length) throws IOException {
+        out.write(data, off, length);
+        offset += length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            long start = offset;
+
+            for (CentralRecord record : records) {
+                boolean zip64 = record.offset >= 0xFFFFFFFFL;
+                header.clear();
+                header.putInt(ZipReader.CENTRAL_HEADER);
+                header.putShort((short) record.versionMadeBy);
+                header.putShort((short) (zip64 ? VERSION_ZIP64 : VERSION));
+                header.putShort((short) record.flags);
+                header.putShort((short) record.method);
+                header.putInt(record.dosTime);
+                header.putInt((int) record.crc);
+                header.putInt(record.compressedSize);
+                header.putInt(record.size);
+                header.putShort((short) record.name.length);
+                header.putShort((short) (record.extra.length + (zip64 ? 12 : 0)));
+                header.putShort((short) 0); // comment length
+                header.putShort((short) 0); // disk number
+                header.putShort((short) 0); // internal attributes
+                header.putInt(record.externalAttributes);
+                header.putInt(zip64 ? -1 : (int) record.offset);
+                write(header.array(), 0, header.position());
+                write(record.name, 0, record.name.length);
+
+                if (zip64) {
+                    // only the offset does not fit, the sizes of an entry always do
+                    header.clear();
+                    header.putShort((short) ZIP64_EXTRA);
+                    header.putShort((short) 8);
+                    header.putLong(record.offset);
+                    write(header.array(), 0, header.position());
+                }
+
+                write(record.extra, 0, record.extra.length);
+            }
+
+            long size = offset - start;
+            boolean zip64 = records.size() > ZipReader.MAX_ENTRIES || start >= 0xFFFFFFFFL || size >= 0xFFFFFFFFL;
+
+            if (zip64) {
+                long end = offset;
+                header.clear();
+                header.putInt(ZIP64_END_HEADER);
+                header.putLong(ZIP64_END_HEADER_SIZE - 12);
+                header.putShort((short) VERSION_ZIP64); // version made by
+                header.putShort((short) VERSION_ZIP64);
+                header.putInt(0); // disk number
+                header.putInt(0); // central directory disk
+                header.putLong(records.size());
+                header.putLong(records.size());
+                header.putLong(size);
+                header.putLong(start);
+                write(header.array(), 0, header.position());
+
+                header.clear();
+                header.putInt(ZIP64_LOCATOR);
+                header.putInt(0); // disk of the ZIP64 end record
+                header.putLong(end);
+                header.putInt(1); // disk count
+                write(header.array(), 0, header.position());
+            }
+
+            header.clear();
+            header.putInt(ZipReader.END_HEADER);
+            header.putShort((short) 0); // disk number
+            header.putShort((short) 0); // central directory disk
+            header.putShort((short) (zip64 ? 0xFFFF : records.size()));
+            header.putShort((short) (zip64 ? 0xFFFF : records.size()));
+            header.putInt(zip64 ? -1 : (int) size);
+            header.putInt(zip64 ? -1 : (int) start);
+            header.putShort((short) 0); // comment length
+            write(header.array(), 0, header.position());
+        } finally {
+            out.close();
+        }
+    }
+}
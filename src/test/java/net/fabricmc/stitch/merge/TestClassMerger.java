@@ -0,0 +1,241 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.util.CheckClassAdapter;
+import org.objectweb.asm.util.TraceClassVisitor;
+
+import net.fabricmc.stitch.util.StitchUtil;
+
+public class TestClassMerger {
+	static byte[] createClass(boolean client) {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "test/Merged", null, "java/lang/Object",
+				client ? new String[] {"java/lang/Runnable", "test/ClientOnly"} : new String[] {"java/lang/Runnable", "test/ServerOnly"});
+		writer.visitSource("Merged.java", null);
+		writer.visitAnnotation("Ltest/Existing;", false).visitEnd();
+		writer.visitInnerClass("test/Merged$Shared", "test/Merged", "Shared", Opcodes.ACC_PUBLIC);
+		writer.visitInnerClass(client ? "test/Merged$Client" : "test/Merged$Server", "test/Merged", client ? "Client" : "Server", Opcodes.ACC_PUBLIC);
+
+		writer.visitField(Opcodes.ACC_PUBLIC, "shared", "I", null, null).visitEnd();
+		FieldVisitor sided = writer.visitField(Opcodes.ACC_PUBLIC, client ? "client" : "server", "J", null, null);
+		sided.visitAnnotation("Ltest/Existing;", false).visitEnd();
+		sided.visitEnd();
+
+		addMethod(writer, "<init>", true);
+		addMethod(writer, "run", false);
+		addMethod(writer, client ? "render" : "tick", false);
+
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void addMethod(ClassVisitor cv, String name, boolean constructor) {
+		MethodVisitor mv = cv.visitMethod(Opcodes.ACC_PUBLIC, name, "(I)V", null, null);
+		mv.visitParameter("value", 0);
+		mv.visitAnnotation("Ltest/Existing;", false).visitEnd();
+		mv.visitParameterAnnotation(0, "Ltest/Existing;", false).visitEnd();
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+
+		if (constructor) {
+			mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+		} else {
+			mv.visitVarInsn(Opcodes.ILOAD, 1);
+			mv.visitFieldInsn(Opcodes.PUTFIELD, "test/Merged", "shared", "I");
+		}
+
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	static String toText(byte[] data) {
+		StringWriter text = new StringWriter();
+		new ClassReader(data).accept(new TraceClassVisitor(new PrintWriter(text)), 0);
+		return text.toString();
+	}
+
+	/**
+	 * The tree based merge ClassMerger used to do for a client and a server class.
+	 */
+	private static byte[] mergeWithClassNodes(byte[] classClient, byte[] classServer) {
+		ClassNode nodeC = new ClassNode(StitchUtil.ASM_VERSION);
+		new ClassReader(classClient).accept(nodeC, 0);
+		ClassNode nodeS = new ClassNode(StitchUtil.ASM_VERSION);
+		new ClassReader(classServer).accept(nodeS, 0);
+
+		ClassNode nodeOut = new ClassNode(StitchUtil.ASM_VERSION);
+		nodeOut.version = nodeC.version;
+		nodeOut.access = nodeC.access;
+		nodeOut.name = nodeC.name;
+		nodeOut.superName = nodeC.superName;
+		nodeOut.sourceFile = nodeC.sourceFile;
+		nodeOut.invisibleAnnotations = new ArrayList<>(nodeC.invisibleAnnotations);
+		nodeOut.interfaces = StitchUtil.mergePreserveOrder(nodeC.interfaces, nodeS.interfaces);
+
+		Map<String, List<String>> sidedItfs = new LinkedHashMap<>();
+		sidedItfs.put("CLIENT", new ArrayList<>(nodeC.interfaces));
+		sidedItfs.get("CLIENT").removeAll(nodeS.interfaces);
+		sidedItfs.put("SERVER", new ArrayList<>(nodeS.interfaces));
+		sidedItfs.get("SERVER").removeAll(nodeC.interfaces);
+		AnnotationVisitor envInterfaces = nodeOut.visitAnnotation("Lnet/fabricmc/api/EnvironmentInterfaces;", false);
+		AnnotationVisitor eiArray = envInterfaces.visitArray("value");
+
+		for (Map.Entry<String, List<String>> entry : sidedItfs.entrySet()) {
+			for (String itf : entry.getValue()) {
+				AnnotationVisitor avItf = eiArray.visitAnnotation(null, "Lnet/fabricmc/api/EnvironmentInterface;");
+				avItf.visitEnum("value", "Lnet/fabricmc/api/EnvType;", entry.getKey());
+				avItf.visit("itf", Type.getType("L" + itf + ";"));
+				avItf.visitEnd();
+			}
+		}
+
+		eiArray.visitEnd();
+		envInterfaces.visitEnd();
+
+		Map<String, InnerClassNode> innerClasses = new LinkedHashMap<>();
+		for (InnerClassNode node : nodeC.innerClasses) innerClasses.put(node.name, node);
+		for (InnerClassNode node : nodeS.innerClasses) innerClasses.putIfAbsent(node.name, node);
+		nodeOut.innerClasses.addAll(innerClasses.values());
+
+		Map<String, FieldNode> fields = new LinkedHashMap<>();
+		for (FieldNode node : nodeC.fields) fields.put(node.name + ";;" + node.desc, node);
+		for (FieldNode node : nodeS.fields) fields.putIfAbsent(node.name + ";;" + node.desc, node);
+
+		for (FieldNode node : fields.values()) {
+			boolean onClient = nodeC.fields.contains(node);
+			boolean onServer = nodeS.fields.stream().anyMatch(f -> f.name.equals(node.name) && f.desc.equals(node.desc));
+
+			if (!onClient || !onServer) {
+				AnnotationVisitor av = node.visitAnnotation("Lnet/fabricmc/api/Environment;", false);
+				av.visitEnum("value", "Lnet/fabricmc/api/EnvType;", onClient ? "CLIENT" : "SERVER");
+				av.visitEnd();
+			}
+
+			nodeOut.fields.add(node);
+		}
+
+		Map<String, MethodNode> methods = new LinkedHashMap<>();
+		for (MethodNode node : nodeC.methods) methods.put(node.name + node.desc, node);
+		for (MethodNode node : nodeS.methods) methods.putIfAbsent(node.name + node.desc, node);
+
+		for (MethodNode node : methods.values()) {
+			boolean onClient = nodeC.methods.contains(node);
+			boolean onServer = nodeS.methods.stream().anyMatch(m -> m.name.equals(node.name) && m.desc.equals(node.desc));
+
+			if (!onClient || !onServer) {
+				AnnotationVisitor av = node.visitAnnotation("Lnet/fabricmc/api/Environment;", false);
+				av.visitEnum("value", "Lnet/fabricmc/api/EnvType;", onClient ? "CLIENT" : "SERVER");
+				av.visitEnd();
+			}
+
+			nodeOut.methods.add(node);
+		}
+
+		ClassWriter writer = new ClassWriter(0);
+		nodeOut.accept(writer);
+		return writer.toByteArray();
+	}
+
+	@Test
+	public void MergingMatchesTheClassNodeMerge() {
+		byte[] client = createClass(true);
+		byte[] server = createClass(false);
+		byte[] merged = new ClassMerger().merge(client, server);
+
+		Assertions.assertEquals(toText(mergeWithClassNodes(client, server)), toText(merged));
+		// the merged class still verifies, e.g. the client-only method's code is intact
+		new ClassReader(merged).accept(new CheckClassAdapter(new ClassWriter(0), true), 0);
+	}
+
+	@Test
+	public void RepeatedSidesAnnotateLikeTwoSides() {
+		byte[] client = createClass(true);
+		byte[] server = createClass(false);
+		String text = toText(new ClassMerger().merge(client, server));
+
+		Assertions.assertEquals(text, toText(new ClassMerger().merge(Arrays.asList("CLIENT", "SERVER", "CLIENT"), Arrays.asList(client, server, client))));
+		Assertions.assertEquals(text, toText(new ClassMerger().merge(Arrays.asList("client", "server", "server"), Arrays.asList(client, server, null))));
+	}
+
+	@Test
+	public void SidesLoaderDoesNotKnowAreRejected() {
+		byte[] client = createClass(true);
+		byte[] server = createClass(false);
+
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> new ClassMerger().merge(Arrays.asList("CLIENT", "SERVER", "TEST"), Arrays.asList(client, server, client)));
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, null, Arrays.asList("CLIENT", "SERVER")));
+	}
+
+	@Test
+	public void SideAnnotationsComeBeforeMembers() {
+		List<String> events = new ArrayList<>();
+		ClassVisitor recorder = new ClassVisitor(StitchUtil.ASM_VERSION) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				events.add("annotation " + descriptor);
+				return new AnnotationVisitor(api) { };
+			}
+
+			@Override
+			public void visitInnerClass(String name, String outerName, String innerName, int access) {
+				events.add("inner class");
+			}
+
+			@Override
+			public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+				events.add("field");
+				return null;
+			}
+
+			@Override
+			public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+				events.add("method");
+				return null;
+			}
+		};
+
+		new ClassReader(createClass(true)).accept(new ClassMerger.SidedClassVisitor(StitchUtil.ASM_VERSION, recorder, Collections.singletonList("CLIENT")), 0);
+		Assertions.assertEquals(Arrays.asList("annotation Ltest/Existing;", "annotation Lnet/fabricmc/api/Environment;", "inner class"), events.subList(0, 3));
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.merge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.stitch.util.StitchUtil;
+
+public class TestJarMerger {
+	private static final int FILLER_COUNT = 200;
+
+	private Path dir;
+	private File client;
+	private File server;
+
+	private static byte[] createEmptyClass(String name) {
+		ClassWriter writer = new ClassWriter(0);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+		writer.visitEnd();
+		return writer.toByteArray();
+	}
+
+	private static void writeJar(File file, Map<String, byte[]> entries) throws IOException {
+		try (OutputStream stream = Files.newOutputStream(file.toPath()); ZipOutputStream zip = new ZipOutputStream(stream)) {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				zip.putNextEntry(new ZipEntry(entry.getKey()));
+				zip.write(entry.getValue());
+			}
+		}
+	}
+
+	private static Map<String, byte[]> readJar(File file) throws IOException {
+		Map<String, byte[]> entries = new TreeMap<>();
+
+		try (ZipFile zip = new ZipFile(file)) {
+			for (ZipEntry entry : Collections.list(zip.entries())) {
+				if (!entry.isDirectory()) entries.put(entry.getName(), ByteStreams.toByteArray(zip.getInputStream(entry)));
+			}
+		}
+
+		return entries;
+	}
+
+	private static List<String> getAnnotations(byte[] data) {
+		List<String> annotations = new ArrayList<>();
+
+		new ClassReader(data).accept(new ClassVisitor(StitchUtil.ASM_VERSION) {
+			@Override
+			public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+				annotations.add(descriptor);
+				return null;
+			}
+		}, 0);
+
+		return annotations;
+	}
+
+	/**
+	 * Returns the Environment annotations of a class and its members, in the order they are written.
+	 */
+	private static List<String> getSideAnnotations(byte[] data) {
+		return Arrays.stream(TestClassMerger.toText(data).split("\n"))
+				.map(String::trim)
+				.filter(line -> line.startsWith("@Lnet/fabricmc/api/Environment"))
+				.collect(Collectors.toList());
+	}
+
+	@BeforeEach
+	public void createJars() throws IOException {
+		dir = Files.createTempDirectory("stitch");
+		client = dir.resolve("client.jar").toFile();
+		server = dir.resolve("server.jar").toFile();
+
+		Map<String, byte[]> clientEntries = new LinkedHashMap<>();
+		clientEntries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+		clientEntries.put("META-INF/MOJANGCS.SF", new byte[1]);
+		clientEntries.put("test/Merged.class", TestClassMerger.createClass(true));
+		clientEntries.put("test/ClientOnly.class", createEmptyClass("test/ClientOnly"));
+		clientEntries.put("assets/icon.txt", "client".getBytes(StandardCharsets.UTF_8));
+
+		Map<String, byte[]> serverEntries = new LinkedHashMap<>();
+		serverEntries.put("test/Merged.class", TestClassMerger.createClass(false));
+		serverEntries.put("net/minecraft/ServerOnly.class", createEmptyClass("net/minecraft/ServerOnly"));
+		// a bundled library, which the client does not have
+		serverEntries.put("com/google/Library.class", createEmptyClass("com/google/Library"));
+		serverEntries.put("assets/icon.txt", "server".getBytes(StandardCharsets.UTF_8));
+
+		// enough shared classes to fill the queues between the stages
+		for (int i = 0; i < FILLER_COUNT; i++) {
+			byte[] filler = createEmptyClass("net/minecraft/Filler" + i);
+			clientEntries.put("net/minecraft/Filler" + i + ".class", filler);
+			serverEntries.put("net/minecraft/Filler" + i + ".class", filler);
+		}
+
+		writeJar(client, clientEntries);
+		writeJar(server, serverEntries);
+	}
+
+	@AfterEach
+	public void deleteJars() throws IOException {
+		MoreFiles.deleteRecursively(dir, RecursiveDeleteOption.ALLOW_INSECURE);
+	}
+
+	private File merge(String name, List<String> sides, List<File> inputs, int readThreads, int mergeThreads, int queueSize, MergeCache cache)
+			throws IOException {
+		File output = dir.resolve(name).toFile();
+
+		try (JarMerger merger = new JarMerger(sides, inputs, output)) {
+			merger.setReadThreads(readThreads);
+			merger.setMergeThreads(mergeThreads);
+			merger.setQueueCapacity(queueSize);
+			if (cache != null) merger.setCache(cache);
+			merger.merge();
+
+			for (MergePipeline.StageStats stats : merger.getStageStats()) {
+				Assertions.assertTrue(stats.getItems() > FILLER_COUNT, stats.toString());
+			}
+		}
+
+		return output;
+	}
+
+	private File merge(String name, int readThreads, int mergeThreads, int queueSize) throws IOException {
+		return merge(name, Arrays.asList("CLIENT", "SERVER"), Arrays.asList(client, server), readThreads, mergeThreads, queueSize, null);
+	}
+
+	@Test
+	public void MergingCombinesBothSides() throws IOException {
+		Map<String, byte[]> merged = readJar(merge("merged.jar", 2, 4, 8));
+
+		List<String> names = merged.keySet().stream().filter(name -> !name.startsWith("net/minecraft/Filler")).collect(Collectors.toList());
+		Assertions.assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "assets/icon.txt", "net/minecraft/ServerOnly.class", "test/ClientOnly.class", "test/Merged.class"), names);
+		Assertions.assertEquals(FILLER_COUNT + names.size(), merged.size());
+
+		Assertions.assertEquals("Manifest-Version: 1.0\nMain-Class: net.minecraft.client.Main\n", new String(merged.get("META-INF/MANIFEST.MF"), StandardCharsets.UTF_8));
+		Assertions.assertEquals("client", new String(merged.get("assets/icon.txt"), StandardCharsets.UTF_8));
+		Assertions.assertArrayEquals(new ClassMerger().merge(TestClassMerger.createClass(true), TestClassMerger.createClass(false)), merged.get("test/Merged.class"));
+		Assertions.assertEquals(Collections.singletonList("Lnet/fabricmc/api/Environment;"), getAnnotations(merged.get("test/ClientOnly.class")));
+		Assertions.assertEquals(Collections.singletonList("Lnet/fabricmc/api/Environment;"), getAnnotations(merged.get("net/minecraft/ServerOnly.class")));
+		Assertions.assertArrayEquals(createEmptyClass("net/minecraft/Filler0"), merged.get("net/minecraft/Filler0.class"));
+	}
+
+	@Test
+	public void OutputDoesNotDependOnThreadsOrQueueSize() throws IOException {
+		byte[] sequential = Files.readAllBytes(merge("sequential.jar", 1, 1, 1).toPath());
+
+		Assertions.assertArrayEquals(sequential, Files.readAllBytes(merge("parallel.jar", 3, 4, 2).toPath()));
+		Assertions.assertArrayEquals(sequential, Files.readAllBytes(merge("unbounded.jar", 2, 8, 10000).toPath()));
+	}
+
+	@Test
+	public void RepeatedSidesMergeLikeTwoSides() throws IOException {
+		byte[] twoSides = Files.readAllBytes(merge("two.jar", 2, 4, 8).toPath());
+		File threeSides = merge("three.jar", Arrays.asList("CLIENT", "SERVER", "CLIENT"), Arrays.asList(client, server, client), 2, 4, 8, null);
+
+		Assertions.assertArrayEquals(twoSides, Files.readAllBytes(threeSides.toPath()));
+	}
+
+	@Test
+	public void ThirdInputAnnotatesLikeItsSide() throws IOException {
+		File server2 = dir.resolve("server2.jar").toFile();
+		Map<String, byte[]> server2Entries = new LinkedHashMap<>();
+		server2Entries.put("test/Merged.class", TestClassMerger.createClass(false));
+		server2Entries.put("net/minecraft/ServerExtra.class", createEmptyClass("net/minecraft/ServerExtra"));
+		writeJar(server2, server2Entries);
+
+		Map<String, byte[]> merged = readJar(merge("merged.jar", Arrays.asList("CLIENT", "SERVER", "SERVER"), Arrays.asList(client, server, server2), 2, 4, 8, null));
+
+		Assertions.assertEquals(Collections.singletonList("@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.SERVER)"),
+				getSideAnnotations(merged.get("net/minecraft/ServerExtra.class")));
+		Assertions.assertEquals(Collections.singletonList("@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.CLIENT)"),
+				getSideAnnotations(merged.get("test/ClientOnly.class")));
+		Assertions.assertEquals(Collections.emptyList(), getSideAnnotations(merged.get("net/minecraft/Filler0.class")));
+		// one entry per interface, naming the only side it is on, and none for the interface every side has
+		Assertions.assertEquals(Arrays.asList(
+				"@Lnet/fabricmc/api/EnvironmentInterfaces;(value={@Lnet/fabricmc/api/EnvironmentInterface;(value=Lnet/fabricmc/api/EnvType;.CLIENT, itf=test.ClientOnly.class), "
+						+ "@Lnet/fabricmc/api/EnvironmentInterface;(value=Lnet/fabricmc/api/EnvType;.SERVER, itf=test.ServerOnly.class)}) // invisible",
+				"@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.CLIENT) // invisible",
+				"@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.SERVER) // invisible",
+				"@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.CLIENT) // invisible",
+				"@Lnet/fabricmc/api/Environment;(value=Lnet/fabricmc/api/EnvType;.SERVER) // invisible"),
+				getSideAnnotations(merged.get("test/Merged.class")));
+	}
+
+	@Test
+	public void SidesLoaderDoesNotKnowAreRejected() {
+		File test = dir.resolve("test.jar").toFile();
+
+		Assertions.assertThrows(IllegalArgumentException.class,
+				() -> new JarMerger(Arrays.asList("CLIENT", "SERVER", "TEST"), Arrays.asList(client, server, test), dir.resolve("merged.jar").toFile()));
+	}
+
+	@Test
+	public void CachedClassesGiveTheSameJar() throws IOException {
+		MergeCache cache = new MergeCache(dir.resolve("cache"));
+		List<String> sides = Arrays.asList("CLIENT", "SERVER");
+
+		byte[] uncached = Files.readAllBytes(merge("uncached.jar", 2, 4, 8).toPath());
+		byte[] first = Files.readAllBytes(merge("first.jar", sides, Arrays.asList(client, server), 2, 4, 8, cache).toPath());
+		Assertions.assertEquals(0, cache.getClassHits());
+		// the classes only on one side and the one which differs, the others are not looked up
+		Assertions.assertEquals(3, cache.getClassMisses());
+
+		byte[] second = Files.readAllBytes(merge("second.jar", sides, Arrays.asList(client, server), 2, 4, 8, cache).toPath());
+		Assertions.assertEquals(3, cache.getClassHits());
+		Assertions.assertEquals(3, cache.getClassMisses());
+
+		Assertions.assertArrayEquals(uncached, first);
+		Assertions.assertArrayEquals(uncached, second);
+	}
+
+	@Test
+	public void JarKeysFollowTheInputsAndFlags() throws IOException {
+		MergeCache cache = new MergeCache(dir.resolve("cache"));
+		String flags = JarMerger.getFlags(Arrays.asList("client", "server"), false, false);
+		String key = cache.getJarKey(flags, client, server);
+
+		Assertions.assertEquals(key, cache.getJarKey(JarMerger.getFlags(Arrays.asList("CLIENT", "SERVER"), false, false), client, server));
+		Assertions.assertNotEquals(key, cache.getJarKey(JarMerger.getFlags(Arrays.asList("CLIENT", "SERVER"), true, false), client, server));
+		Assertions.assertNotEquals(key, cache.getJarKey(JarMerger.getFlags(Arrays.asList("CLIENT", "SERVER"), false, true), client, server));
+		Assertions.assertNotEquals(key, cache.getJarKey(flags, server, client));
+
+		Assertions.assertNull(cache.getJar(key));
+		File merged = merge("merged.jar", 2, 4, 8);
+		cache.putJar(key, merged);
+		Assertions.assertArrayEquals(Files.readAllBytes(merged.toPath()), Files.readAllBytes(cache.getJar(key)));
+
+		// a changed input has a different key
+		writeJar(server, Collections.singletonMap("net/minecraft/ServerOnly.class", createEmptyClass("net/minecraft/ServerOnly")));
+		Assertions.assertNotEquals(key, cache.getJarKey(flags, client, server));
+	}
+
+	@Test
+	public void DevelopmentBuildsAreKeyedOnTheirCode() throws IOException {
+		Path code = dir.resolve("code");
+		Files.createDirectories(code.resolve("net/fabricmc/stitch"));
+		Files.write(code.resolve("net/fabricmc/stitch/Main.class"), createEmptyClass("net/fabricmc/stitch/Main"));
+		Files.write(code.resolve("README"), new byte[] { 1 });
+		String version = MergeCache.hashCodeSource(code);
+
+		// only the class files count
+		Files.write(code.resolve("README"), new byte[] { 2 });
+		Assertions.assertEquals(version, MergeCache.hashCodeSource(code));
+
+		Files.write(code.resolve("net/fabricmc/stitch/Main.class"), createEmptyClass("net/fabricmc/stitch/Main2"));
+		Assertions.assertNotEquals(version, MergeCache.hashCodeSource(code));
+		Assertions.assertNotEquals(MergeCache.hashCodeSource(client.toPath()), MergeCache.hashCodeSource(server.toPath()));
+	}
+}
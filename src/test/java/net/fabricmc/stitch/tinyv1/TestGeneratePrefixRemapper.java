@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv1;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.CommandGeneratePrefixRemapper;
+import net.fabricmc.stitch.util.ZipReader;
+
+public class TestGeneratePrefixRemapper {
+	private static final byte[] DATA = "class data".getBytes(StandardCharsets.UTF_8);
+
+	private static void putStored(ZipOutputStream zip, String name) throws Exception {
+		ZipEntry entry = new ZipEntry(name);
+		CRC32 crc = new CRC32();
+		crc.update(DATA);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(DATA.length);
+		entry.setCrc(crc.getValue());
+		zip.putNextEntry(entry);
+		zip.write(DATA);
+	}
+
+	private static List<String> generate(Path jar, String... names) throws Exception {
+		Path output = Files.createTempFile("stitch", ".tiny");
+
+		try {
+			String[] args = {jar.toString(), "prefix/", output.toString()};
+			if (names.length > 0) args = new String[] {jar.toString(), "prefix/", output.toString(), names[0], names[1]};
+			new CommandGeneratePrefixRemapper().run(args);
+			return Files.readAllLines(output, StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void TopLevelClassesArePrefixedWithoutReadingTheirData() throws Exception {
+		Path jar = Files.createTempFile("stitch", ".jar");
+
+		try {
+			try (OutputStream stream = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(stream)) {
+				putStored(zip, "b.class");
+				putStored(zip, "a.class");
+				putStored(zip, "a$1.class");
+				putStored(zip, "net/minecraft/Main.class");
+				putStored(zip, "pack.mcmeta");
+				zip.putNextEntry(new ZipEntry("META-INF/"));
+			}
+
+			// breaks every checksum, which only matters to readers of the data
+			byte[] bytes = Files.readAllBytes(jar);
+			for (int i = 0; i + DATA.length <= bytes.length; i++) {
+				if (Arrays.equals(DATA, Arrays.copyOfRange(bytes, i, i + DATA.length))) bytes[i] = 'X';
+			}
+			Files.write(jar, bytes);
+
+			Assertions.assertEquals(Arrays.asList(
+							"v1\tinput\toutput",
+							"CLASS\tb\tprefix/b",
+							"CLASS\ta\tprefix/a",
+							"CLASS\ta$1\tprefix/a$1"
+			), generate(jar));
+			Assertions.assertEquals("v1\tofficial\tprefixed", generate(jar, "official", "prefixed").get(0));
+		} finally {
+			Files.delete(jar);
+		}
+	}
+
+	@Test
+	public void Zip64JarsAreRead() throws Exception {
+		Path jar = Files.createTempFile("stitch", ".jar");
+
+		try {
+			// more entries than the end record holds, so the jar gets ZIP64 records
+			try (OutputStream stream = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(stream)) {
+				for (int i = 0; i < ZipReader.MAX_ENTRIES; i++) {
+					zip.putNextEntry(new ZipEntry("assets/" + i + ".txt"));
+				}
+
+				putStored(zip, "a.class");
+			}
+
+			Assertions.assertEquals(Arrays.asList("v1\tinput\toutput", "CLASS\ta\tprefix/a"), generate(jar));
+		} finally {
+			Files.delete(jar);
+		}
+	}
+}
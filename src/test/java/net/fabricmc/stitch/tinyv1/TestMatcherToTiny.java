@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv1;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.CommandMatcherToTiny;
+
+public class TestMatcherToTiny {
+	private static final String MATCHES = String.join("\n",
+					"Matches saved auto-generated",
+					"\ta:",
+					"\t\tcp:",
+					"c\tLb;\tLnet/minecraft/class_2;",
+					"\tf\tb;;I\tfield_2;;I",
+					"\tm\ta(Lb;)V\tmethod_2(Lnet/minecraft/class_2;)V",
+					"\tm\ta()V\tmethod_1()V",
+					"\t\tma\t0\t0",
+					"c\tLa;\tLnet/minecraft/class_1;",
+					"\tf\ta;;Lb;\tfield_1;;Lnet/minecraft/class_2;",
+					"");
+
+	private static List<String> convert(String matches, String... options) throws Exception {
+		Path input = Files.createTempFile("stitch", ".match");
+		Path output = Files.createTempFile("stitch", ".tiny");
+
+		try {
+			Files.write(input, matches.getBytes(StandardCharsets.UTF_8));
+			List<String> args = new ArrayList<>(Arrays.asList(input.toString(), output.toString(), "official", "intermediary"));
+			args.addAll(Arrays.asList(options));
+			new CommandMatcherToTiny().run(args.toArray(new String[0]));
+			return Files.readAllLines(output, StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(input);
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void EntriesAreConvertedInTheOrderOfTheMatches() throws Exception {
+		Assertions.assertEquals(Arrays.asList(
+						"v1\tofficial\tintermediary",
+						"CLASS\tb\tnet/minecraft/class_2",
+						"FIELD\tb\tI\tb\tfield_2",
+						"METHOD\tb\t(Lb;)V\ta\tmethod_2",
+						"METHOD\tb\t()V\ta\tmethod_1",
+						"CLASS\ta\tnet/minecraft/class_1",
+						"FIELD\ta\tLb;\ta\tfield_1"
+		), convert(MATCHES));
+	}
+
+	@Test
+	public void SortingGroupsAndSortsEachEntryType() throws Exception {
+		Assertions.assertEquals(Arrays.asList(
+						"v1\tofficial\tintermediary",
+						"CLASS\ta\tnet/minecraft/class_1",
+						"CLASS\tb\tnet/minecraft/class_2",
+						"FIELD\ta\tLb;\ta\tfield_1",
+						"FIELD\tb\tI\tb\tfield_2",
+						"METHOD\tb\t()V\ta\tmethod_1",
+						"METHOD\tb\t(Lb;)V\ta\tmethod_2"
+		), convert(MATCHES, "--sort"));
+	}
+
+	@Test
+	public void SortingMoreThanFitsInMemoryGivesTheSameOutput() throws Exception {
+		StringBuilder matches = new StringBuilder();
+
+		// well over the 1 MiB budget, so the sort spills to several runs
+		for (int i = 0; i < 20000; i++) {
+			int n = (i * 7919) % 20000;
+			matches.append("c\tLc").append(n).append(";\tLnet/minecraft/class_").append(n).append(";\n");
+			matches.append("\tf\ta;;I\tfield_").append(n).append(";;I\n");
+			matches.append("\tm\ta()V\tmethod_").append(n).append("()V\n");
+		}
+
+		List<String> expected = convert(matches.toString());
+		List<String> sorted = convert(matches.toString(), "--sort", "--maxMemory", "1");
+
+		Assertions.assertEquals(expected.get(0), sorted.get(0));
+		List<String> entries = new ArrayList<>(expected.subList(1, expected.size()));
+		entries.sort((a, b) -> a.startsWith("C") == b.startsWith("C") && a.startsWith("F") == b.startsWith("F") ? a.compareTo(b)
+						: Integer.compare("CFM".indexOf(a.charAt(0)), "CFM".indexOf(b.charAt(0))));
+		Assertions.assertEquals(entries, sorted.subList(1, sorted.size()));
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv1;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.CommandMergeTiny;
+
+public class TestMergeTiny {
+	// sorted by the official names, as --sorted expects
+	private static final String INTERMEDIARY = String.join("\n",
+					"v1\tofficial\tintermediary",
+					"CLASS\ta\tnet/minecraft/class_1",
+					"CLASS\ta$b\tnet/minecraft/class_1$class_2",
+					"CLASS\ta$b$c\tnet/minecraft/class_1$class_2$class_3",
+					"CLASS\td\tnet/minecraft/class_4",
+					"FIELD\ta\tI\tb\tfield_1",
+					"FIELD\ta$b\tJ\ta\tfield_2",
+					"FIELD\td\tLa;\ta\tfield_3",
+					"METHOD\ta\t()V\tc\tmethod_1",
+					"METHOD\td\t(La$b;)V\ta\tmethod_2",
+					"");
+
+	private static final String NAMED = String.join("\n",
+					"v1\tofficial\tnamed",
+					"CLASS\ta\tnet/minecraft/Block",
+					"CLASS\ta$b\tnet/minecraft/Block$Settings",
+					"CLASS\te\tnet/minecraft/Other",
+					"FIELD\ta\tI\tb\tlevel",
+					"METHOD\ta\t()V\tc\ttick",
+					"METHOD\te\t()V\ta\trun",
+					"");
+
+	private static String merge(boolean sorted) throws IOException {
+		Path a = Files.createTempFile("stitch", ".tiny");
+		Path b = Files.createTempFile("stitch", ".tiny");
+		Path output = Files.createTempFile("stitch", ".tiny");
+
+		try {
+			Files.write(a, INTERMEDIARY.getBytes(StandardCharsets.UTF_8));
+			Files.write(b, NAMED.getBytes(StandardCharsets.UTF_8));
+			File[] files = {a.toFile(), b.toFile(), output.toFile()};
+
+			if (sorted) {
+				new CommandMergeTiny().runSorted(files[0], files[1], files[2], "intermediary", "official");
+			} else {
+				new CommandMergeTiny().run(files[0], files[1], files[2], "intermediary", "official");
+			}
+
+			return new String(Files.readAllBytes(output), StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(a);
+			Files.delete(b);
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void MergingFillsInNamesOfInnerClasses() throws IOException {
+		Assertions.assertEquals(String.join("\n",
+						"v1\tofficial\tintermediary\tnamed",
+						"CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/Block",
+						"CLASS\ta$b\tnet/minecraft/class_1$class_2\tnet/minecraft/Block$Settings",
+						"FIELD\ta$b\tJ\ta\tfield_2\tfield_2",
+						// the named inner class is missing, so it is named after the named outer classes
+						"CLASS\ta$b$c\tnet/minecraft/class_1$class_2$class_3\tnet/minecraft/Block$Settings$class_3",
+						"FIELD\ta\tI\tb\tfield_1\tlevel",
+						"METHOD\ta\t()V\tc\tmethod_1\ttick",
+						"CLASS\td\tnet/minecraft/class_4\tnet/minecraft/class_4",
+						"METHOD\td\t(La$b;)V\ta\tmethod_2\tmethod_2",
+						"FIELD\td\tLa;\ta\tfield_3\tfield_3",
+						"CLASS\te\te\tnet/minecraft/Other",
+						"METHOD\te\t()V\ta\ta\trun",
+						""), merge(false));
+	}
+
+	@Test
+	public void MergingSortedFilesGivesTheSameOutput() throws IOException {
+		Assertions.assertEquals(merge(false), merge(true));
+	}
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv1;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import net.fabricmc.stitch.commands.CommandProposeFieldNames;
+
+public class TestProposeFieldNames {
+	/**
+	 * Class a registers a.b with "stone", a.d, whose type is c, with "minecraft:grass_block" and a.f, a String, with
+	 * "minecraft:custom_name".
+	 */
+	private static Path createJar() throws Exception {
+		ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, "a", null, "java/lang/Object", null);
+		writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "b", "La;", null, null).visitEnd();
+		writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "d", "Lc;", null, null).visitEnd();
+		writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "e", "I", null, null).visitEnd();
+		writer.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "f", "Ljava/lang/String;", null, null).visitEnd();
+
+		MethodVisitor mv = writer.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+		mv.visitCode();
+		mv.visitLdcInsn("stone");
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "a", "register", "(Ljava/lang/String;)La;", false);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, "a", "b", "La;");
+		mv.visitLdcInsn("minecraft:grass_block");
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "a", "item", "(Ljava/lang/String;)Lc;", false);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, "a", "d", "Lc;");
+		mv.visitLdcInsn("minecraft:custom_name");
+		mv.visitMethodInsn(Opcodes.INVOKESTATIC, "a", "name", "(Ljava/lang/String;)Ljava/lang/String;", false);
+		mv.visitFieldInsn(Opcodes.PUTSTATIC, "a", "f", "Ljava/lang/String;");
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		writer.visitEnd();
+
+		Path jar = Files.createTempFile("stitch", ".jar");
+
+		try (OutputStream stream = Files.newOutputStream(jar); ZipOutputStream zip = new ZipOutputStream(stream)) {
+			zip.putNextEntry(new ZipEntry("a.class"));
+			zip.write(writer.toByteArray());
+		}
+
+		return jar;
+	}
+
+	private static List<String> propose(String... lines) throws Exception {
+		Path jar = createJar();
+		Path input = Files.createTempFile("stitch", ".tiny");
+		Path output = Files.createTempFile("stitch", ".tiny");
+
+		try {
+			Files.write(input, Arrays.asList(lines), StandardCharsets.UTF_8);
+			new CommandProposeFieldNames().run(new String[] {jar.toString(), input.toString(), output.toString()});
+			return Files.readAllLines(output, StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(jar);
+			Files.delete(input);
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void FieldsAreRenamedWhenOfficialComesFirst() throws Exception {
+		List<String> output = propose(
+				"v1\tofficial\tintermediary\tnamed",
+				"CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/class_1",
+				"FIELD\ta\tLa;\tb\tfield_1\tfield_1",
+				"FIELD\ta\tLc;\td\tfield_2\tfield_2",
+				"FIELD\ta\tI\te\tfield_3\tfield_3",
+				"FIELD\ta\tLjava/lang/String;\tf\tfield_5\tfield_5",
+				"CLASS\tc\tnet/minecraft/class_2\tnet/minecraft/class_2");
+
+		Assertions.assertEquals(Arrays.asList(
+				"v1\tofficial\tintermediary\tnamed",
+				"CLASS\ta\tnet/minecraft/class_1\tnet/minecraft/class_1",
+				"FIELD\ta\tLa;\tb\tfield_1\tSTONE",
+				"FIELD\ta\tLc;\td\tfield_2\tGRASS_BLOCK",
+				"FIELD\ta\tI\te\tfield_3\tfield_3",
+				"FIELD\ta\tLjava/lang/String;\tf\tfield_5\tCUSTOM_NAME",
+				"CLASS\tc\tnet/minecraft/class_2\tnet/minecraft/class_2"), output);
+	}
+
+	@Test
+	public void FieldsAreRenamedWhenClassesComeFirst() throws Exception {
+		// the JDK class in the middle never shows up, which must not stop the fields after it from being renamed
+		List<String> output = propose(
+				"v1\tintermediary\tofficial\tnamed",
+				"CLASS\tnet/minecraft/class_1\ta\tnet/minecraft/class_1",
+				"CLASS\tnet/minecraft/class_2\tc\tnet/minecraft/class_2",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_1;\tfield_1\tb\tfield_1",
+				"FIELD\tnet/minecraft/class_1\tLjava/lang/String;\tfield_5\tf\tfield_5",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_2;\tfield_2\td\tfield_2",
+				"FIELD\tnet/minecraft/class_1\tI\tfield_3\te\tfield_3");
+
+		Assertions.assertEquals(Arrays.asList(
+				"v1\tintermediary\tofficial\tnamed",
+				"CLASS\tnet/minecraft/class_1\ta\tnet/minecraft/class_1",
+				"CLASS\tnet/minecraft/class_2\tc\tnet/minecraft/class_2",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_1;\tfield_1\tb\tSTONE",
+				"FIELD\tnet/minecraft/class_1\tLjava/lang/String;\tfield_5\tf\tCUSTOM_NAME",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_2;\tfield_2\td\tGRASS_BLOCK",
+				"FIELD\tnet/minecraft/class_1\tI\tfield_3\te\tfield_3"), output);
+	}
+
+	@Test
+	public void FieldsBeforeTheirClassesAreRenamed() throws Exception {
+		// the classes of field_1 and field_2 only show up after them, the JDK class of field_5 never does
+		List<String> output = propose(
+				"v1\tintermediary\tofficial\tnamed",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_1;\tfield_1\tb\tfield_1",
+				"FIELD\tnet/minecraft/class_1\tLjava/lang/String;\tfield_5\tf\tfield_5",
+				"CLASS\tnet/minecraft/class_1\ta\tnet/minecraft/class_1",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_2;\tfield_2\td\tfield_2",
+				"FIELD\tnet/minecraft/class_1\tI\tfield_3\te\tfield_3",
+				"CLASS\tnet/minecraft/class_2\tc\tnet/minecraft/class_2",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_9;\tfield_4\tb\tfield_4");
+
+		Assertions.assertEquals(Arrays.asList(
+				"v1\tintermediary\tofficial\tnamed",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_1;\tfield_1\tb\tSTONE",
+				"FIELD\tnet/minecraft/class_1\tLjava/lang/String;\tfield_5\tf\tCUSTOM_NAME",
+				"CLASS\tnet/minecraft/class_1\ta\tnet/minecraft/class_1",
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_2;\tfield_2\td\tGRASS_BLOCK",
+				"FIELD\tnet/minecraft/class_1\tI\tfield_3\te\tfield_3",
+				"CLASS\tnet/minecraft/class_2\tc\tnet/minecraft/class_2",
+				// a class which never shows up keeps its name, so the descriptor matches no proposal
+				"FIELD\tnet/minecraft/class_1\tLnet/minecraft/class_9;\tfield_4\tb\tfield_4"), output);
+	}
+}
@@ -33,6 +33,9 @@ import net.fabricmc.mapping.tree.MethodDef;
 import net.fabricmc.mapping.tree.ParameterDef;
 import net.fabricmc.mapping.tree.TinyMappingFactory;
 import net.fabricmc.mapping.tree.TinyTree;
+import net.fabricmc.stitch.commands.tinyv2.CommandBuildLoomTinyV2;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
 
 public class Stable1_14_4 {
 	private static final String DIR = new File(Stable1_14_4.class.getClassLoader().getResource("stable-1.14.4").getPath()).getAbsolutePath() + "/";
@@ -45,6 +48,44 @@ public class Stable1_14_4 {
 		);
 	}
 
+	@Test
+	public void testReorderStreamed() throws Exception {
+		Commands.reorder(DIR + "intermediary-mappings.tinyv2",
+						DIR + "intermediary-mappings-inverted-in-memory.tinyv2",
+						"intermediary", "official"
+		);
+		Commands.reorder(DIR + "intermediary-mappings.tinyv2",
+						DIR + "intermediary-mappings-inverted-streamed.tinyv2",
+						"intermediary", "official", "--stream"
+		);
+
+		// the streamed output keeps the order of the input, so it is sorted like the other before comparing
+		TinyV2Writer.write(TinyV2Reader.read(Paths.get(DIR + "intermediary-mappings-inverted-streamed.tinyv2")),
+						Paths.get(DIR + "intermediary-mappings-inverted-streamed-sorted.tinyv2"));
+		Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(DIR + "intermediary-mappings-inverted-in-memory.tinyv2")),
+						Files.readAllBytes(Paths.get(DIR + "intermediary-mappings-inverted-streamed-sorted.tinyv2")));
+	}
+
+	@Test
+	public void testBuildLoom() throws Exception {
+		Commands.reorder(DIR + "intermediary-mappings.tinyv2",
+						DIR + "loom-steps-inverted.tinyv2",
+						"intermediary", "official"
+		);
+		Commands.merge(DIR + "loom-steps-inverted.tinyv2",
+						DIR + "yarn-mappings.tinyv2",
+						DIR + "loom-steps-merged.tinyv2"
+		);
+		Commands.reorder(DIR + "loom-steps-merged.tinyv2",
+						DIR + "loom-steps.tinyv2",
+						"official", "intermediary", "named"
+		);
+
+		new CommandBuildLoomTinyV2().run(new String[] {DIR + "intermediary-mappings.tinyv2", DIR + "yarn-mappings.tinyv2", DIR + "loom-built.tinyv2"});
+
+		Assertions.assertArrayEquals(Files.readAllBytes(Paths.get(DIR + "loom-steps.tinyv2")), Files.readAllBytes(Paths.get(DIR + "loom-built.tinyv2")));
+	}
+
 	@Test
 	@Disabled
 	public void testMerge() throws Exception {
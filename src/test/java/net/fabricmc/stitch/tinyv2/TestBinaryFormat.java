@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.tinyv2.TinyBinaryFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
+
+public class TestBinaryFormat {
+	private static final String DIR = new File(TestBinaryFormat.class.getClassLoader().getResource("sorted").getPath()).getAbsolutePath() + "/";
+
+	private void tryToConvertAndBack(String path) throws IOException {
+		Path binary = Paths.get(path + ".bin.temp");
+		Path text = Paths.get(path + ".temp");
+		TinyV2Writer.writeBinary(TinyV2Reader.read(Paths.get(path)), binary);
+		TinyV2Writer.write(TinyV2Reader.readBinary(binary), text);
+
+		String original = new String(Files.readAllBytes(Paths.get(path)));
+		String written = new String(Files.readAllBytes(text));
+		Assertions.assertEquals(original.replace("\r\n", "\n"), written.replace("\r\n", "\n"));
+	}
+
+	@Test
+	public void ConvertingToBinaryAndBackLeavesTheFileUnchanged() throws IOException {
+		tryToConvertAndBack(DIR + "intermediary-mappings.tinyv2");
+		tryToConvertAndBack(DIR + "yarn-mappings.tinyv2");
+		tryToConvertAndBack(DIR + "merged-proposed.tinyv2");
+		tryToConvertAndBack(DIR + "test-skip");
+	}
+
+	@Test
+	public void EntriesCanBeLookedUpInEveryNamespace() throws IOException {
+		Path binary = Paths.get(DIR + "merged-proposed.bin.temp");
+		TinyV2Writer.writeBinary(TinyV2Reader.read(Paths.get(DIR + "merged-proposed.tinyv2")), binary);
+
+		try (TinyBinaryFile file = new TinyBinaryFile(binary)) {
+			int official = file.getNamespaces().indexOf("official");
+			int intermediary = file.getNamespaces().indexOf("intermediary");
+
+			for (int c = 0; c < file.getClassCount(); c++) {
+				Assertions.assertEquals(c, file.findClass(intermediary, file.getClassName(c, intermediary)));
+			}
+
+			int method = file.findMethod(intermediary, "net/minecraft/class_3551", "method_15451", null);
+			Assertions.assertEquals("build", file.getMethodName(method, file.getNamespaces().indexOf("named")));
+			Assertions.assertEquals(method, file.findMethod(official, "aak", "a", "(Lcom/mojang/datafixers/DataFixerBuilder;)V"));
+			Assertions.assertEquals("aak", file.getClassName(file.getMethodOwner(method), official));
+			Assertions.assertEquals(-1, file.findMethod(official, "aak", "a", "(I)V"));
+			Assertions.assertEquals(-1, file.findClass(official, "missing"));
+		}
+	}
+}
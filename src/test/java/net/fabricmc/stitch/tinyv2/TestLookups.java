@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.tinyv2.TinyClass;
+import net.fabricmc.stitch.commands.tinyv2.TinyField;
+import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyHeader;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethodParameter;
+
+public class TestLookups {
+
+	@Test
+	public void testMembersAreFoundInEveryNamespace() {
+		TinyClass tinyClass = new TinyClass(Arrays.asList("a", "class_1", "Named"));
+		TinyMethod first = new TinyMethod("()V", Arrays.asList("a", "method_1", "run"), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		TinyMethod overload = new TinyMethod("(I)V", Arrays.asList("a", "method_2", "runWith"), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		tinyClass.getMethods().add(first);
+		tinyClass.getMethods().add(overload);
+
+		Assertions.assertSame(first, tinyClass.findMethod("a", "()V"));
+		Assertions.assertSame(overload, tinyClass.findMethod("a", "(I)V"));
+		Assertions.assertSame(overload, tinyClass.findMethod(2, "runWith", "(I)V"));
+		Assertions.assertNull(tinyClass.findMethod("a", "(J)V"));
+	}
+
+	@Test
+	public void testLookupsFollowChanges() {
+		TinyClass tinyClass = new TinyClass(Arrays.asList("a", "class_1"));
+		TinyField field = new TinyField("I", Arrays.asList("a", "field_1"), new ArrayList<>());
+		tinyClass.getFields().add(field);
+		Assertions.assertSame(field, tinyClass.findField(1, "field_1"));
+
+		TinyField added = new TinyField("I", Arrays.asList("b", "field_2"), new ArrayList<>());
+		tinyClass.getFields().add(added);
+		Assertions.assertSame(added, tinyClass.findField(1, "field_2"));
+
+		field.getFieldNames().set(1, "field_3");
+		Assertions.assertNull(tinyClass.findField(1, "field_1"));
+		tinyClass.invalidateIndexes();
+		Assertions.assertSame(field, tinyClass.findField(1, "field_3"));
+	}
+
+	@Test
+	public void testLookupsFollowRenamesToNewNames() {
+		TinyClass tinyClass = new TinyClass(Arrays.asList("a", "class_1"));
+		TinyField field = new TinyField("I", Arrays.asList("a", "field_1"), new ArrayList<>());
+		tinyClass.getFields().add(field);
+		Assertions.assertSame(field, tinyClass.findField(1, "field_1"));
+
+		field.getFieldNames().set(1, "field_2");
+		Assertions.assertSame(field, tinyClass.findField(1, "field_2"));
+		Assertions.assertNull(tinyClass.findField(1, "field_1"));
+
+		TinyMethod method = new TinyMethod("(I)V", Arrays.asList("a", "method_1"), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+		TinyMethodParameter parameter = new TinyMethodParameter(1, Arrays.asList("", "p"), new ArrayList<>());
+		method.getParameters().add(parameter);
+		Assertions.assertSame(parameter, method.findParameter(1, "p"));
+
+		parameter.getParameterNames().set(1, "value");
+		Assertions.assertSame(parameter, method.findParameter(1, "value"));
+		Assertions.assertNull(method.findParameter(1, "p"));
+	}
+
+	@Test
+	public void testLookupsFollowReplacedEntries() {
+		TinyClass first = new TinyClass(Arrays.asList("a", "class_1"));
+		TinyClass second = new TinyClass(Arrays.asList("b", "class_2"));
+		TinyFile file = new TinyFile(new TinyHeader(Arrays.asList("official", "intermediary"), 2, 0, Collections.emptyMap()), Arrays.asList(first, second));
+		Assertions.assertSame(second, file.findClass(1, "class_2"));
+
+		// same size, so only the count of changes tells the index apart
+		List<TinyClass> classes = (List<TinyClass>) file.getClassEntries();
+		TinyClass replacement = new TinyClass(Arrays.asList("c", "class_3"));
+		classes.set(1, replacement);
+		Assertions.assertSame(replacement, file.findClass(1, "class_3"));
+		Assertions.assertNull(file.findClass(1, "class_2"));
+
+		classes.get(0).getClassNames().set(0, "d");
+		Assertions.assertSame(first, file.findClass("d"));
+		Assertions.assertNull(file.findClass("a"));
+	}
+
+	@Test
+	public void testConstructorsCopyTheGivenCollections() {
+		List<String> names = new ArrayList<>(Arrays.asList("a", "method_1"));
+		List<TinyMethodParameter> parameters = new ArrayList<>();
+		List<String> comments = new ArrayList<>();
+		TinyMethod method = new TinyMethod("(I)V", names, parameters, new ArrayList<>(), comments);
+
+		TinyMethodParameter parameter = new TinyMethodParameter(1, Arrays.asList("", "p"), new ArrayList<>());
+		names.set(1, "method_2");
+		parameters.add(parameter);
+		comments.add("Added later");
+
+		Assertions.assertEquals(Arrays.asList("a", "method_1"), method.getMethodNames());
+		Assertions.assertTrue(method.getParameters().isEmpty());
+		Assertions.assertTrue(method.getComments().isEmpty());
+
+		// the entries themselves are kept, so changes to them show up
+		TinyClass tinyClass = new TinyClass(Arrays.asList("a", "class_1"), Collections.singletonList(method), new ArrayList<>(), new ArrayList<>());
+		method.getParameters().add(parameter);
+		Assertions.assertSame(parameter, tinyClass.findMethod("a", "(I)V").findParameter(1, "p"));
+	}
+}
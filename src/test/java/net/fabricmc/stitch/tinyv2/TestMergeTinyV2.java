@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.tinyv2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import net.fabricmc.stitch.commands.tinyv2.CommandMergeTinyV2;
+import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
+import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
+
+public class TestMergeTinyV2 {
+	static final String NAMED = String.join("\n",
+					"tiny\t2\t0\tintermediary\tnamed",
+					"c\tnet/minecraft/class_1\tnet/minecraft/Block",
+					"\tc\tA block.",
+					"\tm\t(I)V\tmethod_1\tsetLevel",
+					"\t\tp\t1\t\tlevel",
+					"\tf\tI\tfield_1\tlevel",
+					"c\tnet/minecraft/class_1$class_2\tnet/minecraft/Block$Settings",
+					"");
+
+	static final String OFFICIAL = String.join("\n",
+					"tiny\t2\t0\tintermediary\tofficial",
+					"c\tnet/minecraft/class_1\ta",
+					"\tm\t(I)V\tmethod_1\ta",
+					"\t\tp\t1\t\tb",
+					"\tm\t()V\tmethod_2\tb",
+					"\tf\tI\tfield_1\tc",
+					"c\tnet/minecraft/class_3\td",
+					"");
+
+	static final String SRG = String.join("\n",
+					"tiny\t2\t0\tintermediary\tsrg",
+					"c\tnet/minecraft/class_1\tC_1_",
+					"\tm\t(I)V\tmethod_1\tm_1_",
+					"\t\tp\t1\t\tp_1_",
+					"\tf\tI\tfield_1\tf_1_",
+					"c\tnet/minecraft/class_4\tC_4_",
+					"");
+
+	static TinyFile read(String text) throws IOException {
+		Path path = Files.createTempFile("stitch", ".tinyv2");
+
+		try {
+			Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+			return TinyV2Reader.read(path);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	static String merge(String... inputs) throws IOException {
+		List<TinyFile> files = new ArrayList<>();
+		for (String input : inputs) files.add(read(input));
+
+		TinyFile merged = new CommandMergeTinyV2().merge(files);
+		Path path = Files.createTempFile("stitch", ".tinyv2");
+
+		try {
+			TinyV2Writer.write(merged, path);
+			return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void MergingTwoFilesFillsInMissingNames() throws IOException {
+		Assertions.assertEquals(String.join("\n",
+						"tiny\t2\t0\tintermediary\tnamed\tofficial",
+						"c\tnet/minecraft/class_1\tnet/minecraft/Block\ta",
+						"\tc\tA block.",
+						"\tm\t(I)V\tmethod_1\tsetLevel\ta",
+						"\t\tp\t1\t\tlevel\tb",
+						"\tm\t()V\tmethod_2\tmethod_2\tb",
+						"\tf\tI\tfield_1\tlevel\tc",
+						// named after its enclosing class where the input has no name for it
+						"c\tnet/minecraft/class_1$class_2\tnet/minecraft/Block$Settings\ta$class_2",
+						"c\tnet/minecraft/class_3\tnet/minecraft/class_3\td",
+						""), merge(NAMED, OFFICIAL));
+	}
+
+	@Test
+	public void MergingThreeFilesFillsInMissingNames() throws IOException {
+		String merged = merge(NAMED, OFFICIAL, SRG);
+		Assertions.assertEquals(String.join("\n",
+						"tiny\t2\t0\tintermediary\tnamed\tofficial\tsrg",
+						"c\tnet/minecraft/class_1\tnet/minecraft/Block\ta\tC_1_",
+						"\tc\tA block.",
+						"\tm\t(I)V\tmethod_1\tsetLevel\ta\tm_1_",
+						"\t\tp\t1\t\tlevel\tb\tp_1_",
+						"\tm\t()V\tmethod_2\tmethod_2\tb\tmethod_2",
+						"\tf\tI\tfield_1\tlevel\tc\tf_1_",
+						"c\tnet/minecraft/class_1$class_2\tnet/minecraft/Block$Settings\ta$class_2\tC_1_$class_2",
+						"c\tnet/minecraft/class_3\tnet/minecraft/class_3\td\tnet/minecraft/class_3",
+						"c\tnet/minecraft/class_4\tnet/minecraft/class_4\tnet/minecraft/class_4\tC_4_",
+						""), merged);
+
+		// the same as merging two at a time
+		Assertions.assertEquals(merged, merge(merge(NAMED, OFFICIAL), SRG));
+	}
+
+	@Test
+	public void DuplicateClassesMethodsAndFieldsAreRejected() throws IOException {
+		String duplicateClass = OFFICIAL + "c\tnet/minecraft/class_1\te\n";
+		IllegalStateException e = Assertions.assertThrows(IllegalStateException.class, () -> merge(NAMED, duplicateClass));
+		Assertions.assertTrue(e.getMessage().startsWith("Duplicate key [net/minecraft/class_1, "), e.getMessage());
+		Assertions.assertTrue(e.getMessage().endsWith("in input 2"), e.getMessage());
+
+		String duplicateMethod = NAMED.replace("\tf\tI", "\tm\t(I)V\tmethod_1\tsetOther\n\tf\tI");
+		Assertions.assertThrows(IllegalStateException.class, () -> merge(duplicateMethod, OFFICIAL));
+
+		String duplicateField = OFFICIAL + "c\tnet/minecraft/class_4\tf\n\tf\tI\tfield_2\tg\n\tf\tJ\tfield_2\th\n";
+		Assertions.assertThrows(IllegalStateException.class, () -> merge(NAMED, duplicateField));
+	}
+
+	@Test
+	public void DuplicateParametersAreKeptOnTheirOwn() throws IOException {
+		String duplicateParameter = NAMED.replace("\t\tp\t1\t\tlevel\n", "\t\tp\t1\t\tlevel\n\t\tp\t1\t\tvalue\n");
+		String merged = merge(duplicateParameter, OFFICIAL);
+
+		// only the first is matched with the other input
+		Assertions.assertTrue(merged.contains("\t\tp\t1\t\tlevel\tb\n\t\tp\t1\t\tvalue\t\n"), merged);
+	}
+}
@@ -16,16 +16,29 @@
 
 package net.fabricmc.stitch.tinyv2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import net.fabricmc.stitch.commands.tinyv2.TinyClass;
+import net.fabricmc.stitch.commands.tinyv2.TinyField;
 import net.fabricmc.stitch.commands.tinyv2.TinyFile;
+import net.fabricmc.stitch.commands.tinyv2.TinyHeader;
+import net.fabricmc.stitch.commands.tinyv2.TinyMethod;
 import net.fabricmc.stitch.commands.tinyv2.TinyV2Reader;
 import net.fabricmc.stitch.commands.tinyv2.TinyV2Writer;
 
@@ -54,4 +67,161 @@ public class TestTinyV2ReadAndWrite {
 		tryToReadAndWrite(DIR + "merged-proposed.tinyv2");
 		tryToReadAndWrite(DIR + "test-skip");
 	}
+
+	// added in reverse to make the writer sort them
+	private static TinyFile createTinyFile(int classCount) {
+		List<TinyClass> classes = new ArrayList<>();
+		for (int i = classCount - 1; i >= 0; i--) {
+			TinyClass tinyClass = new TinyClass(Arrays.asList("a" + i, "class_" + i));
+			tinyClass.getFields().add(new TinyField("I", Arrays.asList("b", "field_" + i), new ArrayList<>()));
+			tinyClass.getFields().add(new TinyField("J", Arrays.asList("a", "field_" + (i + classCount)), new ArrayList<>()));
+			tinyClass.getMethods().add(new TinyMethod("()V", Arrays.asList("a", "method_" + i), new ArrayList<>(), new ArrayList<>(), new ArrayList<>()));
+			classes.add(tinyClass);
+		}
+
+		return new TinyFile(new TinyHeader(Arrays.asList("official", "intermediary"), 2, 0, new HashMap<>()), classes);
+	}
+
+	@Test
+	public void WritingInParallelGivesTheSameOutput() throws IOException {
+		// enough classes for many blocks
+		TinyFile tinyFile = createTinyFile(1000);
+		Path sequential = Paths.get(DIR + "parallel-sequential.temp");
+		Path parallel = Paths.get(DIR + "parallel.temp");
+
+		TinyV2Writer.write(tinyFile, sequential);
+		TinyV2Writer.write(tinyFile, parallel, 4);
+
+		Assertions.assertEquals(new String(Files.readAllBytes(sequential)), new String(Files.readAllBytes(parallel)));
+	}
+
+	@Test
+	public void ReadingInParallelGivesTheSameFile() throws IOException {
+		// large enough to be split into several chunks
+		Path original = Paths.get(DIR + "parallel-original.temp");
+		TinyV2Writer.write(createTinyFile(20000), original);
+
+		Path sequential = Paths.get(DIR + "parallel-read-sequential.temp");
+		Path parallel = Paths.get(DIR + "parallel-read.temp");
+		TinyV2Writer.write(TinyV2Reader.read(original), sequential);
+		TinyV2Writer.write(TinyV2Reader.read(original, 4), parallel);
+
+		Assertions.assertEquals(new String(Files.readAllBytes(sequential)), new String(Files.readAllBytes(parallel)));
+	}
+
+	@Test
+	public void ReadingLazilyGivesTheSameFile() throws IOException {
+		Path original = Paths.get(DIR + "lazy.temp");
+		Path index = Paths.get(DIR + "lazy.temp.index");
+		TinyV2Writer.write(createTinyFile(100), original);
+		Files.deleteIfExists(index);
+
+		// the first read creates the index, the second one uses it, and the third one goes without
+		for (int i = 0; i < 3; i++) {
+			TinyFile lazy = TinyV2Reader.readLazily(original, i < 2 ? index : null);
+			Assertions.assertEquals("a42", lazy.findClass(1, "class_42").getClassNames().get(0));
+			Assertions.assertNull(lazy.findClass(1, "class_100"));
+
+			Path written = Paths.get(DIR + "lazy-written.temp");
+			TinyV2Writer.write(lazy, written);
+			Assertions.assertEquals(new String(Files.readAllBytes(original)), new String(Files.readAllBytes(written)));
+		}
+
+		Assertions.assertTrue(Files.exists(index));
+	}
+
+	@Test
+	public void ReadingLazilyOnlyKeepsAnIndexWhenAsked() throws IOException {
+		Path original = Paths.get(DIR + "lazy-unindexed.temp");
+		TinyV2Writer.write(createTinyFile(10), original);
+		Files.deleteIfExists(Paths.get(DIR + "lazy-unindexed.temp.index"));
+
+		Assertions.assertEquals("a4", TinyV2Reader.readLazily(original).findClass(1, "class_4").getClassNames().get(0));
+		Assertions.assertFalse(Files.exists(Paths.get(DIR + "lazy-unindexed.temp.index")));
+	}
+
+	@Test
+	public void ReadingLazilyRebuildsAStaleIndex() throws IOException {
+		Path original = Paths.get(DIR + "lazy-stale.temp");
+		Path index = Paths.get(DIR + "lazy-stale.temp.index");
+		TinyV2Writer.write(createTinyFile(100), original);
+		Files.deleteIfExists(index);
+		TinyV2Reader.readLazily(original, index);
+
+		// renamed in place, so the file keeps its size and may keep its modification time
+		FileTime modified = Files.getLastModifiedTime(original);
+		String renamed = new String(Files.readAllBytes(original), StandardCharsets.UTF_8).replace("class_4", "klass_4");
+		Files.write(original, renamed.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(original, modified);
+
+		TinyFile lazy = TinyV2Reader.readLazily(original, index);
+		Assertions.assertEquals("a42", lazy.findClass(1, "klass_42").getClassNames().get(0));
+		Assertions.assertNull(lazy.findClass(1, "class_42"));
+		Assertions.assertEquals("klass_43", lazy.findClass(0, "a43").getClassNames().get(1));
+
+		Path written = Paths.get(DIR + "lazy-stale-written.temp");
+		TinyV2Writer.write(lazy, written);
+		Assertions.assertEquals(renamed, new String(Files.readAllBytes(written), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void ReadingLazilyRebuildsAnIndexChangedPastTheSampledPrefix() throws IOException {
+		Path original = Paths.get(DIR + "lazy-stale-large.temp");
+		Path index = Paths.get(DIR + "lazy-stale-large.temp.index");
+		TinyV2Writer.write(createTinyFile(2000), original);
+		Files.deleteIfExists(index);
+		TinyV2Reader.readLazily(original, index);
+
+		// a class well past the prefix which is hashed, renamed in place but with a new modification time
+		String text = new String(Files.readAllBytes(original), StandardCharsets.UTF_8);
+		int start = text.indexOf("\nc\t", 100000) + 1;
+		String line = text.substring(start, text.indexOf('\n', start));
+		String name = line.substring(line.lastIndexOf('\t') + 1);
+		String renamed = text.substring(0, start) + line.replace("\tclass_", "\tklass_") + text.substring(start + line.length());
+		FileTime modified = Files.getLastModifiedTime(original);
+		Files.write(original, renamed.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(original, FileTime.fromMillis(modified.toMillis() + 2000));
+
+		TinyFile lazy = TinyV2Reader.readLazily(original, index);
+		Assertions.assertNull(lazy.findClass(1, name));
+		Assertions.assertNotNull(lazy.findClass(1, "k" + name.substring(1)));
+	}
+
+	@Test
+	public void WritingALazyFileOverItselfKeepsItsClasses() throws IOException {
+		Path original = Paths.get(DIR + "lazy-overwritten.temp");
+		TinyV2Writer.write(createTinyFile(100), original);
+		byte[] contents = Files.readAllBytes(original);
+
+		TinyFile lazy = TinyV2Reader.readLazily(original);
+		Assertions.assertEquals("a42", lazy.findClass(1, "class_42").getClassNames().get(0));
+		TinyV2Writer.write(lazy, original);
+		Assertions.assertEquals(new String(contents), new String(Files.readAllBytes(original)));
+
+		// every class was parsed before the file was replaced
+		Assertions.assertEquals("a99", lazy.findClass(1, "class_99").getClassNames().get(0));
+		TinyV2Writer.write(lazy, original, 4);
+		Assertions.assertEquals(new String(contents), new String(Files.readAllBytes(original)));
+	}
+
+	@Test
+	public void WritingAndReadingCompressedFilesGivesTheSameFile() throws IOException {
+		// large enough to be compressed in several blocks
+		TinyFile tinyFile = createTinyFile(50000);
+		Path plain = Paths.get(DIR + "compressed-plain.temp");
+		Path compressed = Paths.get(DIR + "compressed.temp.gz");
+		TinyV2Writer.write(tinyFile, plain);
+		TinyV2Writer.write(tinyFile, compressed, 4);
+
+		Path written = Paths.get(DIR + "compressed-written.temp");
+		TinyV2Writer.write(TinyV2Reader.read(compressed, 4), written);
+		Assertions.assertEquals(new String(Files.readAllBytes(plain)), new String(Files.readAllBytes(written)));
+
+		try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n; (n = in.read(buffer)) > 0; ) out.write(buffer, 0, n);
+			Assertions.assertArrayEquals(Files.readAllBytes(plain), out.toByteArray());
+		}
+	}
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+public class TestDescriptorRemapper {
+	private static final String[] PRIMITIVES = {"B", "C", "D", "F", "I", "J", "S", "Z"};
+
+	private static String createType(Random random, int classCount) {
+		StringBuilder type = new StringBuilder();
+		while (random.nextInt(4) == 0) type.append('[');
+
+		if (random.nextBoolean()) {
+			type.append(PRIMITIVES[random.nextInt(PRIMITIVES.length)]);
+		} else {
+			// some of the classes are not in the map
+			type.append("Lnet/minecraft/class_").append(random.nextInt(classCount * 2)).append(';');
+		}
+
+		return type.toString();
+	}
+
+	private static String createMethodDescriptor(Random random, int classCount) {
+		StringBuilder descriptor = new StringBuilder("(");
+		int parameters = random.nextInt(5);
+		for (int i = 0; i < parameters; i++) descriptor.append(createType(random, classCount));
+		descriptor.append(')').append(random.nextInt(3) == 0 ? "V" : createType(random, classCount));
+		return descriptor.toString();
+	}
+
+	@Test
+	public void DescriptorsAreRemappedLikeAsm() {
+		Random random = new Random(42);
+		int classCount = 100;
+		Map<String, String> classNames = new HashMap<>();
+		for (int i = 0; i < classCount; i++) classNames.put("net/minecraft/class_" + i, "c" + i);
+
+		DescriptorRemapper remapper = new DescriptorRemapper(classNames);
+		SimpleRemapper expected = new SimpleRemapper(classNames);
+
+		// enough descriptors that many come up again and are remembered
+		for (int i = 0; i < 5000; i++) {
+			String method = createMethodDescriptor(random, classCount);
+			Assertions.assertEquals(expected.mapMethodDesc(method), remapper.remapMethodDescriptor(method));
+			String field = createType(random, classCount);
+			Assertions.assertEquals(expected.mapDesc(field), remapper.remapFieldDescriptor(field));
+		}
+	}
+
+	@Test
+	public void MalformedDescriptorsAreRejected() {
+		DescriptorRemapper remapper = new DescriptorRemapper(new HashMap<>());
+
+		for (String method : new String[] {"", "V", "(I", "(I)", "()VV", "(Q)V", "(L;)V", "(Ljava/lang/Object)V", "([)V"}) {
+			Assertions.assertThrows(IllegalArgumentException.class, () -> remapper.remapMethodDescriptor(method), method);
+		}
+
+		for (String field : new String[] {"", "[", "V", "II", "Ljava/lang/Object", "L;"}) {
+			Assertions.assertThrows(IllegalArgumentException.class, () -> remapper.remapFieldDescriptor(field), field);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestExternalSort {
+	private static List<String> createRecords(int count) {
+		Random random = new Random(42);
+		List<String> records = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			// shared prefixes, duplicates, prefixes of other records and the '\0' separator
+			StringBuilder record = new StringBuilder(random.nextBoolean() ? "1net/minecraft/class_" : "2");
+			record.append(random.nextInt(count / 4));
+
+			if (random.nextInt(4) != 0) {
+				record.append('\0').append("(IL").append(random.nextInt(10)).append(";)V");
+			}
+
+			if (random.nextInt(8) == 0) {
+				record.append('\u00e9').append('\uffff');
+			}
+
+			records.add(record.toString());
+		}
+
+		return records;
+	}
+
+	private static List<String> sort(List<String> records, long memoryBudget, Path tempDir, IntConsumer checkRunCount) throws IOException {
+		List<String> sorted = new ArrayList<>(records.size());
+
+		try (ExternalSort sort = new ExternalSort(memoryBudget, tempDir)) {
+			StringBuilder reused = new StringBuilder();
+
+			for (String record : records) {
+				reused.setLength(0);
+				sort.add(reused.append(record));
+			}
+
+			checkRunCount.accept(sort.getRunCount());
+			sort.forEachSorted(sorted::add);
+		}
+
+		return sorted;
+	}
+
+	@Test
+	public void RecordsAreSortedInMemory() throws IOException {
+		List<String> records = createRecords(10000);
+		List<String> expected = new ArrayList<>(records);
+		Collections.sort(expected);
+
+		Assertions.assertEquals(expected, sort(records, Long.MAX_VALUE, null, (runs) -> Assertions.assertEquals(0, runs)));
+	}
+
+	@Test
+	public void RecordsAreSortedAcrossSeveralMergePasses() throws IOException {
+		List<String> records = createRecords(20000);
+		List<String> expected = new ArrayList<>(records);
+		Collections.sort(expected);
+		Path tempDir = Files.createTempDirectory("stitch-sort-test");
+
+		try {
+			// every 100 records fill the budget, which gives more runs than are merged at once
+			long budget = 0;
+			for (String record : records.subList(0, 100)) {
+				budget += 2L * record.length() + 8;
+			}
+
+			List<String> sorted = sort(records, budget, tempDir, (runs) -> Assertions.assertTrue(runs > ExternalSort.MAX_FAN_IN * 2, runs + " runs"));
+			Assertions.assertEquals(expected, sorted);
+
+			try (Stream<Path> files = Files.list(tempDir)) {
+				Assertions.assertEquals(0, files.count(), "runs left behind");
+			}
+		} finally {
+			Files.delete(tempDir);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestLineTokenizer {
+	private static final String[] PIECES = {"", "", "a", "class_1", " ", "  x ", "é", "net/minecraft/class_2 ", "\t", "\t\t"};
+
+	private static String createText(Random random, int lines) {
+		StringBuilder text = new StringBuilder();
+
+		for (int i = 0; i < lines; i++) {
+			int pieces = random.nextInt(6);
+			for (int j = 0; j < pieces; j++) text.append(PIECES[random.nextInt(PIECES.length)]).append(random.nextInt(3) == 0 ? "" : "\t");
+
+			// a few lines longer than the buffer the tokenizer starts with
+			if (random.nextInt(200) == 0) text.append(String.join("", Collections.nCopies(20000, "long\t")));
+
+			if (i + 1 < lines || random.nextBoolean()) text.append(random.nextBoolean() ? "\n" : "\r\n");
+		}
+
+		return text.toString();
+	}
+
+	/**
+	 * The way the Tiny v1 commands split lines before they used the tokenizer.
+	 */
+	private static List<String> split(String line, boolean trim) {
+		if (!trim) return Arrays.asList(line.split("\t"));
+
+		List<String> fields = new ArrayList<>();
+		for (String field : line.trim().split("\t")) fields.add(field.trim());
+		return fields;
+	}
+
+	private static List<String> fields(LineTokenizer tokenizer, NamePool pool) {
+		List<String> fields = new ArrayList<>();
+
+		for (int i = 0; i < tokenizer.getFieldCount(); i++) {
+			String field = tokenizer.getField(i);
+			Assertions.assertEquals(field, tokenizer.getField(i, pool));
+			Assertions.assertEquals(field.isEmpty(), tokenizer.isEmpty(i));
+			Assertions.assertEquals(field.length(), tokenizer.getLength(i));
+			Assertions.assertTrue(tokenizer.fieldEquals(i, field));
+			Assertions.assertFalse(tokenizer.fieldEquals(i, field + "x"));
+			Assertions.assertTrue(tokenizer.fieldStartsWith(i, field.substring(0, field.length() / 2)));
+
+			int c = tokenizer.indexOf(i, 'a');
+			Assertions.assertEquals(field.indexOf('a'), c < 0 ? -1 : c - tokenizer.getStart(i));
+			int s = tokenizer.indexOf(i, "ss_");
+			Assertions.assertEquals(field.indexOf("ss_"), s < 0 ? -1 : s - tokenizer.getStart(i));
+
+			fields.add(field);
+		}
+
+		return fields;
+	}
+
+	private static void checkReading(String text, boolean trim) throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(text));
+		NamePool pool = new NamePool();
+
+		try (LineTokenizer tokenizer = new LineTokenizer(new StringReader(text), trim)) {
+			for (String line; (line = reader.readLine()) != null; ) {
+				Assertions.assertTrue(tokenizer.nextLine());
+				Assertions.assertEquals(trim ? line.trim() : line, tokenizer.getLine());
+				Assertions.assertEquals(split(line, trim), fields(tokenizer, pool));
+
+				StringWriter written = new StringWriter();
+				tokenizer.writeLine(written);
+				Assertions.assertEquals(tokenizer.getLine(), written.toString());
+			}
+
+			Assertions.assertFalse(tokenizer.nextLine());
+		}
+	}
+
+	@Test
+	public void FieldsMatchSplittingLines() throws IOException {
+		Random random = new Random(42);
+
+		for (int i = 0; i < 20; i++) {
+			String text = createText(random, 2000);
+			checkReading(text, false);
+			checkReading(text, true);
+		}
+	}
+
+	@Test
+	public void EmptyTextHasNoLines() throws IOException {
+		try (LineTokenizer tokenizer = new LineTokenizer(new StringReader(""), false)) {
+			Assertions.assertFalse(tokenizer.nextLine());
+		}
+	}
+
+	@Test
+	public void SetLinesMatchSplittingLines() {
+		Random random = new Random(42);
+		NamePool pool = new NamePool();
+		LineTokenizer untrimmed = new LineTokenizer(false);
+		LineTokenizer trimmed = new LineTokenizer(true);
+
+		for (String line : createText(random, 2000).split("\r?\n")) {
+			untrimmed.setLine(line);
+			Assertions.assertEquals(split(line, false), fields(untrimmed, pool));
+			trimmed.setLine(line);
+			Assertions.assertEquals(split(line, true), fields(trimmed, pool));
+		}
+
+		Assertions.assertThrows(IllegalStateException.class, untrimmed::nextLine);
+	}
+}
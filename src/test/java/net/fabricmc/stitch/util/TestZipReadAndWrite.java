@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2016, 2017, 2018, 2019 FabricMC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.fabricmc.stitch.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class TestZipReadAndWrite {
+	private static final byte[] STORED_DATA = "stored, not compressed".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] DEFLATED_DATA = String.join("", Collections.nCopies(100, "deflated with a data descriptor\n")).getBytes(StandardCharsets.UTF_8);
+
+	private static Path createSource() throws IOException {
+		Path path = Files.createTempFile("stitch", ".zip");
+
+		try (OutputStream stream = Files.newOutputStream(path); ZipOutputStream zip = new ZipOutputStream(stream)) {
+			ZipEntry stored = new ZipEntry("a/stored.txt");
+			CRC32 crc = new CRC32();
+			crc.update(STORED_DATA);
+			stored.setMethod(ZipEntry.STORED);
+			stored.setSize(STORED_DATA.length);
+			stored.setCrc(crc.getValue());
+			zip.putNextEntry(stored);
+			zip.write(STORED_DATA);
+
+			// ZipOutputStream only knows the sizes after writing deflated data, so it appends a data descriptor
+			zip.putNextEntry(new ZipEntry("a/b/deflated.txt"));
+			zip.write(DEFLATED_DATA);
+
+			zip.putNextEntry(new ZipEntry("empty/"));
+		}
+
+		return path;
+	}
+
+	private static Map<String, byte[]> readWithZipFile(Path path) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+
+		try (ZipFile file = new ZipFile(path.toFile())) {
+			for (ZipEntry entry : Collections.list(file.entries())) {
+				try (InputStream stream = file.getInputStream(entry)) {
+					byte[] data = new byte[(int) entry.getSize()];
+					int read = 0;
+
+					while (read < data.length) {
+						int n = stream.read(data, read, data.length - read);
+						Assertions.assertTrue(n > 0);
+						read += n;
+					}
+
+					Assertions.assertEquals(-1, stream.read());
+					entries.put(entry.getName(), data);
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	@Test
+	public void CopiedEntriesReadBackUnchanged() throws IOException {
+		Path source = createSource();
+		Path output = Files.createTempFile("stitch", ".zip");
+		byte[] written = "written".getBytes(StandardCharsets.UTF_8);
+
+		try {
+			try (ZipReader reader = new ZipReader(source); ZipWriter writer = new ZipWriter(output)) {
+				Assertions.assertEquals(3, reader.getEntries().size());
+				Assertions.assertArrayEquals(STORED_DATA, reader.getEntries().get(0).getData());
+				Assertions.assertEquals(ZipReader.STORED, reader.getEntries().get(0).getMethod());
+				Assertions.assertArrayEquals(DEFLATED_DATA, reader.getEntries().get(1).getData());
+				Assertions.assertEquals(ZipReader.DEFLATED, reader.getEntries().get(1).getMethod());
+				Assertions.assertNotEquals(0, reader.getEntries().get(1).getFlags() & 0x8);
+
+				for (ZipReader.Entry entry : reader.getEntries()) {
+					writer.copy(entry);
+				}
+
+				writer.write("c/written.txt", reader.getEntries().get(0).getDosTime(), null, written);
+			}
+
+			// java.util.zip checks the local headers, sizes and checksums against the central directory
+			Map<String, byte[]> entries = readWithZipFile(output);
+			Assertions.assertEquals(Arrays.asList("a/", "a/stored.txt", "a/b/", "a/b/deflated.txt", "empty/", "c/", "c/written.txt"),
+					new ArrayList<>(entries.keySet()));
+			Assertions.assertArrayEquals(STORED_DATA, entries.get("a/stored.txt"));
+			Assertions.assertArrayEquals(DEFLATED_DATA, entries.get("a/b/deflated.txt"));
+			Assertions.assertArrayEquals(written, entries.get("c/written.txt"));
+
+			try (ZipReader reader = new ZipReader(output)) {
+				for (ZipReader.Entry entry : reader.getEntries()) {
+					Assertions.assertArrayEquals(entries.get(entry.getName()), entry.getData());
+					// the copied data is followed by nothing, so the sizes are in the local header
+					Assertions.assertEquals(0, entry.getFlags() & 0x8);
+				}
+			}
+		} finally {
+			Files.delete(source);
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void ManyEntriesAreWrittenAsZip64() throws IOException {
+		Path output = Files.createTempFile("stitch", ".zip");
+		ZipWriter.Deflated empty = ZipWriter.deflate(new byte[0]);
+		int count = ZipReader.MAX_ENTRIES + 2;
+
+		try {
+			try (ZipWriter writer = new ZipWriter(output)) {
+				for (int i = 0; i < count; i++) {
+					writer.write("entry" + i, 0, null, empty);
+				}
+			}
+
+			try (ZipFile file = new ZipFile(output.toFile())) {
+				Assertions.assertEquals(count, file.size());
+			}
+
+			try (ZipReader reader = new ZipReader(output)) {
+				Assertions.assertEquals(count, reader.getEntries().size());
+				Assertions.assertFalse(reader.getEntries().get(0).hasRawData());
+				Assertions.assertEquals("entry" + (count - 1), reader.getEntries().get(count - 1).getName());
+			}
+		} finally {
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void Zip64ArchivesAreReadAndCopiedWithoutMapping() throws IOException {
+		Path source = Files.createTempFile("stitch", ".zip");
+		Path output = Files.createTempFile("stitch", ".zip");
+		int count = ZipReader.MAX_ENTRIES + 1;
+
+		try {
+			// ZipOutputStream writes ZIP64 records once the entry count does not fit the end record anymore
+			try (OutputStream stream = Files.newOutputStream(source); ZipOutputStream zip = new ZipOutputStream(stream)) {
+				for (int i = 0; i < count; i++) {
+					zip.putNextEntry(new ZipEntry("entry" + i));
+				}
+
+				zip.putNextEntry(new ZipEntry("a/b/deflated.txt"));
+				zip.write(DEFLATED_DATA);
+			}
+
+			try (ZipReader reader = new ZipReader(source); ZipWriter writer = new ZipWriter(output)) {
+				Assertions.assertEquals(count + 1, reader.getEntries().size());
+				ZipReader.Entry deflated = reader.getEntries().get(count);
+				Assertions.assertFalse(deflated.hasRawData());
+				Assertions.assertArrayEquals(DEFLATED_DATA, deflated.getData());
+
+				for (ZipReader.Entry entry : reader.getEntries()) {
+					writer.copy(entry);
+				}
+			}
+
+			Map<String, byte[]> entries = readWithZipFile(output);
+			Assertions.assertEquals(count + 3, entries.size());
+			Assertions.assertArrayEquals(DEFLATED_DATA, entries.get("a/b/deflated.txt"));
+		} finally {
+			Files.delete(source);
+			Files.delete(output);
+		}
+	}
+
+	@Test
+	public void EntriesCannotBeReadAfterClosing() throws IOException {
+		Path source = createSource();
+
+		try {
+			ZipReader reader = new ZipReader(source);
+			ZipReader.Entry entry = reader.getEntries().get(0);
+			reader.close();
+			Assertions.assertThrows(IllegalStateException.class, entry::getData);
+			// the mapping is released, so the file can be replaced right away
+			Files.write(source, STORED_DATA);
+		} finally {
+			Files.delete(source);
+		}
+	}
+
+	@Test
+	public void BuffersStayReadableWhenClosingWithoutUnmapping() throws IOException {
+		Path source = createSource();
+
+		try {
+			ZipReader reader = new ZipReader(source);
+			ZipReader.Entry entry = reader.getEntries().get(0);
+			ByteBuffer raw = entry.getRawData();
+			reader.close(false);
+
+			Assertions.assertThrows(IllegalStateException.class, entry::getData);
+			// another thread still reading from its buffer would not crash
+			byte[] data = new byte[raw.remaining()];
+			raw.get(data);
+			Assertions.assertArrayEquals(STORED_DATA, data);
+		} finally {
+			// still mapped until the buffer is collected, which stops Windows from deleting it now
+			source.toFile().deleteOnExit();
+		}
+	}
+}